@@ -72,6 +72,8 @@ public class DraggableListView extends ListView {
 	private boolean mAllowAdd = true;
 	/** The resource id for the add button */
 	private int mAddResource = R.layout.draggable_add;
+	/** The most items we measure to, or 0 to measure all items */
+	private int mMaxVisibleItems = 0;
 
 	/** The starting position for a drag */
 	int mStartPosition;
@@ -107,6 +109,10 @@ public class DraggableListView extends ListView {
 		// logger.debug("Header height is: {}", height);
 		ListAdapter adapter = getAdapter();
 		int count = adapter.getCount();
+		if (mMaxVisibleItems > 0 && count > mMaxVisibleItems) {
+			// Only as tall as the visible items so the rest can scroll
+			count = mMaxVisibleItems;
+		}
 		for (int i = 0; i < count; i++) {
 			View child =  adapter.getView(i, null, null);
 			child.measure(widthMeasureSpec, heightMeasureSpec);
@@ -235,8 +241,57 @@ public class DraggableListView extends ListView {
 	}
 
 	/**
-	 *
+	 * Limits the height of the list to the given number of items. A list
+	 * with more items scrolls instead of building every item to measure
+	 * itself, so large lists only build the items being shown.
+	 * @param max the most items to show, or 0 to show all items
+	 */
+	public void setMaxVisibleItems(int max) {
+		mMaxVisibleItems = max;
+		requestLayout();
+	}
+
+	/**
+	 * @return true if the list has more items than it shows and scrolls
 	 */
+	private boolean isCapped() {
+		ListAdapter adapter = getAdapter();
+		return mMaxVisibleItems > 0 && adapter != null
+				&& adapter.getCount() > mMaxVisibleItems;
+	}
+
+	/**
+	 * Keeps the scrolling views we are in from taking the touches of a
+	 * capped list, so the list scrolls instead of the form around it.
+	 * @param ev the touch event
+	 */
+	private void keepParentsOut(MotionEvent ev) {
+		if (!isCapped() || getParent() == null) {
+			return;
+		}
+		switch (ev.getAction()) {
+		case MotionEvent.ACTION_DOWN:
+			getParent().requestDisallowInterceptTouchEvent(true);
+			break;
+		case MotionEvent.ACTION_UP:
+		case MotionEvent.ACTION_CANCEL:
+			getParent().requestDisallowInterceptTouchEvent(false);
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Keeps parents out while a capped list is touched.
+	 * @param ev the touch event
+	 */
+	@Override
+	public boolean onInterceptTouchEvent(MotionEvent ev) {
+		keepParentsOut(ev);
+		return super.onInterceptTouchEvent(ev);
+	}
+
 	/**
 	 * Sets the resource to inflate for the add button. Note that
 	 * the resource must include a Button with id interdroid.util.R.add_button
@@ -352,6 +407,7 @@ public class DraggableListView extends ListView {
 		}
 
 		if (!mDragMode) {
+			boolean wasRemoving = mRemoving;
 			// Check if we are pressing the remove button
 			if (touched != INVALID_POSITION) {
 				ImageView button = (ImageView) getChildAt(touched).findViewById(R.id.remove_button);
@@ -397,6 +453,11 @@ public class DraggableListView extends ListView {
 					break;
 				}
 			}
+			if (isCapped() && !wasRemoving && !mRemoving) {
+				// A capped list scrolls itself.
+				keepParentsOut(ev);
+				return super.onTouchEvent(ev);
+			}
 		} else {
 			switch (action) {
 			case MotionEvent.ACTION_DOWN: {
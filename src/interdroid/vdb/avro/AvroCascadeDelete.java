@@ -0,0 +1,430 @@
+package interdroid.vdb.avro;
+
+import interdroid.util.DbUtil;
+import interdroid.vdb.content.EntityUriMatcher;
+import interdroid.vdb.content.EntityUriMatcher.UriMatch;
+import interdroid.vdb.content.GenericContentProvider;
+import interdroid.vdb.content.avro.AvroContentProvider;
+import interdroid.vdb.content.avro.AvroMetadata;
+import interdroid.vdb.content.metadata.EntityInfo;
+import interdroid.vdb.content.metadata.FieldInfo;
+import interdroid.vdb.persistence.api.VdbCheckout;
+import interdroid.vdb.persistence.api.VdbRepositoryRegistry;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.avro.Schema;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+/**
+ * Deletes a record and everything it owns straight from the database.
+ * The tables to visit are derived from the metadata for the schema:
+ * <ul>
+ * <li>array and map tables are owned through their parent key</li>
+ * <li>nested records are owned through the id in the referencing column</li>
+ * <li>records in unions are owned through the id in the value column
+ * when the type column says the union holds a record</li>
+ * <li>the chunks of time series are owned through the uri of the record
+ * at the start of their key</li>
+ * </ul>
+ * The ids to delete are collected with one query per table and wave of
+ * the walk, and each table is then cleared with one statement per batch
+ * of ids, all inside one transaction. Nothing needs to be loaded into a
+ * model.
+ * <p>
+ * The rows are deleted straight from the database instead of through the
+ * provider. The only hook the provider runs on delete is onPostDelete,
+ * which only the provider registry implements, for its own table of
+ * repositories, so data records skip no hook. The change notification
+ * the provider would send is sent for the whole checkout once the
+ * transaction is done.
+ *
+ * @author nick &lt;palmer@cs.vu.nl&gt;
+ *
+ */
+public final class AvroCascadeDelete {
+	/** Access to logger. */
+	private static final Logger LOG =
+			LoggerFactory.getLogger(AvroCascadeDelete.class);
+
+	/**
+	 * Prevent construction.
+	 */
+	private AvroCascadeDelete() {
+		// No construction
+	}
+
+	/** The most ids matched by a single IN list. */
+	private static final int MAX_IDS = 500;
+
+	/**
+	 * Deletes the record at the given uri and everything it owns.
+	 * @param context the context to open the repository in
+	 * @param uri the uri of the record to delete
+	 * @param schema the schema of the record
+	 * @return the number of rows deleted
+	 * @throws IOException if the database can not be opened
+	 */
+	public static int delete(final Context context, final Uri uri,
+			final Schema schema) throws IOException {
+		UriMatch match = EntityUriMatcher.getMatch(uri);
+		if (match.isReadOnlyCheckout() || match.entityIdentifier == null) {
+			throw new IllegalArgumentException("Not a writable record: " + uri);
+		}
+		AvroMetadata metadata = new AvroMetadata(schema);
+		EntityInfo root = metadata.getEntity(match);
+		if (root == null) {
+			throw new IllegalArgumentException("Unknown entity: " + uri);
+		}
+		Map<String, EntityInfo> records = new HashMap<String, EntityInfo>();
+		for (EntityInfo entity : metadata.getEntities()) {
+			if (isRecordTable(entity)) {
+				records.put(entity.getFullName(), entity);
+			}
+		}
+
+		VdbCheckout checkout = VdbRepositoryRegistry.getInstance()
+				.getRepository(context, match.repositoryName)
+				.getBranch(match.reference);
+		SQLiteDatabase db = checkout.getReadWriteDatabase();
+		int count = 0;
+		db.beginTransaction();
+		try {
+			Map<EntityInfo, Set<Long>> doomed =
+					collect(db, match.repositoryName, records, root,
+							Long.valueOf(match.entityIdentifier));
+			Map<String, Set<Long>> owners = AvroTimeSeries.getOwners(db);
+			for (Map.Entry<EntityInfo, Set<Long>> entry : doomed.entrySet()) {
+				EntityInfo entity = entry.getKey();
+				if (entry.getValue().isEmpty()) {
+					continue;
+				}
+				for (String in : in(key(entity), entry.getValue())) {
+					count += db.delete(table(match.repositoryName, entity), in,
+							null);
+				}
+				if (isRecordTable(entity)) {
+					// Nested records are bound to uris with the full name.
+					count += deleteSeries(db, owners, entity.getFullName(),
+							entry.getValue());
+				}
+			}
+			if (!root.getFullName().equals(match.entityName)) {
+				count += deleteSeries(db, owners, match.entityName,
+						doomed.get(root));
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+			checkout.releaseDatabase();
+		}
+		LOG.debug("Deleted {} rows for: {}", count, uri);
+
+		// We went around the provider so we have to tell everyone.
+		context.getContentResolver().notifyChange(match.getCheckoutUri(), null);
+		return count;
+	}
+
+	/**
+	 * Deletes the time series held by records being deleted.
+	 * @param db the database to delete from
+	 * @param owners the ids of the records holding series by entity name
+	 * @param entity the entity name in the uris of the records
+	 * @param ids the ids of the records being deleted
+	 * @return the number of chunks deleted
+	 */
+	private static int deleteSeries(final SQLiteDatabase db,
+			final Map<String, Set<Long>> owners, final String entity,
+			final Set<Long> ids) {
+		Set<Long> owned = owners.get(entity);
+		if (owned == null) {
+			return 0;
+		}
+		List<Long> doomed = new ArrayList<Long>();
+		for (Long id : ids) {
+			if (owned.contains(id)) {
+				doomed.add(id);
+			}
+		}
+		return AvroTimeSeries.delete(db, entity, doomed);
+	}
+
+	/**
+	 * Walks the graph from the root collecting the ids to delete.
+	 * @param db the database to query
+	 * @param repository the name of the repository
+	 * @param records the record tables by full name
+	 * @param root the entity of the root record
+	 * @param id the id of the root record
+	 * @return the ids to delete per entity
+	 */
+	private static Map<EntityInfo, Set<Long>> collect(final SQLiteDatabase db,
+			final String repository, final Map<String, EntityInfo> records,
+			final EntityInfo root, final long id) {
+		Map<EntityInfo, Set<Long>> doomed =
+				new LinkedHashMap<EntityInfo, Set<Long>>();
+		LinkedList<EntityInfo> work = new LinkedList<EntityInfo>();
+		Map<EntityInfo, Set<Long>> pending =
+				new HashMap<EntityInfo, Set<Long>>();
+
+		Set<Long> first = new HashSet<Long>();
+		first.add(id);
+		enqueue(work, pending, doomed, root, first);
+
+		while (!work.isEmpty()) {
+			EntityInfo entity = work.removeFirst();
+			Set<Long> ids = pending.remove(entity);
+			if (ids == null || ids.isEmpty()) {
+				continue;
+			}
+			doomed.get(entity).addAll(ids);
+			String table = table(repository, entity);
+
+			for (String in : in(key(entity), ids)) {
+				for (FieldInfo field : entity.getFields()) {
+					EntityInfo target = field.targetEntity;
+					if (target != null && isRecordTable(target)
+							&& !isParentColumn(field)) {
+						// A nested record referenced by id.
+						enqueue(work, pending, doomed, target,
+								queryIds(db, "SELECT "
+										+ DbUtil.quoteColumnName(
+												field.fieldName)
+										+ " FROM " + table + " WHERE " + in));
+					} else if (isUnion(entity, field.fieldName)) {
+						collectUnionRecords(db, records, work, pending,
+								doomed, table, in, field.fieldName);
+					}
+				}
+			}
+
+			for (EntityInfo child : entity.children) {
+				String parent = parentColumn(child, entity);
+				if (parent != null) {
+					for (String in : in(parent, ids)) {
+						enqueue(work, pending, doomed, child,
+								queryIds(db, "SELECT "
+										+ DbUtil.quoteColumnName(key(child))
+										+ " FROM " + table(repository, child)
+										+ " WHERE " + in));
+					}
+				}
+			}
+		}
+		return doomed;
+	}
+
+	/**
+	 * Collects the records held by a union column.
+	 * @param db the database to query
+	 * @param records the record tables by full name
+	 * @param work the entities with pending ids
+	 * @param pending the ids waiting to be walked per entity
+	 * @param doomed the ids already walked per entity
+	 * @param table the table with the union
+	 * @param in the condition selecting the rows being deleted
+	 * @param column the value column of the union
+	 */
+	private static void collectUnionRecords(final SQLiteDatabase db,
+			final Map<String, EntityInfo> records,
+			final LinkedList<EntityInfo> work,
+			final Map<EntityInfo, Set<Long>> pending,
+			final Map<EntityInfo, Set<Long>> doomed,
+			final String table, final String in, final String column) {
+		Map<EntityInfo, Set<Long>> found = new HashMap<EntityInfo, Set<Long>>();
+		Cursor cursor = db.rawQuery("SELECT "
+				+ DbUtil.quoteColumnName(column) + ", "
+				+ DbUtil.quoteColumnName(
+						column + AvroContentProvider.TYPE_NAME_COLUMN_NAME)
+				+ " FROM " + table + " WHERE " + in + " AND "
+				+ DbUtil.quoteColumnName(
+						column + AvroContentProvider.TYPE_COLUMN_NAME) + " = ?",
+				new String[] {Schema.Type.RECORD.toString()});
+		try {
+			while (cursor.moveToNext()) {
+				EntityInfo target = records.get(cursor.getString(1));
+				long id = cursor.getLong(0);
+				if (target != null && id > 0) {
+					if (!found.containsKey(target)) {
+						found.put(target, new HashSet<Long>());
+					}
+					found.get(target).add(id);
+				}
+			}
+		} finally {
+			cursor.close();
+		}
+		for (Map.Entry<EntityInfo, Set<Long>> entry : found.entrySet()) {
+			enqueue(work, pending, doomed, entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * Queues ids of an entity which have not been walked yet.
+	 * @param work the entities with pending ids
+	 * @param pending the ids waiting to be walked per entity
+	 * @param doomed the ids already walked per entity
+	 * @param entity the entity the ids are for
+	 * @param ids the ids to queue
+	 */
+	private static void enqueue(final LinkedList<EntityInfo> work,
+			final Map<EntityInfo, Set<Long>> pending,
+			final Map<EntityInfo, Set<Long>> doomed,
+			final EntityInfo entity, final Collection<Long> ids) {
+		if (!doomed.containsKey(entity)) {
+			doomed.put(entity, new HashSet<Long>());
+		}
+		Set<Long> queue = pending.get(entity);
+		for (Long id : ids) {
+			if (!doomed.get(entity).contains(id)) {
+				if (queue == null) {
+					queue = new HashSet<Long>();
+					pending.put(entity, queue);
+					work.add(entity);
+				}
+				queue.add(id);
+			}
+		}
+	}
+
+	/**
+	 * Runs a query returning ids in the first column.
+	 * @param db the database to query
+	 * @param sql the query to run
+	 * @return the positive ids returned
+	 */
+	private static Set<Long> queryIds(final SQLiteDatabase db,
+			final String sql) {
+		Set<Long> ids = new HashSet<Long>();
+		Cursor cursor = db.rawQuery(sql, null);
+		try {
+			while (cursor.moveToNext()) {
+				if (!cursor.isNull(0) && cursor.getLong(0) > 0) {
+					ids.add(cursor.getLong(0));
+				}
+			}
+		} finally {
+			cursor.close();
+		}
+		return ids;
+	}
+
+	/**
+	 * @param entity the entity to check
+	 * @return true if the entity is a table of records
+	 */
+	static boolean isRecordTable(final EntityInfo entity) {
+		// Enumerations are shared and arrays and maps have a parent.
+		return entity.parentEntity == null && entity.enumValues == null;
+	}
+
+	/**
+	 * @param entity the entity holding the column
+	 * @param column the name of the column
+	 * @return true if the column holds the value of a union
+	 */
+	static boolean isUnion(final EntityInfo entity, final String column) {
+		return entity.fields.containsKey(
+				column + AvroContentProvider.TYPE_COLUMN_NAME)
+				&& entity.fields.containsKey(
+						column + AvroContentProvider.TYPE_NAME_COLUMN_NAME);
+	}
+
+	/**
+	 * @param field the field to check
+	 * @return true if the field is a parent key
+	 */
+	static boolean isParentColumn(final FieldInfo field) {
+		return field.fieldName.startsWith(
+				GenericContentProvider.PARENT_COLUMN_PREFIX);
+	}
+
+	/**
+	 * @param child the child entity
+	 * @param parent the parent entity
+	 * @return the column in the child with the parent key or null
+	 */
+	static String parentColumn(final EntityInfo child,
+			final EntityInfo parent) {
+		for (FieldInfo field : child.getFields()) {
+			if (isParentColumn(field) && field.targetEntity == parent) {
+				return field.fieldName;
+			}
+		}
+		LOG.warn("No parent key in {} for {}", child.getFullName(),
+				parent.getFullName());
+		return null;
+	}
+
+	/**
+	 * @param entity the entity
+	 * @return the name of the key column of the entity
+	 */
+	static String key(final EntityInfo entity) {
+		return entity.key.get(0).fieldName;
+	}
+
+	/**
+	 * @param repository the name of the repository
+	 * @param entity the entity
+	 * @return the name of the table for the entity
+	 */
+	static String table(final String repository,
+			final EntityInfo entity) {
+		return GenericContentProvider.escapeName(repository,
+				entity.namespace(), entity.name());
+	}
+
+	/**
+	 * Builds the conditions matching a column against the given ids. The
+	 * ids are split into batches so no statement grows past the limits
+	 * of SQLite however many rows are deleted.
+	 * @param column the column to match
+	 * @param ids the ids to match
+	 * @return one condition per batch of ids
+	 */
+	static List<String> in(final String column, final Collection<Long> ids) {
+		List<String> conditions = new ArrayList<String>();
+		StringBuilder joined = new StringBuilder();
+		int count = 0;
+		for (Long id : ids) {
+			if (count > 0) {
+				joined.append(',');
+			}
+			joined.append(id.longValue());
+			if (++count == MAX_IDS) {
+				conditions.add(in(column, joined));
+				joined.setLength(0);
+				count = 0;
+			}
+		}
+		if (count > 0) {
+			conditions.add(in(column, joined));
+		}
+		return conditions;
+	}
+
+	/**
+	 * @param column the column to match
+	 * @param ids the ids separated by commas
+	 * @return the condition matching the column against the ids
+	 */
+	private static String in(final String column, final CharSequence ids) {
+		return DbUtil.quoteColumnName(column) + " IN (" + ids + ")";
+	}
+}
@@ -0,0 +1,586 @@
+package interdroid.vdb.avro;
+
+import interdroid.util.DbUtil;
+import interdroid.vdb.content.EntityUriMatcher;
+import interdroid.vdb.content.EntityUriMatcher.UriMatch;
+import interdroid.vdb.content.avro.AvroContentProvider;
+import interdroid.vdb.content.avro.AvroMetadata;
+import interdroid.vdb.content.metadata.EntityInfo;
+import interdroid.vdb.content.metadata.FieldInfo;
+import interdroid.vdb.persistence.api.VdbCheckout;
+import interdroid.vdb.persistence.api.VdbRepositoryRegistry;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.avro.Schema;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.Process;
+
+/**
+ * Finds and deletes rows which can no longer be reached from the root
+ * records of a repository. Saving arrays and maps replaces their rows
+ * and editors which die before saving leave nested records behind, so
+ * these rows pile up over time.
+ * <p>
+ * The collector marks every row reachable from the rows of the top
+ * level record tables, following the same edges as
+ * {@link AvroCascadeDelete}, with one set based statement per edge until
+ * nothing new is marked. The top level tables are the table of the root
+ * record and the tables lists have been opened on, since a list can
+ * show the records of any entity on their own. Unmarked rows are then
+ * deleted in small batches. Each batch marks again in the transaction
+ * which deletes it, so a row linked by a save since the last batch is
+ * never taken, while writers are never held up for long.
+ * <p>
+ * A row is only deleted once it has been unreachable for a whole
+ * collection interval. Each run remembers the highest id in every
+ * table and the next run only sweeps rows at or below it, which keeps
+ * rows an open editor has inserted but not yet linked safe. Ids are
+ * reused once the highest rows are gone, so the sweep also stays below
+ * the highest id in the table before every batch. The row holding it is
+ * never deleted, so rows inserted during the run get ids above the
+ * limit.
+ * <p>
+ * The chunks of time series are kept by the uri of their record rather
+ * than by a row id, so they are deleted once their record is gone.
+ *
+ * @author nick &lt;palmer@cs.vu.nl&gt;
+ *
+ */
+public final class AvroOrphanCollector {
+	/** Access to logger. */
+	private static final Logger LOG =
+			LoggerFactory.getLogger(AvroOrphanCollector.class);
+
+	/**
+	 * Prevent construction.
+	 */
+	private AvroOrphanCollector() {
+		// No construction
+	}
+
+	/** The time between collections of a repository in milliseconds. */
+	private static final long INTERVAL = 24 * 60 * 60 * 1000L;
+
+	/** The most rows deleted in one transaction. */
+	private static final int BATCH = 500;
+
+	/** The preferences we keep the collection state in. */
+	private static final String PREFERENCES = "avro.orphans";
+
+	/** The suffix of the preference with the time of the last run. */
+	private static final String LAST_RUN = "/last_run";
+
+	/** The suffix of the preference with the entities listed on their own. */
+	private static final String ROOTS = "/roots";
+
+	/** Separates the entities listed on their own. */
+	private static final String ROOT_SEPARATOR = ",";
+
+	/** The table the reachable rows are marked in. */
+	private static final String MARK = "avro_orphan_mark";
+
+	/** The checkouts being collected right now. */
+	private static final Set<String> sRunning = new HashSet<String>();
+
+	/**
+	 * The outcome of a collection.
+	 * @author nick &lt;palmer@cs.vu.nl&gt;
+	 *
+	 */
+	public static final class Result {
+		/** The number of rows deleted. */
+		private final int mRows;
+		/** The number of bytes freed in the database. */
+		private final long mBytes;
+
+		/**
+		 * Construct a result.
+		 * @param rows the number of rows deleted
+		 * @param bytes the number of bytes freed
+		 */
+		private Result(final int rows, final long bytes) {
+			mRows = rows;
+			mBytes = bytes;
+		}
+
+		/**
+		 * @return the number of rows deleted
+		 */
+		public int getRows() {
+			return mRows;
+		}
+
+		/**
+		 * @return the number of bytes freed in the database
+		 */
+		public long getBytes() {
+			return mBytes;
+		}
+
+		@Override
+		public String toString() {
+			return mRows + " rows, " + mBytes + " bytes";
+		}
+	}
+
+	/**
+	 * Collects the repository of the given uri once the calling thread
+	 * runs out of work, unless it was collected recently. Must be called
+	 * on a thread with a looper, normally the UI thread.
+	 * @param context the context to open the repository in
+	 * @param uri the uri of a list in the repository to collect. The
+	 * records of the list are kept as top level records from now on.
+	 */
+	public static void collectWhenIdle(final Context context,
+			final Uri uri) {
+		final UriMatch match = EntityUriMatcher.getMatch(uri);
+		if (match.isReadOnlyCheckout()) {
+			return;
+		}
+		final Context appContext = context.getApplicationContext();
+		final SharedPreferences prefs = appContext.getSharedPreferences(
+				PREFERENCES, Context.MODE_PRIVATE);
+		addRoot(prefs, match);
+		if (System.currentTimeMillis() - prefs.getLong(
+				checkoutName(match) + LAST_RUN, 0) < INTERVAL) {
+			return;
+		}
+
+		Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+			public boolean queueIdle() {
+				new Thread(new Runnable() {
+					public void run() {
+						Process.setThreadPriority(
+								Process.THREAD_PRIORITY_LOWEST);
+						collectInBackground(appContext, match);
+					}
+				}, "Orphans: " + match.repositoryName).start();
+				// We only want to run once.
+				return false;
+			}
+		});
+	}
+
+	/**
+	 * Remembers the entity of a list as a table of top level records.
+	 * @param prefs the preferences we keep the collection state in
+	 * @param match the match for the list
+	 */
+	private static void addRoot(final SharedPreferences prefs,
+			final UriMatch match) {
+		if (match.entityName == null || (match.parentEntityNames != null
+				&& !match.parentEntityNames.isEmpty())) {
+			return;
+		}
+		String name = checkoutName(match) + ROOTS;
+		String roots = prefs.getString(name, "");
+		if (!getRoots(roots).contains(match.entityName)) {
+			if (roots.length() > 0) {
+				roots += ROOT_SEPARATOR;
+			}
+			prefs.edit().putString(name, roots + match.entityName).commit();
+		}
+	}
+
+	/**
+	 * @param roots the entities listed on their own, separated by commas
+	 * @return the names of the entities
+	 */
+	private static Set<String> getRoots(final String roots) {
+		Set<String> names = new HashSet<String>();
+		for (String name : roots.split(ROOT_SEPARATOR)) {
+			if (name.length() > 0) {
+				names.add(name);
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * Runs a collection unless one is already running for the repository.
+	 * @param context the context to open the repository in
+	 * @param match the match for the checkout to collect
+	 */
+	private static void collectInBackground(final Context context,
+			final UriMatch match) {
+		String checkout = checkoutName(match);
+		synchronized (sRunning) {
+			if (!sRunning.add(checkout)) {
+				return;
+			}
+		}
+		try {
+			Uri checkoutUri = match.getCheckoutUri();
+			Schema root = AvroSchemaCache.getSchema(context, checkoutUri);
+			if (root == null) {
+				// Without the root we can not tell what is reachable.
+				LOG.debug("No schema registered for: {}", checkout);
+				return;
+			}
+			Result result = collect(context, checkoutUri, root);
+			LOG.info("Collected orphans in {}: {}", checkout, result);
+			context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE)
+					.edit().putLong(checkout + LAST_RUN,
+							System.currentTimeMillis()).commit();
+		} catch (IOException e) {
+			LOG.warn("Unable to collect orphans in: " + checkout, e);
+		} finally {
+			synchronized (sRunning) {
+				sRunning.remove(checkout);
+			}
+		}
+	}
+
+	/**
+	 * Deletes the rows of the given checkout which can not be reached
+	 * from the rows of the top level record tables and have not been
+	 * reachable since the previous collection. Blocks, so must not be
+	 * called on the UI thread.
+	 * @param context the context to open the repository in
+	 * @param checkoutUri the uri of the checkout to collect
+	 * @param root the root schema of the repository
+	 * @return the rows deleted and the bytes freed
+	 * @throws IOException if the database can not be opened
+	 */
+	public static Result collect(final Context context, final Uri checkoutUri,
+			final Schema root) throws IOException {
+		UriMatch match = EntityUriMatcher.getMatch(checkoutUri);
+		if (match.isReadOnlyCheckout()) {
+			throw new IllegalArgumentException(
+					"Not a writable checkout: " + checkoutUri);
+		}
+		String repository = match.repositoryName;
+		SharedPreferences prefs = context.getSharedPreferences(PREFERENCES,
+				Context.MODE_PRIVATE);
+		Set<String> listed = getRoots(
+				prefs.getString(checkoutName(match) + ROOTS, ""));
+		AvroMetadata metadata = new AvroMetadata(root);
+		List<EntityInfo> roots = new ArrayList<EntityInfo>();
+		List<EntityInfo> swept = new ArrayList<EntityInfo>();
+		for (EntityInfo entity : metadata.getEntities()) {
+			if (entity.getFullName().equals(root.getFullName())
+					|| (AvroCascadeDelete.isRecordTable(entity)
+							&& (listed.contains(entity.name())
+							|| listed.contains(entity.getFullName())))) {
+				roots.add(entity);
+			} else if (entity.enumValues == null) {
+				// Enumerations are shared so they are never orphans.
+				swept.add(entity);
+			}
+		}
+		if (roots.isEmpty()) {
+			throw new IllegalArgumentException("Unknown entity: "
+					+ root.getFullName());
+		}
+
+		Map<EntityInfo, Long> limits = new HashMap<EntityInfo, Long>();
+		SharedPreferences.Editor editor = prefs.edit();
+
+		VdbCheckout checkout = VdbRepositoryRegistry.getInstance()
+				.getRepository(context, repository)
+				.getBranch(match.reference);
+		SQLiteDatabase db = checkout.getReadWriteDatabase();
+		int rows = 0;
+		long bytes;
+		try {
+			long freeBefore = freePages(db);
+
+			db.beginTransaction();
+			try {
+				for (EntityInfo entity : swept) {
+					String name = checkoutName(match) + "/"
+							+ entity.getFullName();
+					long max = maxKey(db, repository, entity);
+					if (prefs.getLong(name, 0) > 0) {
+						limits.put(entity,
+								Math.min(prefs.getLong(name, 0), max - 1));
+					}
+					editor.putLong(name, max);
+				}
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
+
+			try {
+				int deleted = limits.isEmpty() ? 0 : BATCH;
+				while (deleted == BATCH) {
+					deleted = 0;
+					db.beginTransaction();
+					try {
+						// Saves since the last batch may have linked rows.
+						mark(db, repository, metadata, roots);
+						for (Map.Entry<EntityInfo, Long> limit
+								: limits.entrySet()) {
+							// Deletes by others may have freed high ids.
+							limit.setValue(Math.min(limit.getValue(),
+									maxKey(db, repository, limit.getKey())
+									- 1));
+							deleted += sweep(db, repository, limit.getKey(),
+									limit.getValue(), BATCH - deleted);
+							if (deleted == BATCH) {
+								break;
+							}
+						}
+						db.setTransactionSuccessful();
+					} finally {
+						db.endTransaction();
+					}
+					rows += deleted;
+				}
+
+				db.beginTransaction();
+				try {
+					rows += sweepSeries(db, repository, metadata);
+					db.setTransactionSuccessful();
+				} finally {
+					db.endTransaction();
+				}
+			} finally {
+				db.execSQL("DROP TABLE IF EXISTS " + MARK);
+			}
+
+			bytes = (freePages(db) - freeBefore) * db.getPageSize();
+		} finally {
+			checkout.releaseDatabase();
+		}
+		editor.commit();
+
+		if (rows > 0) {
+			// We went around the provider so we have to tell everyone.
+			context.getContentResolver().notifyChange(checkoutUri, null);
+		}
+		return new Result(rows, Math.max(0, bytes));
+	}
+
+	/**
+	 * Marks every row reachable from the rows of the top level tables.
+	 * @param db the database to mark in
+	 * @param repository the name of the repository
+	 * @param metadata the metadata for the repository
+	 * @param roots the entities of the top level records
+	 */
+	private static void mark(final SQLiteDatabase db, final String repository,
+			final AvroMetadata metadata, final List<EntityInfo> roots) {
+		db.execSQL("CREATE TEMP TABLE IF NOT EXISTS " + MARK
+				+ " (entity TEXT NOT NULL, id INTEGER NOT NULL,"
+				+ " PRIMARY KEY (entity, id))");
+		db.execSQL("DELETE FROM " + MARK);
+
+		List<String> edges = new ArrayList<String>();
+		for (EntityInfo entity : metadata.getEntities()) {
+			if (entity.enumValues == null) {
+				addEdges(edges, repository, entity);
+			}
+		}
+
+		for (EntityInfo root : roots) {
+			db.execSQL("INSERT INTO " + MARK + " SELECT "
+					+ DatabaseUtils.sqlEscapeString(root.getFullName()) + ", "
+					+ DbUtil.quoteColumnName(AvroCascadeDelete.key(root))
+					+ " FROM " + AvroCascadeDelete.table(repository, root));
+		}
+		long marked = countMarked(db);
+		long previous;
+		do {
+			previous = marked;
+			for (String edge : edges) {
+				db.execSQL(edge);
+			}
+			marked = countMarked(db);
+		} while (marked != previous);
+		LOG.debug("Marked {} reachable rows in: {}", marked, repository);
+	}
+
+	/**
+	 * Builds the statements which mark the rows reachable in one step
+	 * from the marked rows of an entity.
+	 * @param edges the list to add the statements to
+	 * @param repository the name of the repository
+	 * @param entity the entity the edges start at
+	 */
+	private static void addEdges(final List<String> edges,
+			final String repository, final EntityInfo entity) {
+		String table = AvroCascadeDelete.table(repository, entity);
+		String marked = DbUtil.quoteColumnName(AvroCascadeDelete.key(entity))
+				+ " IN (" + markedIds(entity) + ")";
+
+		for (FieldInfo field : entity.getFields()) {
+			EntityInfo target = field.targetEntity;
+			String column = DbUtil.quoteColumnName(field.fieldName);
+			if (target != null && AvroCascadeDelete.isRecordTable(target)
+					&& !AvroCascadeDelete.isParentColumn(field)) {
+				// A nested record referenced by id.
+				edges.add("INSERT OR IGNORE INTO " + MARK + " SELECT "
+						+ DatabaseUtils.sqlEscapeString(target.getFullName())
+						+ ", " + column + " FROM " + table + " WHERE "
+						+ column + " > 0 AND " + marked);
+			} else if (AvroCascadeDelete.isUnion(entity, field.fieldName)) {
+				// A record in a union, named by the type name column.
+				edges.add("INSERT OR IGNORE INTO " + MARK + " SELECT "
+						+ DbUtil.quoteColumnName(field.fieldName
+								+ AvroContentProvider.TYPE_NAME_COLUMN_NAME)
+						+ ", " + column + " FROM " + table + " WHERE "
+						+ DbUtil.quoteColumnName(field.fieldName
+								+ AvroContentProvider.TYPE_COLUMN_NAME) + " = "
+						+ DatabaseUtils.sqlEscapeString(
+								Schema.Type.RECORD.toString())
+						+ " AND " + column + " > 0 AND " + marked);
+			}
+		}
+
+		for (EntityInfo child : entity.children) {
+			String parent = AvroCascadeDelete.parentColumn(child, entity);
+			if (parent != null) {
+				edges.add("INSERT OR IGNORE INTO " + MARK + " SELECT "
+						+ DatabaseUtils.sqlEscapeString(child.getFullName())
+						+ ", " + DbUtil.quoteColumnName(
+								AvroCascadeDelete.key(child))
+						+ " FROM " + AvroCascadeDelete.table(repository, child)
+						+ " WHERE " + DbUtil.quoteColumnName(parent)
+						+ " IN (" + markedIds(entity) + ")");
+			}
+		}
+	}
+
+	/**
+	 * Deletes unmarked rows of an entity.
+	 * @param db the database to delete from
+	 * @param repository the name of the repository
+	 * @param entity the entity to sweep
+	 * @param limit the highest id which may be deleted
+	 * @param count the most rows to delete
+	 * @return the number of rows deleted
+	 */
+	private static int sweep(final SQLiteDatabase db, final String repository,
+			final EntityInfo entity, final long limit, final int count) {
+		String table = AvroCascadeDelete.table(repository, entity);
+		String key = DbUtil.quoteColumnName(AvroCascadeDelete.key(entity));
+		int deleted = db.delete(table, key + " IN (SELECT " + key + " FROM "
+				+ table + " WHERE " + key + " <= " + limit + " AND " + key
+				+ " NOT IN (" + markedIds(entity) + ") LIMIT " + count + ")",
+				null);
+		if (deleted > 0) {
+			LOG.debug("Deleted {} orphans from: {}", deleted, table);
+		}
+		return deleted;
+	}
+
+	/**
+	 * Deletes the time series held by records which no longer exist.
+	 * @param db the database to delete from
+	 * @param repository the name of the repository
+	 * @param metadata the metadata for the repository
+	 * @return the number of chunks deleted
+	 */
+	private static int sweepSeries(final SQLiteDatabase db,
+			final String repository, final AvroMetadata metadata) {
+		Map<String, Set<Long>> owners = AvroTimeSeries.getOwners(db);
+		if (owners.isEmpty()) {
+			return 0;
+		}
+		// Records are bound to uris with either name of their entity.
+		Map<String, EntityInfo> records = new HashMap<String, EntityInfo>();
+		for (EntityInfo entity : metadata.getEntities()) {
+			if (AvroCascadeDelete.isRecordTable(entity)) {
+				records.put(entity.name(), entity);
+				records.put(entity.getFullName(), entity);
+			}
+		}
+		int deleted = 0;
+		for (Map.Entry<String, Set<Long>> owner : owners.entrySet()) {
+			EntityInfo entity = records.get(owner.getKey());
+			if (entity == null) {
+				LOG.warn("Keeping series of unknown entity: {}",
+						owner.getKey());
+				continue;
+			}
+			Set<Long> gone = new HashSet<Long>(owner.getValue());
+			String key = AvroCascadeDelete.key(entity);
+			for (String in : AvroCascadeDelete.in(key, owner.getValue())) {
+				Cursor cursor = db.rawQuery("SELECT "
+						+ DbUtil.quoteColumnName(key) + " FROM "
+						+ AvroCascadeDelete.table(repository, entity)
+						+ " WHERE " + in, null);
+				try {
+					while (cursor.moveToNext()) {
+						gone.remove(cursor.getLong(0));
+					}
+				} finally {
+					cursor.close();
+				}
+			}
+			deleted += AvroTimeSeries.delete(db, owner.getKey(), gone);
+		}
+		if (deleted > 0) {
+			LOG.debug("Deleted {} orphaned chunks in: {}", deleted,
+					repository);
+		}
+		return deleted;
+	}
+
+	/**
+	 * @param db the database to read from
+	 * @param repository the name of the repository
+	 * @param entity the entity
+	 * @return the highest id in the table of the entity or 0 if it is empty
+	 */
+	private static long maxKey(final SQLiteDatabase db,
+			final String repository, final EntityInfo entity) {
+		return DatabaseUtils.longForQuery(db, "SELECT MAX("
+				+ DbUtil.quoteColumnName(AvroCascadeDelete.key(entity))
+				+ ") FROM " + AvroCascadeDelete.table(repository, entity),
+				null);
+	}
+
+	/**
+	 * @param entity the entity
+	 * @return a query for the marked ids of the entity
+	 */
+	private static String markedIds(final EntityInfo entity) {
+		return "SELECT id FROM " + MARK + " WHERE entity = "
+				+ DatabaseUtils.sqlEscapeString(entity.getFullName());
+	}
+
+	/**
+	 * @param db the database to count in
+	 * @return the number of marked rows
+	 */
+	private static long countMarked(final SQLiteDatabase db) {
+		return DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " + MARK,
+				null);
+	}
+
+	/**
+	 * @param db the database to check
+	 * @return the number of unused pages in the database
+	 */
+	private static long freePages(final SQLiteDatabase db) {
+		return DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+	}
+
+	/**
+	 * @param match the match for a checkout
+	 * @return the name we keep the state of the checkout under
+	 */
+	private static String checkoutName(final UriMatch match) {
+		return match.repositoryName + "/" + match.reference;
+	}
+}
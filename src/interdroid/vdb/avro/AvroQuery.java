@@ -0,0 +1,759 @@
+package interdroid.vdb.avro;
+
+import interdroid.util.DbUtil;
+import interdroid.vdb.avro.model.PackedStorage;
+import interdroid.vdb.avro.model.UriRecord;
+import interdroid.vdb.content.EntityUriMatcher;
+import interdroid.vdb.content.EntityUriMatcher.UriMatch;
+import interdroid.vdb.content.avro.AvroContentProvider;
+import interdroid.vdb.content.avro.AvroMetadata;
+import interdroid.vdb.content.metadata.EntityInfo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Field;
+import org.apache.avro.Schema.Type;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.BaseColumns;
+
+/**
+ * Filters the records of a schema inside the database instead of
+ * loading them all and filtering in Java. Predicates name a field by
+ * its path from the record and are checked against the schema as they
+ * are added. Paths are written as:
+ * <ul>
+ * <li><code>name</code> for a field of the record</li>
+ * <li><code>location.Latitude</code> for a field of a nested record</li>
+ * <li><code>photos[*].thumb</code> for any element of an array or value
+ * of a map, or <code>tags[home]</code> for the value of one key</li>
+ * <li><code>value[Point].x</code> or <code>value[int]</code> for a branch
+ * of a union, which may be left out if the union has a single branch
+ * besides null</li>
+ * </ul>
+ * All predicates must hold. They compile into a selection on the table
+ * of the record with sub-queries on the tables of nested records, arrays
+ * and maps, so only matching rows ever leave the database. Packed fields
+ * held in a bytes field and time series can not be queried.
+ *
+ * @author nick &lt;palmer@cs.vu.nl&gt;
+ *
+ */
+public final class AvroQuery {
+	/** Access to logger. */
+	private static final Logger LOG =
+			LoggerFactory.getLogger(AvroQuery.class);
+
+	/** The selector for all elements or values. */
+	private static final String ALL = "*";
+
+	/**
+	 * The comparisons a predicate can make.
+	 */
+	public enum Op {
+		/** The field equals the value, or is null for a null value. */
+		EQUALS("="),
+		/** The field differs from the value. */
+		NOT_EQUALS("<>"),
+		/** The field is less than the value. */
+		LESS("<"),
+		/** The field is at most the value. */
+		LESS_OR_EQUAL("<="),
+		/** The field is greater than the value. */
+		GREATER(">"),
+		/** The field is at least the value. */
+		GREATER_OR_EQUAL(">="),
+		/** The string field matches the SQL LIKE pattern in the value. */
+		LIKE("LIKE");
+
+		/** The SQL operator. */
+		private final String mSql;
+
+		/**
+		 * Construct an operator.
+		 * @param sql the SQL operator
+		 */
+		private Op(final String sql) {
+			mSql = sql;
+		}
+	}
+
+	/** A predicate on a field. */
+	private static final class Predicate {
+		/** The path to the field. */
+		private final String mPath;
+		/** The comparison to make. */
+		private final Op mOp;
+		/** The value to compare with. */
+		private final Object mValue;
+
+		/**
+		 * Construct a predicate.
+		 * @param path the path to the field
+		 * @param op the comparison to make
+		 * @param value the value to compare with
+		 */
+		private Predicate(final String path, final Op op, final Object value) {
+			mPath = path;
+			mOp = op;
+			mValue = value;
+		}
+	}
+
+	/** The schema of the records being queried. */
+	private final Schema mSchema;
+
+	/** The tables of the schema by full name. */
+	private final Map<String, EntityInfo> mEntities =
+			new HashMap<String, EntityInfo>();
+
+	/** The predicates in the order they were added. */
+	private final List<Predicate> mPredicates = new ArrayList<Predicate>();
+
+	/** The sort order or null for the natural order. */
+	private String mSortOrder;
+
+	/** The number of aliases used so far by the compiler. */
+	private int mAliases;
+
+	/**
+	 * Construct a query matching all records of a schema.
+	 * @param schema the schema of the records to query
+	 */
+	public AvroQuery(final Schema schema) {
+		if (schema.getType() != Type.RECORD) {
+			throw new IllegalArgumentException("Not a record: " + schema);
+		}
+		mSchema = schema;
+		for (EntityInfo entity : new AvroMetadata(schema).getEntities()) {
+			mEntities.put(entity.getFullName(), entity);
+		}
+	}
+
+	/**
+	 * Adds a predicate comparing a field with a value. The value must
+	 * suit the type of the field: a Boolean for booleans, a Number for
+	 * numbers, a CharSequence for strings and a symbol or ordinal for
+	 * enumerations. A null value matches a missing field with
+	 * {@link Op#EQUALS} and a present one with {@link Op#NOT_EQUALS}.
+	 * @param path the path to the field
+	 * @param op the comparison to make
+	 * @param value the value to compare with
+	 * @return this query
+	 * @throws IllegalArgumentException if the path does not name a field
+	 * of the schema or the value does not suit it
+	 */
+	public AvroQuery where(final String path, final Op op,
+			final Object value) {
+		Predicate predicate = new Predicate(path, op, value);
+		// Compile once now so mistakes show up where they are made.
+		compile(predicate, mSchema.getNamespace(),
+				new ArrayList<String>());
+		mPredicates.add(predicate);
+		return this;
+	}
+
+	/**
+	 * Sorts the records by a field of the record.
+	 * @param field the name of the field
+	 * @param ascending true to sort from low to high
+	 * @return this query
+	 * @throws IllegalArgumentException if the field is not a column of the
+	 * record
+	 */
+	public AvroQuery orderBy(final String field, final boolean ascending) {
+		Field sortField = mSchema.getField(field);
+		if (sortField == null || !isColumn(sortField.schema().getType())) {
+			throw new IllegalArgumentException("Can not sort by: " + field);
+		}
+		String order = DbUtil.quoteColumnName(field)
+				+ (ascending ? " ASC" : " DESC");
+		if (mSortOrder == null) {
+			mSortOrder = order;
+		} else {
+			mSortOrder = mSortOrder + ", " + order;
+		}
+		return this;
+	}
+
+	/**
+	 * @param dir the uri of the directory of records
+	 * @return the selection for the predicates or null if there are none
+	 */
+	public String getSelection(final Uri dir) {
+		return compile(getRepository(dir), new ArrayList<String>());
+	}
+
+	/**
+	 * @param dir the uri of the directory of records
+	 * @return the arguments for the selection or null if there are none
+	 */
+	public String[] getSelectionArgs(final Uri dir) {
+		List<String> args = new ArrayList<String>();
+		compile(getRepository(dir), args);
+		if (args.isEmpty()) {
+			return null;
+		}
+		return args.toArray(new String[args.size()]);
+	}
+
+	/**
+	 * @return the sort order or null for the natural order
+	 */
+	public String getSortOrder() {
+		return mSortOrder;
+	}
+
+	/**
+	 * Runs this query.
+	 * @param resolver the resolver to query with
+	 * @param dir the uri of the directory of records
+	 * @param projection the columns to return or null for all
+	 * @return a cursor over the matching rows
+	 */
+	public Cursor query(final ContentResolver resolver, final Uri dir,
+			final String[] projection) {
+		List<String> args = new ArrayList<String>();
+		String selection = compile(getRepository(dir), args);
+		LOG.debug("Querying {} with: {}", dir, selection);
+		return resolver.query(dir, projection, selection,
+				args.isEmpty() ? null : args.toArray(new String[args.size()]),
+				mSortOrder);
+	}
+
+	/**
+	 * Runs this query returning records which are bound to their rows but
+	 * not loaded. Only the ids are read, so the caller loads just the
+	 * records and fields it needs.
+	 * @param resolver the resolver to query with
+	 * @param dir the uri of the directory of records
+	 * @return the matching records
+	 */
+	public List<UriRecord> find(final ContentResolver resolver,
+			final Uri dir) {
+		List<UriRecord> records = new ArrayList<UriRecord>();
+		Cursor cursor = query(resolver, dir, new String[] {BaseColumns._ID});
+		if (cursor == null) {
+			throw new IllegalArgumentException("Unable to query: " + dir);
+		}
+		try {
+			while (cursor.moveToNext()) {
+				records.add(new UriRecord(
+						ContentUris.withAppendedId(dir, cursor.getLong(0)),
+						mSchema));
+			}
+		} finally {
+			cursor.close();
+		}
+		return records;
+	}
+
+	/**
+	 * @param dir the uri of the directory of records
+	 * @return the repository holding the records
+	 */
+	private static String getRepository(final Uri dir) {
+		UriMatch match = EntityUriMatcher.getMatch(dir);
+		return match.repositoryName;
+	}
+
+	/**
+	 * Compiles all predicates.
+	 * @param repository the repository holding the records
+	 * @param args the arguments to add to
+	 * @return the selection or null if there are no predicates
+	 */
+	private String compile(final String repository, final List<String> args) {
+		if (mPredicates.isEmpty()) {
+			return null;
+		}
+		StringBuilder selection = new StringBuilder();
+		for (Predicate predicate : mPredicates) {
+			if (selection.length() > 0) {
+				selection.append(" AND ");
+			}
+			selection.append(compile(predicate, repository, args));
+		}
+		return selection.toString();
+	}
+
+	/**
+	 * Compiles one predicate.
+	 * @param predicate the predicate to compile
+	 * @param repository the repository holding the records
+	 * @param args the arguments to add to
+	 * @return the condition for the predicate
+	 */
+	private String compile(final Predicate predicate, final String repository,
+			final List<String> args) {
+		EntityInfo root = getEntity(mSchema.getFullName());
+		mAliases = 0;
+		return "(" + compileField(predicate, repository,
+				AvroCascadeDelete.table(repository, root), root, mSchema,
+				predicate.mPath.split("\\."), 0, args) + ")";
+	}
+
+	/**
+	 * Compiles the rest of a path starting at a field of a record.
+	 * @param predicate the predicate being compiled
+	 * @param repository the repository holding the records
+	 * @param alias the name of the row of the record in the query
+	 * @param entity the table of the record
+	 * @param record the schema of the record
+	 * @param segments the segments of the path
+	 * @param index the segment naming the field
+	 * @param args the arguments to add to
+	 * @return the condition on the row
+	 */
+	private String compileField(final Predicate predicate,
+			final String repository, final String alias,
+			final EntityInfo entity, final Schema record,
+			final String[] segments, final int index,
+			final List<String> args) {
+		String segment = segments[index].trim();
+		int bracket = segment.indexOf('[');
+		String name = bracket < 0 ? segment : segment.substring(0, bracket);
+		Field field = record.getField(name);
+		if (field == null) {
+			throw new IllegalArgumentException("No field " + name + " in "
+					+ record.getFullName() + ": " + predicate.mPath);
+		}
+		// A packed field without a bytes field to live in keeps its rows.
+		if (PackedStorage.getHolder(record, field) != null) {
+			throw new IllegalArgumentException("Field can not be queried: "
+					+ predicate.mPath);
+		}
+		List<String> selectors = new ArrayList<String>();
+		while (bracket >= 0) {
+			int close = segment.indexOf(']', bracket);
+			if (close < 0) {
+				throw new IllegalArgumentException("Unclosed selector: "
+						+ predicate.mPath);
+			}
+			selectors.add(segment.substring(bracket + 1, close).trim());
+			bracket = segment.indexOf('[', close);
+		}
+		return compileSlot(predicate, repository, alias, entity, name,
+				field.schema(), selectors, segments, index + 1, args);
+	}
+
+	/**
+	 * Compiles the rest of a path starting at a value held in a column.
+	 * @param predicate the predicate being compiled
+	 * @param repository the repository holding the records
+	 * @param alias the name of the row holding the value in the query
+	 * @param entity the table holding the value
+	 * @param column the column holding the value
+	 * @param schema the schema of the value
+	 * @param selectors the selectors still to apply to the value
+	 * @param segments the segments of the path
+	 * @param index the next segment to compile
+	 * @param args the arguments to add to
+	 * @return the condition on the row
+	 */
+	private String compileSlot(final Predicate predicate,
+			final String repository, final String alias,
+			final EntityInfo entity, final String column, final Schema schema,
+			final List<String> selectors, final String[] segments,
+			final int index, final List<String> args) {
+		switch (schema.getType()) {
+		case UNION:
+			return compileUnion(predicate, repository, alias, entity, column,
+					schema, selectors, segments, index, args);
+		case ARRAY:
+			if (AvroTimeSeries.isTimeSeries(schema)) {
+				throw new IllegalArgumentException(
+						"Time series can not be queried: " + predicate.mPath);
+			}
+			return compileChild(predicate, repository, alias, entity, column,
+					schema, selectors, segments, index, args);
+		case MAP:
+			return compileChild(predicate, repository, alias, entity, column,
+					schema, selectors, segments, index, args);
+		case RECORD:
+			checkNoSelectors(predicate, selectors);
+			if (index == segments.length) {
+				return compileRecordPresence(predicate, alias, column);
+			}
+			EntityInfo target = getEntity(schema.getFullName());
+			String recordAlias = nextAlias();
+			return qualify(alias, column) + " IN (SELECT "
+					+ qualify(recordAlias, AvroCascadeDelete.key(target))
+					+ " FROM " + AvroCascadeDelete.table(repository, target)
+					+ " " + recordAlias + " WHERE "
+					+ compileField(predicate, repository, recordAlias, target,
+							schema, segments, index, args) + ")";
+		default:
+			checkNoSelectors(predicate, selectors);
+			if (index != segments.length) {
+				throw new IllegalArgumentException("Not a record: "
+						+ column + " in " + predicate.mPath);
+			}
+			return compileValue(predicate, alias, column, schema, args);
+		}
+	}
+
+	/**
+	 * Compiles the rest of a path into a branch of a union.
+	 * @param predicate the predicate being compiled
+	 * @param repository the repository holding the records
+	 * @param alias the name of the row holding the union in the query
+	 * @param entity the table holding the union
+	 * @param column the value column of the union
+	 * @param union the schema of the union
+	 * @param selectors the selectors still to apply to the union
+	 * @param segments the segments of the path
+	 * @param index the next segment to compile
+	 * @param args the arguments to add to
+	 * @return the condition on the row
+	 */
+	private String compileUnion(final Predicate predicate,
+			final String repository, final String alias,
+			final EntityInfo entity, final String column, final Schema union,
+			final List<String> selectors, final String[] segments,
+			final int index, final List<String> args) {
+		String typeColumn = qualify(alias,
+				column + AvroContentProvider.TYPE_COLUMN_NAME);
+		if (selectors.isEmpty() && index == segments.length
+				&& predicate.mValue == null) {
+			// A null union has no type or the null type.
+			args.add(Type.NULL.toString());
+			String missing = "(" + typeColumn + " IS NULL OR "
+					+ typeColumn + " = ?)";
+			if (predicate.mOp == Op.EQUALS) {
+				return missing;
+			} else if (predicate.mOp == Op.NOT_EQUALS) {
+				return "NOT " + missing;
+			}
+			throw new IllegalArgumentException("Can not compare with null: "
+					+ predicate.mPath);
+		}
+
+		Schema branch;
+		List<String> rest;
+		if (selectors.isEmpty()) {
+			branch = getOnlyBranch(predicate, union);
+			rest = selectors;
+		} else {
+			branch = getBranch(predicate, union, selectors.get(0));
+			rest = selectors.subList(1, selectors.size());
+		}
+
+		StringBuilder condition = new StringBuilder("(");
+		condition.append(typeColumn).append(" = ?");
+		args.add(branch.getType().toString());
+		if (isNamed(branch)) {
+			// Older data may hold the short name.
+			condition.append(" AND ").append(qualify(alias,
+					column + AvroContentProvider.TYPE_NAME_COLUMN_NAME))
+					.append(" IN (?, ?)");
+			args.add(branch.getFullName());
+			args.add(branch.getName());
+		}
+		condition.append(" AND ").append(compileSlot(predicate, repository,
+				alias, entity, column, branch, rest, segments, index, args));
+		return condition.append(")").toString();
+	}
+
+	/**
+	 * Compiles the rest of a path into the elements of an array or the
+	 * values of a map, which live in a table of their own.
+	 * @param predicate the predicate being compiled
+	 * @param repository the repository holding the records
+	 * @param alias the name of the row owning the collection in the query
+	 * @param entity the table owning the collection
+	 * @param column the name of the field with the collection
+	 * @param schema the schema of the array or map
+	 * @param selectors the selectors still to apply to the collection
+	 * @param segments the segments of the path
+	 * @param index the next segment to compile
+	 * @param args the arguments to add to
+	 * @return the condition on the owning row
+	 */
+	private String compileChild(final Predicate predicate,
+			final String repository, final String alias,
+			final EntityInfo entity, final String column, final Schema schema,
+			final List<String> selectors, final String[] segments,
+			final int index, final List<String> args) {
+		EntityInfo child = getEntity(entity.getFullName() + "_" + column);
+		String parent = AvroCascadeDelete.parentColumn(child, entity);
+		if (parent == null) {
+			throw new IllegalArgumentException("Field can not be queried: "
+					+ predicate.mPath);
+		}
+		String selector = selectors.isEmpty() ? ALL : selectors.get(0);
+		List<String> rest = selectors.isEmpty()
+				? selectors : selectors.subList(1, selectors.size());
+
+		String childAlias = nextAlias();
+		StringBuilder condition = new StringBuilder("EXISTS (SELECT 1 FROM ");
+		condition.append(AvroCascadeDelete.table(repository, child))
+				.append(' ').append(childAlias).append(" WHERE ")
+				.append(qualify(childAlias, parent)).append(" = ")
+				.append(qualify(alias, AvroCascadeDelete.key(entity)));
+		Schema element;
+		if (schema.getType() == Type.MAP) {
+			element = schema.getValueType();
+			if (!ALL.equals(selector)) {
+				condition.append(" AND ")
+						.append(qualify(childAlias, column
+								+ AvroContentProvider.KEY_COLUMN_NAME))
+						.append(" = ?");
+				args.add(selector);
+			}
+		} else {
+			element = schema.getElementType();
+			if (!ALL.equals(selector)) {
+				throw new IllegalArgumentException(
+						"Arrays only take [" + ALL + "]: " + predicate.mPath);
+			}
+		}
+		if (element.getType() == Type.ARRAY || element.getType() == Type.MAP) {
+			throw new IllegalArgumentException(
+					"Nested collections can not be queried: "
+							+ predicate.mPath);
+		}
+		condition.append(" AND ").append(compileSlot(predicate, repository,
+				childAlias, child, column, element, rest, segments, index,
+				args));
+		return condition.append(")").toString();
+	}
+
+	/**
+	 * Compiles a comparison on a record field itself, which can only
+	 * check whether the record is there.
+	 * @param predicate the predicate being compiled
+	 * @param alias the name of the row in the query
+	 * @param column the column with the id of the record
+	 * @return the condition on the row
+	 */
+	private static String compileRecordPresence(final Predicate predicate,
+			final String alias, final String column) {
+		if (predicate.mValue != null) {
+			throw new IllegalArgumentException(
+					"Records can only be compared with null: "
+							+ predicate.mPath);
+		}
+		String missing = "(" + qualify(alias, column) + " IS NULL OR "
+				+ qualify(alias, column) + " <= 0)";
+		if (predicate.mOp == Op.EQUALS) {
+			return missing;
+		} else if (predicate.mOp == Op.NOT_EQUALS) {
+			return "NOT " + missing;
+		}
+		throw new IllegalArgumentException("Can not compare with null: "
+				+ predicate.mPath);
+	}
+
+	/**
+	 * Compiles a comparison on a column.
+	 * @param predicate the predicate being compiled
+	 * @param alias the name of the row in the query
+	 * @param column the column to compare
+	 * @param schema the schema of the value in the column
+	 * @param args the arguments to add to
+	 * @return the condition on the row
+	 */
+	private static String compileValue(final Predicate predicate,
+			final String alias, final String column, final Schema schema,
+			final List<String> args) {
+		String qualified = qualify(alias, column);
+		if (predicate.mValue == null) {
+			if (predicate.mOp == Op.EQUALS) {
+				return qualified + " IS NULL";
+			} else if (predicate.mOp == Op.NOT_EQUALS) {
+				return qualified + " IS NOT NULL";
+			}
+			throw new IllegalArgumentException("Can not compare with null: "
+					+ predicate.mPath);
+		}
+		if (predicate.mOp == Op.LIKE && schema.getType() != Type.STRING) {
+			throw new IllegalArgumentException("LIKE needs a string: "
+					+ predicate.mPath);
+		}
+		args.add(toArgument(predicate, schema));
+		return qualified + " " + predicate.mOp.mSql + " ?";
+	}
+
+	/**
+	 * Converts a value to the form the provider stores it in.
+	 * @param predicate the predicate with the value
+	 * @param schema the schema of the field
+	 * @return the value as a selection argument
+	 */
+	private static String toArgument(final Predicate predicate,
+			final Schema schema) {
+		Object value = predicate.mValue;
+		switch (schema.getType()) {
+		case BOOLEAN:
+			if (value instanceof Boolean) {
+				return ((Boolean) value).booleanValue() ? "1" : "0";
+			}
+			break;
+		case INT:
+		case LONG:
+			if (value instanceof Integer || value instanceof Long
+					|| value instanceof Short || value instanceof Byte) {
+				return String.valueOf(((Number) value).longValue());
+			}
+			break;
+		case FLOAT:
+		case DOUBLE:
+			if (value instanceof Number) {
+				return String.valueOf(((Number) value).doubleValue());
+			}
+			break;
+		case STRING:
+			if (value instanceof CharSequence) {
+				return value.toString();
+			}
+			break;
+		case ENUM:
+			if (value instanceof Integer) {
+				return value.toString();
+			}
+			if (value instanceof CharSequence
+					&& schema.hasEnumSymbol(value.toString())) {
+				return String.valueOf(
+						schema.getEnumOrdinal(value.toString()));
+			}
+			break;
+		default:
+			break;
+		}
+		throw new IllegalArgumentException("Can not compare "
+				+ schema.getType() + " with " + value + ": "
+				+ predicate.mPath);
+	}
+
+	/**
+	 * Returns the branch of a union named by a selector.
+	 * @param predicate the predicate being compiled
+	 * @param union the schema of the union
+	 * @param selector the name of the branch
+	 * @return the branch
+	 */
+	private static Schema getBranch(final Predicate predicate,
+			final Schema union, final String selector) {
+		for (Schema branch : union.getTypes()) {
+			if (isNamed(branch)) {
+				if (selector.equals(branch.getFullName())
+						|| selector.equals(branch.getName())) {
+					return branch;
+				}
+			} else if (selector.equalsIgnoreCase(branch.getName())) {
+				return branch;
+			}
+		}
+		throw new IllegalArgumentException("No branch " + selector
+				+ " in union: " + predicate.mPath);
+	}
+
+	/**
+	 * Returns the only branch of a union besides null.
+	 * @param predicate the predicate being compiled
+	 * @param union the schema of the union
+	 * @return the branch
+	 */
+	private static Schema getOnlyBranch(final Predicate predicate,
+			final Schema union) {
+		Schema only = null;
+		for (Schema branch : union.getTypes()) {
+			if (branch.getType() != Type.NULL) {
+				if (only != null) {
+					throw new IllegalArgumentException(
+							"Union needs a [branch]: " + predicate.mPath);
+				}
+				only = branch;
+			}
+		}
+		if (only == null) {
+			throw new IllegalArgumentException("Union is always null: "
+					+ predicate.mPath);
+		}
+		return only;
+	}
+
+	/**
+	 * @param predicate the predicate being compiled
+	 * @param selectors the selectors left
+	 */
+	private static void checkNoSelectors(final Predicate predicate,
+			final List<String> selectors) {
+		if (!selectors.isEmpty()) {
+			throw new IllegalArgumentException("Unexpected selector ["
+					+ selectors.get(0) + "]: " + predicate.mPath);
+		}
+	}
+
+	/**
+	 * @param schema a schema
+	 * @return true if the schema is a named type
+	 */
+	private static boolean isNamed(final Schema schema) {
+		switch (schema.getType()) {
+		case ENUM:
+		case FIXED:
+		case RECORD:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * @param type a field type
+	 * @return true if a field of the type is a plain column
+	 */
+	private static boolean isColumn(final Type type) {
+		switch (type) {
+		case BOOLEAN:
+		case DOUBLE:
+		case ENUM:
+		case FLOAT:
+		case INT:
+		case LONG:
+		case STRING:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * @param fullName the full name of a table
+	 * @return the table
+	 */
+	private EntityInfo getEntity(final String fullName) {
+		EntityInfo entity = mEntities.get(fullName);
+		if (entity == null) {
+			throw new IllegalArgumentException("Unknown entity: " + fullName);
+		}
+		return entity;
+	}
+
+	/**
+	 * @return a fresh name for a row in a sub-query
+	 */
+	private String nextAlias() {
+		return "q" + ++mAliases;
+	}
+
+	/**
+	 * @param alias the name of a row
+	 * @param column the name of a column
+	 * @return the column qualified with the row
+	 */
+	private static String qualify(final String alias, final String column) {
+		return alias + "." + DbUtil.quoteColumnName(column);
+	}
+}
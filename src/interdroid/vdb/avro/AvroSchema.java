@@ -87,6 +87,7 @@ public final class AvroSchema {
 			+ "\n              {\"name\": \"doc\", \"type\": \"string\"},"
 			+ "\n              {\"name\": \"namespace\", \"type\": \"string\", \"ui.list\": \"true\", \"ui.label\": \"Application Name\"},"
 			+ "\n              {\"name\": \"aliases\", \"type\": {\"type\": \"array\", \"items\": {\"type\": \"string\"}}},"
+			+ "\n              {\"name\": \"indexes\", \"ui.label\": \"Combined Indexes\", \"type\": {\"type\": \"array\", \"items\": {\"type\": \"string\"}}},"
 			+ "\n              {\"name\": \"fields\","
 			+ "\n               \"type\": {\"type\": \"array\", \"items\":"
 			+ "\n                        {\"type\": \"record\", \"name\": \"FieldDef\","
@@ -95,6 +96,7 @@ public final class AvroSchema {
 			+ "\n                             {\"name\": \"label\", \"type\": \"string\"},"
 			+ "\n                             {\"name\": \"doc\", \"type\": \"string\"},"
 			+ "\n                             {\"name\": \"list\", \"ui.label\": \"Show In List\", \"type\": \"boolean\"},"
+			+ "\n                             {\"name\": \"index\", \"ui.label\": \"Index For Sorting And Searching\", \"type\": \"boolean\"},"
 //			+ "\n                             {\"name\": \"aliases\", \"type\": {\"type\": \"array\", \"items\": {\"type\": \"string\"}}},"
 			+ "\n                             {\"name\": \"type\", \"type\": \"Type\"},"
 			+ "\n                             {\"name\": \"order\","
@@ -0,0 +1,270 @@
+package interdroid.vdb.avro;
+
+import interdroid.vdb.content.EntityUriMatcher;
+import interdroid.vdb.content.EntityUriMatcher.UriMatch;
+import interdroid.vdb.content.avro.AvroProviderRegistry;
+
+import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.avro.Schema;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.content.Context;
+import android.net.Uri;
+
+/**
+ * A process wide cache of parsed schemas keyed by a fingerprint of their
+ * canonical form. Activities hand each other the fingerprint instead of
+ * the schema json so that a schema is parsed once per process instead of
+ * once per navigation. Artifacts derived from a schema, such as the
+ * projection used to list it, can be memoized alongside the schema.
+ *
+ * <p>The fingerprint is the 64 bit Rabin fingerprint (CRC-64-AVRO) of the
+ * json produced by {@link Schema#toString()}. The version of avro we ship
+ * does not have parsing canonical form so we use the full json which
+ * also covers the ui properties the derived artifacts depend on.</p>
+ *
+ * @author nick &lt;palmer@cs.vu.nl&gt;
+ *
+ */
+public final class AvroSchemaCache {
+	/** Access to logger. */
+	private static final Logger LOG =
+			LoggerFactory.getLogger(AvroSchemaCache.class);
+
+	/**
+	 * Prevent construction.
+	 */
+	private AvroSchemaCache() {
+		// No construction
+	}
+
+	/** The fingerprint of the empty string. */
+	private static final long EMPTY = 0xc15d213aa4d7a795L;
+
+	/** The number of bits in a byte. */
+	private static final int BITS = 8;
+
+	/** The mask for a byte. */
+	private static final int BYTE_MASK = 0xff;
+
+	/** The lookup table for the fingerprint computation. */
+	private static final long[] FP_TABLE = new long[BYTE_MASK + 1];
+
+	static {
+		for (int i = 0; i < FP_TABLE.length; i++) {
+			long fp = i;
+			for (int j = 0; j < BITS; j++) {
+				fp = (fp >>> 1) ^ (EMPTY & -(fp & 1L));
+			}
+			FP_TABLE[i] = fp;
+		}
+	}
+
+	/** The parsed schemas by fingerprint. */
+	private static final Map<Long, Schema> sSchemas =
+			new HashMap<Long, Schema>();
+
+	/** The fingerprints of the schemas we have handed out. */
+	private static final Map<Schema, Long> sFingerprints =
+			new IdentityHashMap<Schema, Long>();
+
+	/** Maps the fingerprint of raw json to the canonical fingerprint. */
+	private static final Map<Long, Long> sJsonAliases =
+			new HashMap<Long, Long>();
+
+	/** Maps entity keys for uris to the fingerprint of their schema. */
+	private static final Map<String, Long> sUriSchemas =
+			new HashMap<String, Long>();
+
+	/** Artifacts derived from a schema by fingerprint. */
+	private static final Map<Long, Map<String, Object>> sArtifacts =
+			new HashMap<Long, Map<String, Object>>();
+
+	/**
+	 * Computes the fingerprint for the given string.
+	 * @param value the string to fingerprint
+	 * @return the fingerprint
+	 */
+	private static long fingerprint(final String value) {
+		byte[] data;
+		try {
+			data = value.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException("UTF-8 not supported.", e);
+		}
+		long fp = EMPTY;
+		for (byte b : data) {
+			fp = (fp >>> BITS) ^ FP_TABLE[(int) (fp ^ b) & BYTE_MASK];
+		}
+		return fp;
+	}
+
+	/**
+	 * Returns the fingerprint for the given schema, registering the schema
+	 * with the cache if it is not yet known.
+	 * @param schema the schema to fingerprint
+	 * @return the fingerprint of the schema
+	 */
+	public static synchronized long fingerprint(final Schema schema) {
+		Long known = sFingerprints.get(schema);
+		if (known != null) {
+			return known;
+		}
+		return register(schema);
+	}
+
+	/**
+	 * Registers the given schema with the cache.
+	 * @param schema the schema to register
+	 * @return the fingerprint of the schema
+	 */
+	private static long register(final Schema schema) {
+		long fp = fingerprint(schema.toString());
+		Schema existing = sSchemas.get(fp);
+		if (existing == null) {
+			LOG.debug("Caching schema {} as {}", schema.getFullName(),
+					Long.toHexString(fp));
+			sSchemas.put(fp, schema);
+		}
+		sFingerprints.put(schema, fp);
+		return fp;
+	}
+
+	/**
+	 * Returns the schema with the given fingerprint.
+	 * @param fingerprint the fingerprint of the schema
+	 * @return the schema or null if it is not in the cache
+	 */
+	public static synchronized Schema get(final long fingerprint) {
+		return sSchemas.get(fingerprint);
+	}
+
+	/**
+	 * Parses the given schema json or returns the cached schema
+	 * if this json has been parsed before.
+	 * @param json the json for the schema
+	 * @return the parsed schema
+	 */
+	public static synchronized Schema parse(final String json) {
+		long raw = fingerprint(json);
+		Long fp = sJsonAliases.get(raw);
+		if (fp != null) {
+			Schema schema = sSchemas.get(fp);
+			if (schema != null) {
+				return schema;
+			}
+		}
+		Schema schema = Schema.parse(json);
+		fp = register(schema);
+		sJsonAliases.put(raw, fp);
+		return sSchemas.get(fp);
+	}
+
+	/**
+	 * Returns the schema for the given uri, asking the provider registry
+	 * only the first time an entity is seen.
+	 * @param context the context to query the registry in
+	 * @param uri the uri to get the schema for
+	 * @return the schema or null if the registry does not know it
+	 */
+	public static Schema getSchema(final Context context, final Uri uri) {
+		String key = getEntityKey(uri);
+		synchronized (AvroSchemaCache.class) {
+			Long fp = sUriSchemas.get(key);
+			if (fp != null) {
+				Schema schema = sSchemas.get(fp);
+				if (schema != null) {
+					return schema;
+				}
+			}
+		}
+
+		Schema schema = AvroProviderRegistry.getSchema(context, uri);
+		if (schema != null) {
+			synchronized (AvroSchemaCache.class) {
+				long fp = fingerprint(schema);
+				sUriSchemas.put(key, fp);
+				schema = sSchemas.get(fp);
+			}
+		}
+		return schema;
+	}
+
+	/**
+	 * Builds the key we use to remember which schema an entity uri has.
+	 * @param uri the uri to build the key for
+	 * @return the key
+	 */
+	private static String getEntityKey(final Uri uri) {
+		UriMatch match = EntityUriMatcher.getMatch(uri);
+		StringBuilder key = new StringBuilder();
+		key.append(match.repositoryName);
+		if (match.parentEntityNames != null) {
+			for (String parent : match.parentEntityNames) {
+				key.append('/');
+				key.append(parent);
+			}
+		}
+		key.append('/');
+		key.append(match.entityName);
+		return key.toString();
+	}
+
+	/**
+	 * Forgets the uri to schema mappings for the given repository.
+	 * This must be called when a new schema is registered for it.
+	 * @param repositoryName the name of the repository
+	 */
+	public static synchronized void invalidate(final String repositoryName) {
+		String prefix = repositoryName + "/";
+		Iterator<String> keys = sUriSchemas.keySet().iterator();
+		while (keys.hasNext()) {
+			if (keys.next().startsWith(prefix)) {
+				keys.remove();
+			}
+		}
+	}
+
+	/**
+	 * Returns an artifact derived from the given schema.
+	 * @param <T> the type of the artifact
+	 * @param schema the schema the artifact was derived from
+	 * @param name the name of the artifact
+	 * @return the artifact or null if none has been stored
+	 */
+	@SuppressWarnings("unchecked")
+	public static synchronized <T> T getArtifact(final Schema schema,
+			final String name) {
+		Map<String, Object> artifacts = sArtifacts.get(fingerprint(schema));
+		if (artifacts == null) {
+			return null;
+		}
+		return (T) artifacts.get(name);
+	}
+
+	/**
+	 * Stores an artifact derived from the given schema.
+	 * @param <T> the type of the artifact
+	 * @param schema the schema the artifact was derived from
+	 * @param name the name of the artifact
+	 * @param artifact the artifact to store
+	 * @return the artifact
+	 */
+	public static synchronized <T> T putArtifact(final Schema schema,
+			final String name, final T artifact) {
+		long fp = fingerprint(schema);
+		Map<String, Object> artifacts = sArtifacts.get(fp);
+		if (artifacts == null) {
+			artifacts = new HashMap<String, Object>();
+			sArtifacts.put(fp, artifacts);
+		}
+		artifacts.put(name, artifact);
+		return artifact;
+	}
+}
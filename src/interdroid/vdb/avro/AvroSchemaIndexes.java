@@ -0,0 +1,324 @@
+package interdroid.vdb.avro;
+
+import interdroid.util.DbUtil;
+import interdroid.vdb.content.GenericContentProvider;
+import interdroid.vdb.content.avro.AvroContentProvider;
+import interdroid.vdb.content.avro.AvroMetadata;
+import interdroid.vdb.content.metadata.EntityInfo;
+import interdroid.vdb.content.metadata.FieldInfo;
+import interdroid.vdb.persistence.api.VdbCheckout;
+import interdroid.vdb.persistence.api.VdbRepository;
+import interdroid.vdb.persistence.api.VdbRepositoryRegistry;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Field;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Creates the secondary indexes a schema declares. Indexes come from:
+ * <ul>
+ * <li>fields with ui.index set to true, which get an index of their own</li>
+ * <li>records with ui.index set to a list of composite indexes, each a
+ * comma separated list of columns with indexes separated by ';'</li>
+ * <li>the columns of the ui.default_sort of a record</li>
+ * <li>the parent key of every nested table</li>
+ * <li>the parent key and key column of every map table</li>
+ * </ul>
+ *
+ * @author nick &lt;palmer@cs.vu.nl&gt;
+ *
+ */
+public final class AvroSchemaIndexes {
+	/** Access to logger. */
+	private static final Logger LOG =
+			LoggerFactory.getLogger(AvroSchemaIndexes.class);
+
+	/**
+	 * Prevent construction.
+	 */
+	private AvroSchemaIndexes() {
+		// No construction
+	}
+
+	/** The branch indexes are created in. */
+	private static final String BRANCH = "master";
+
+	/** The separator between composite indexes. */
+	private static final String INDEX_SEPARATOR = ";";
+
+	/** The separator between columns in an index. */
+	private static final String COLUMN_SEPARATOR = ",";
+
+	/** The record in the schema for schemas which defines a field. */
+	private static final String FIELD_DEFINITION = "FieldDef";
+
+	/** The column holding the ui.index flag of a field definition. */
+	private static final String FIELD_INDEX_COLUMN = "index";
+
+	/** True once the schema repository is known to be up to date. */
+	private static boolean sSchemaRepositoryChecked;
+
+	/**
+	 * Brings the repository holding schema records up to date with
+	 * {@link AvroSchema#SCHEMA}. Repositories made before fields and
+	 * records could declare indexes lack the index column of field
+	 * definitions and the table of combined indexes. Those are added by
+	 * having the repository copy its records into tables for the current
+	 * schema. Must be called before schema records are read.
+	 * @param context the context to open the repository in
+	 * @throws IOException if the repository can not be upgraded
+	 */
+	public static synchronized void upgradeSchemaRepository(
+			final Context context) throws IOException {
+		if (sSchemaRepositoryChecked) {
+			return;
+		}
+		VdbRepository repository = VdbRepositoryRegistry.getInstance()
+				.getRepository(context, AvroSchema.NAMESPACE);
+		boolean stale = false;
+		for (EntityInfo entity
+				: new AvroMetadata(AvroSchema.SCHEMA).getEntities()) {
+			if (FIELD_DEFINITION.equals(entity.name())) {
+				String table = GenericContentProvider.escapeName(
+						AvroSchema.NAMESPACE, entity.namespace(),
+						entity.name());
+				VdbCheckout checkout = repository.getBranch(BRANCH);
+				try {
+					stale = lacksColumn(checkout.getReadOnlyDatabase(), table,
+							FIELD_INDEX_COLUMN);
+				} finally {
+					checkout.releaseDatabase();
+				}
+			}
+		}
+		if (stale) {
+			LOG.info("Upgrading schema repository to: {}", AvroSchema.SCHEMA);
+			repository.updateDatabase(BRANCH, AvroSchema.SCHEMA);
+		}
+		sSchemaRepositoryChecked = true;
+	}
+
+	/**
+	 * @param db the database holding the table
+	 * @param table the table to check
+	 * @param column the column to look for
+	 * @return true if the table exists but does not have the column
+	 */
+	private static boolean lacksColumn(final SQLiteDatabase db,
+			final String table, final String column) {
+		Cursor columns = db.rawQuery("PRAGMA table_info(" + table + ")",
+				null);
+		try {
+			if (columns.getCount() == 0) {
+				// Nothing was ever stored so there is nothing to upgrade.
+				return false;
+			}
+			int name = columns.getColumnIndex("name");
+			while (columns.moveToNext()) {
+				if (column.equals(columns.getString(name))) {
+					return false;
+				}
+			}
+			return true;
+		} finally {
+			columns.close();
+		}
+	}
+
+	/**
+	 * Creates the indexes declared by the given schema in the
+	 * repository for the schema. The schema must have been registered.
+	 * @param context the context to open the repository in
+	 * @param schema the schema to create indexes for
+	 * @throws IOException if the database can not be opened
+	 */
+	public static void createIndexes(final Context context,
+			final Schema schema) throws IOException {
+		String repository = schema.getNamespace();
+		Map<String, Schema> records = new HashMap<String, Schema>();
+		collectRecords(schema, records);
+		AvroMetadata metadata = new AvroMetadata(schema);
+
+		VdbCheckout checkout = VdbRepositoryRegistry.getInstance()
+				.getRepository(context, repository).getBranch(BRANCH);
+		SQLiteDatabase db = checkout.getReadWriteDatabase();
+		try {
+			for (EntityInfo entity : metadata.getEntities()) {
+				String table = GenericContentProvider.escapeName(repository,
+						entity.namespace(), entity.name());
+				for (List<String> columns : getIndexes(entity,
+						records.get(entity.getFullName()))) {
+					createIndex(db, table, columns);
+				}
+			}
+		} finally {
+			checkout.releaseDatabase();
+		}
+	}
+
+	/**
+	 * Collects all records reachable from the given schema.
+	 * @param schema the schema to walk
+	 * @param records the records found by full name
+	 */
+	private static void collectRecords(final Schema schema,
+			final Map<String, Schema> records) {
+		switch (schema.getType()) {
+		case RECORD:
+			if (!records.containsKey(schema.getFullName())) {
+				records.put(schema.getFullName(), schema);
+				for (Field field : schema.getFields()) {
+					collectRecords(field.schema(), records);
+				}
+			}
+			break;
+		case ARRAY:
+			collectRecords(schema.getElementType(), records);
+			break;
+		case MAP:
+			collectRecords(schema.getValueType(), records);
+			break;
+		case UNION:
+			for (Schema type : schema.getTypes()) {
+				collectRecords(type, records);
+			}
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Returns the indexes for the given entity.
+	 * @param entity the entity to index
+	 * @param record the record for the entity or null if it has none
+	 * @return the columns of each index
+	 */
+	private static Set<List<String>> getIndexes(final EntityInfo entity,
+			final Schema record) {
+		Set<List<String>> indexes = new LinkedHashSet<List<String>>();
+
+		// Nested tables are always loaded through their parent key.
+		List<String> parent = new ArrayList<String>();
+		for (FieldInfo field : entity.getFields()) {
+			if (field.fieldName.startsWith(
+					GenericContentProvider.PARENT_COLUMN_PREFIX)) {
+				parent.add(field.fieldName);
+			}
+		}
+		if (!parent.isEmpty()) {
+			indexes.add(parent);
+
+			// Maps are also looked up by key within their parent.
+			for (FieldInfo field : entity.getFields()) {
+				String name = field.fieldName;
+				if (name.endsWith(AvroContentProvider.KEY_COLUMN_NAME)
+						&& entity.fields.containsKey(name.substring(0,
+								name.length() - AvroContentProvider
+								.KEY_COLUMN_NAME.length()))) {
+					List<String> keyed = new ArrayList<String>(parent);
+					keyed.add(name);
+					indexes.add(keyed);
+				}
+			}
+		}
+
+		if (record != null) {
+			for (Field field : record.getFields()) {
+				if (Boolean.parseBoolean(
+						field.getProp(AvroSchemaProperties.UI_INDEX))) {
+					addIndex(entity, indexes, Arrays.asList(field.name()));
+				}
+			}
+
+			String composite = record.getProp(AvroSchemaProperties.UI_INDEX);
+			if (composite != null) {
+				for (String index : composite.split(INDEX_SEPARATOR)) {
+					List<String> columns = new ArrayList<String>();
+					for (String column : index.split(COLUMN_SEPARATOR)) {
+						if (column.trim().length() > 0) {
+							columns.add(column.trim());
+						}
+					}
+					addIndex(entity, indexes, columns);
+				}
+			}
+
+			String sort = record.getProp("ui.default_sort");
+			if (sort != null) {
+				List<String> columns = new ArrayList<String>();
+				for (String term : sort.split(COLUMN_SEPARATOR)) {
+					String[] parts = term.trim().split("\\s+");
+					if (parts[0].length() > 0) {
+						columns.add(parts[0].replace("\"", ""));
+					}
+				}
+				addIndex(entity, indexes, columns);
+			}
+		}
+
+		return indexes;
+	}
+
+	/**
+	 * Adds an index if all of its columns exist in the entity.
+	 * @param entity the entity the index is for
+	 * @param indexes the indexes to add to
+	 * @param columns the columns in the index
+	 */
+	private static void addIndex(final EntityInfo entity,
+			final Set<List<String>> indexes, final List<String> columns) {
+		if (columns.isEmpty()) {
+			return;
+		}
+		for (String column : columns) {
+			if (!entity.fields.containsKey(column)) {
+				LOG.warn("Not indexing {} on {}. No such column: {}",
+						new Object[] {columns, entity.getFullName(), column});
+				return;
+			}
+		}
+		indexes.add(columns);
+	}
+
+	/**
+	 * Creates an index if it does not yet exist.
+	 * @param db the database to create the index in
+	 * @param table the table to index
+	 * @param columns the columns to index
+	 */
+	private static void createIndex(final SQLiteDatabase db,
+			final String table, final List<String> columns) {
+		StringBuilder name = new StringBuilder(table);
+		StringBuilder sql = new StringBuilder();
+		for (String column : columns) {
+			name.append('_');
+			name.append(column);
+			if (sql.length() > 0) {
+				sql.append(", ");
+			}
+			sql.append(DbUtil.quoteColumnName(column));
+		}
+		name.append("_idx");
+		sql.insert(0, "CREATE INDEX IF NOT EXISTS "
+				+ DbUtil.quoteColumnName(name.toString())
+				+ " ON " + table + " (");
+		sql.append(')');
+		LOG.debug("Creating index: {}", sql);
+		db.execSQL(sql.toString());
+	}
+}
@@ -45,4 +45,68 @@ public final class AvroSchemaProperties {
 	 */
 	public static final String	UI_LIST_RESOURCE	= "ui.resource.list";
 
+	/**
+	 * Set to true to include a string field in list searches.
+	 * Fields shown in the list or the title are always searched.
+	 */
+	public static final String	UI_SEARCH	= "ui.search";
+
+	/**
+	 * Set to true to index a field. On a record this lists composite
+	 * indexes as comma separated columns with indexes separated by ';'.
+	 */
+	public static final String	UI_INDEX	= "ui.index";
+
+	/**
+	 * Names the field holding a thumbnail of a photo field.
+	 */
+	public static final String	UI_THUMBNAIL	= "ui.thumbnail";
+
+	/**
+	 * The number of elements in a page of an array which is loaded and
+	 * shown a page at a time. Arrays without it are loaded in full.
+	 */
+	public static final String	UI_PAGE_SIZE	= "ui.page_size";
+	/**
+	 * Set to true on a record to load its arrays, maps and records
+	 * concurrently instead of one after the other.
+	 */
+	public static final String	DB_PARALLEL_LOAD	= "db.parallel_load";
+	/**
+	 * The storage layout of an array or map. Set to
+	 * {@link #DB_STORAGE_PACKED} on an array of primitives or a map of
+	 * strings or primitives to store the whole field in one column, or to
+	 * {@link #DB_STORAGE_KEYED} on a map to address it by key.
+	 */
+	public static final String	DB_STORAGE	= "db.storage";
+	/**
+	 * The storage layout holding a field as one Avro binary value in the
+	 * bytes field of its record named by {@link #DB_PACKED}.
+	 */
+	public static final String	DB_STORAGE_PACKED	= "packed";
+	/**
+	 * Names the hidden bytes field holding a packed array or map field.
+	 * Fields without one are stored a row per element.
+	 */
+	public static final String	DB_PACKED	= "db.packed";
+	/**
+	 * The storage layout keeping a map as a row per key which is read
+	 * and written a key at a time instead of in full.
+	 */
+	public static final String	DB_STORAGE_KEYED	= "keyed";
+	/**
+	 * The storage layout holding an array of timestamped records in
+	 * chunks, which are read and appended through AvroTimeSeries.
+	 */
+	public static final String	DB_STORAGE_TIMESERIES	= "timeseries";
+	/**
+	 * Names the timestamp field of the elements of a time series.
+	 * Defaults to "timestamp".
+	 */
+	public static final String	DB_TIMESTAMP	= "db.timestamp";
+	/**
+	 * The most elements in a chunk of a time series.
+	 */
+	public static final String	DB_CHUNK_SIZE	= "db.chunk_size";
+
 }
@@ -0,0 +1,530 @@
+package interdroid.vdb.avro;
+
+import interdroid.vdb.content.EntityUriMatcher;
+import interdroid.vdb.content.EntityUriMatcher.UriMatch;
+import interdroid.vdb.persistence.api.VdbCheckout;
+import interdroid.vdb.persistence.api.VdbRepositoryRegistry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Field;
+import org.apache.avro.Schema.Type;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+/**
+ * Stores an array of timestamped records in chunks. Each chunk holds up
+ * to a fixed number of elements in Avro binary encoding, together with
+ * the lowest and highest timestamp in the chunk. Range reads only decode
+ * the chunks which overlap the range, and appends only rewrite the last
+ * chunk of the series, so older chunks are never read or written again.
+ * <p>
+ * The chunks are kept in a table of their own in the database of the
+ * checkout, keyed by the uri of the array within the checkout, since
+ * the tables of the provider have no room for the index. The key starts
+ * with the entity name and id in the uri of the record holding the
+ * array, so {@link AvroCascadeDelete} and {@link AvroOrphanCollector}
+ * drop the chunks along with the record. The model does not load or
+ * save the array, so edits to the record leave the series alone.
+ *
+ * @see AvroSchemaProperties#DB_STORAGE_TIMESERIES
+ * @author nick &lt;palmer@cs.vu.nl&gt;
+ *
+ */
+public final class AvroTimeSeries {
+	/** Access to logger. */
+	private static final Logger LOG =
+			LoggerFactory.getLogger(AvroTimeSeries.class);
+
+	/** The table the chunks are stored in. */
+	private static final String CHUNKS = "avro_timeseries";
+
+	/** The column with the key of the series. */
+	private static final String SERIES = "series";
+
+	/** The column with the lowest timestamp in the chunk. */
+	private static final String MIN = "min_ts";
+
+	/** The column with the highest timestamp in the chunk. */
+	private static final String MAX = "max_ts";
+
+	/** The column with the number of elements in the chunk. */
+	private static final String COUNT = "count";
+
+	/** The column with the encoded elements. */
+	private static final String DATA = "data";
+
+	/** The timestamp field used when the schema does not name one. */
+	private static final String DEFAULT_TIMESTAMP = "timestamp";
+
+	/** The chunk size used when the schema does not give one. */
+	private static final int DEFAULT_CHUNK_SIZE = 256;
+
+	/** Separates the segments of the key of a series. */
+	private static final String SEPARATOR = "/";
+
+	/** The context we are working in. */
+	private final Context mContext;
+	/** The uri of the array. */
+	private final Uri mUri;
+	/** The match for the uri of the array. */
+	private final UriMatch mMatch;
+	/** The key of the series in the chunk table. */
+	private final String mSeries;
+	/** The schema of the elements. */
+	private final Schema mElementSchema;
+	/** The position of the timestamp in the elements. */
+	private final int mTimestamp;
+	/** The most elements in a chunk. */
+	private final int mChunkSize;
+	/** True once the chunk table is known to exist. */
+	private boolean mCreated;
+
+	/**
+	 * Construct a time series for an array field.
+	 * @param context the context to open the repository in
+	 * @param uri the uri of the array field of a record
+	 * @param schema the schema of the array
+	 */
+	public AvroTimeSeries(final Context context, final Uri uri,
+			final Schema schema) {
+		if (!isTimeSeries(schema)) {
+			throw new IllegalArgumentException("Not a time series: " + schema);
+		}
+		mContext = context;
+		mUri = uri;
+		mMatch = EntityUriMatcher.getMatch(uri);
+		mSeries = uri.toString().substring(
+				mMatch.getCheckoutUri().toString().length());
+		mElementSchema = schema.getElementType();
+		mTimestamp = mElementSchema.getField(timestampField(schema)).pos();
+		mChunkSize = chunkSize(schema);
+	}
+
+	/**
+	 * @param schema an array schema
+	 * @return true if the schema asks for the time series layout and
+	 * can have it
+	 */
+	public static boolean isTimeSeries(final Schema schema) {
+		if (schema.getType() != Type.ARRAY
+				|| !AvroSchemaProperties.DB_STORAGE_TIMESERIES.equals(
+						schema.getProp(AvroSchemaProperties.DB_STORAGE))) {
+			return false;
+		}
+		Schema element = schema.getElementType();
+		if (element.getType() == Type.RECORD) {
+			Field timestamp = element.getField(timestampField(schema));
+			if (timestamp != null
+					&& (timestamp.schema().getType() == Type.LONG
+					|| timestamp.schema().getType() == Type.INT)) {
+				return true;
+			}
+		}
+		LOG.warn("Unable to store as time series: {}", schema);
+		return false;
+	}
+
+	/**
+	 * @param schema the array schema
+	 * @return the name of the timestamp field of the elements
+	 */
+	private static String timestampField(final Schema schema) {
+		String field = schema.getProp(AvroSchemaProperties.DB_TIMESTAMP);
+		if (field == null) {
+			return DEFAULT_TIMESTAMP;
+		}
+		return field;
+	}
+
+	/**
+	 * @param schema the array schema
+	 * @return the most elements in a chunk
+	 */
+	private static int chunkSize(final Schema schema) {
+		String size = schema.getProp(AvroSchemaProperties.DB_CHUNK_SIZE);
+		if (size != null) {
+			try {
+				int parsed = Integer.parseInt(size);
+				if (parsed > 0) {
+					return parsed;
+				}
+			} catch (NumberFormatException e) {
+				LOG.warn("Ignoring chunk size: {}", size);
+			}
+		}
+		return DEFAULT_CHUNK_SIZE;
+	}
+
+	/**
+	 * Appends an element to the series.
+	 * @param element the element to append
+	 * @throws IOException if the database can not be opened
+	 */
+	public void append(final GenericRecord element) throws IOException {
+		append(Collections.singletonList(element));
+	}
+
+	/**
+	 * Appends elements to the series. The elements are expected in time
+	 * order. Only the last chunk of the series is rewritten.
+	 * @param elements the elements to append
+	 * @throws IOException if the database can not be opened
+	 */
+	public void append(final Collection<? extends GenericRecord> elements)
+			throws IOException {
+		if (mMatch.isReadOnlyCheckout()) {
+			throw new IllegalArgumentException("Not a writable series: "
+					+ mUri);
+		}
+		if (elements.isEmpty()) {
+			return;
+		}
+		VdbCheckout checkout = getCheckout();
+		SQLiteDatabase db = checkout.getReadWriteDatabase();
+		try {
+			create(db);
+			db.beginTransaction();
+			try {
+				List<GenericRecord> chunk = new ArrayList<GenericRecord>();
+				long last = -1;
+				Cursor cursor = db.query(CHUNKS,
+						new String[] {"rowid", COUNT, DATA},
+						SERIES + " = ?", new String[] {mSeries},
+						null, null, "rowid DESC", "1");
+				try {
+					if (cursor.moveToFirst()
+							&& cursor.getInt(1) < mChunkSize) {
+						last = cursor.getLong(0);
+						chunk.addAll(decode(cursor.getBlob(2)));
+					}
+				} finally {
+					cursor.close();
+				}
+
+				for (GenericRecord element : elements) {
+					if (chunk.size() == mChunkSize) {
+						write(db, last, chunk);
+						last = -1;
+						chunk.clear();
+					}
+					chunk.add(element);
+				}
+				write(db, last, chunk);
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
+		} finally {
+			checkout.releaseDatabase();
+		}
+
+		// We went around the provider so we have to tell everyone.
+		mContext.getContentResolver().notifyChange(mUri, null);
+	}
+
+	/**
+	 * Reads the elements with a timestamp in the given range.
+	 * @param from the lowest timestamp to read
+	 * @param to the highest timestamp to read
+	 * @return the elements in the range in time order
+	 * @throws IOException if the database can not be opened
+	 */
+	public List<GenericRecord> read(final long from, final long to)
+			throws IOException {
+		List<GenericRecord> result = new ArrayList<GenericRecord>();
+		VdbCheckout checkout = getCheckout();
+		SQLiteDatabase db = checkout.getReadOnlyDatabase();
+		try {
+			if (!create(db)) {
+				return result;
+			}
+			// The index on the highest timestamp skips the older chunks.
+			Cursor cursor = db.query(CHUNKS, new String[] {DATA},
+					SERIES + " = ? AND " + MAX + " >= ? AND " + MIN + " <= ?",
+					new String[] {mSeries, String.valueOf(from),
+						String.valueOf(to)},
+					null, null, MIN + ", rowid");
+			try {
+				while (cursor.moveToNext()) {
+					for (GenericRecord element
+							: decode(cursor.getBlob(0))) {
+						long timestamp = timestamp(element);
+						if (timestamp >= from && timestamp <= to) {
+							result.add(element);
+						}
+					}
+				}
+			} finally {
+				cursor.close();
+			}
+		} finally {
+			checkout.releaseDatabase();
+		}
+		// Chunks may overlap if elements were appended out of order.
+		Collections.sort(result, new Comparator<GenericRecord>() {
+			@Override
+			public int compare(final GenericRecord a, final GenericRecord b) {
+				long left = timestamp(a);
+				long right = timestamp(b);
+				if (left < right) {
+					return -1;
+				}
+				if (left > right) {
+					return 1;
+				}
+				return 0;
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * @return the number of elements in the series
+	 * @throws IOException if the database can not be opened
+	 */
+	public long size() throws IOException {
+		VdbCheckout checkout = getCheckout();
+		SQLiteDatabase db = checkout.getReadOnlyDatabase();
+		try {
+			if (!create(db)) {
+				return 0;
+			}
+			return DatabaseUtils.longForQuery(db, "SELECT TOTAL(" + COUNT
+					+ ") FROM " + CHUNKS + " WHERE " + SERIES + " = ?",
+					new String[] {mSeries});
+		} finally {
+			checkout.releaseDatabase();
+		}
+	}
+
+	/**
+	 * Removes all elements from the series.
+	 * @throws IOException if the database can not be opened
+	 */
+	public void clear() throws IOException {
+		if (mMatch.isReadOnlyCheckout()) {
+			throw new IllegalArgumentException("Not a writable series: "
+					+ mUri);
+		}
+		VdbCheckout checkout = getCheckout();
+		SQLiteDatabase db = checkout.getReadWriteDatabase();
+		int count;
+		try {
+			create(db);
+			count = db.delete(CHUNKS, SERIES + " = ?", new String[] {mSeries});
+		} finally {
+			checkout.releaseDatabase();
+		}
+		LOG.debug("Deleted {} chunks for: {}", count, mUri);
+		mContext.getContentResolver().notifyChange(mUri, null);
+	}
+
+	/**
+	 * @return the checkout the series lives in
+	 * @throws IOException if the repository can not be opened
+	 */
+	private VdbCheckout getCheckout() throws IOException {
+		return VdbRepositoryRegistry.getInstance()
+				.getRepository(mContext, mMatch.repositoryName)
+				.getBranch(mMatch.reference);
+	}
+
+	/**
+	 * Creates the chunk table if it does not exist yet.
+	 * @param db the database to create the table in
+	 * @return true if the table exists
+	 */
+	private boolean create(final SQLiteDatabase db) {
+		if (mCreated) {
+			return true;
+		}
+		if (db.isReadOnly()) {
+			// A commit from before the first append has no table.
+			return exists(db);
+		}
+		db.execSQL("CREATE TABLE IF NOT EXISTS " + CHUNKS + " ("
+				+ SERIES + " TEXT NOT NULL, "
+				+ MIN + " INTEGER NOT NULL, "
+				+ MAX + " INTEGER NOT NULL, "
+				+ COUNT + " INTEGER NOT NULL, "
+				+ DATA + " BLOB NOT NULL)");
+		db.execSQL("CREATE INDEX IF NOT EXISTS " + CHUNKS + "_range ON "
+				+ CHUNKS + " (" + SERIES + ", " + MAX + ")");
+		mCreated = true;
+		return true;
+	}
+
+	/**
+	 * @param db the database to check
+	 * @return true if the chunk table exists
+	 */
+	private static boolean exists(final SQLiteDatabase db) {
+		return DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM"
+				+ " sqlite_master WHERE type = 'table' AND name = ?",
+				new String[] {CHUNKS}) > 0;
+	}
+
+	/**
+	 * Returns the records which hold series.
+	 * @param db the database of the checkout
+	 * @return the ids of the records by the entity name in their uris
+	 */
+	static Map<String, Set<Long>> getOwners(final SQLiteDatabase db) {
+		Map<String, Set<Long>> owners = new HashMap<String, Set<Long>>();
+		if (!exists(db)) {
+			return owners;
+		}
+		Cursor cursor = db.query(true, CHUNKS, new String[] {SERIES},
+				null, null, null, null, null, null);
+		try {
+			while (cursor.moveToNext()) {
+				// The key starts with a separator: "/entity/id/field".
+				String[] path = cursor.getString(0).split(SEPARATOR);
+				if (path.length < 4) {
+					continue;
+				}
+				try {
+					Long id = Long.valueOf(path[2]);
+					if (!owners.containsKey(path[1])) {
+						owners.put(path[1], new HashSet<Long>());
+					}
+					owners.get(path[1]).add(id);
+				} catch (NumberFormatException e) {
+					LOG.warn("Ignoring series: {}", cursor.getString(0));
+				}
+			}
+		} finally {
+			cursor.close();
+		}
+		return owners;
+	}
+
+	/**
+	 * Deletes the series held by the given records.
+	 * @param db the database of the checkout
+	 * @param entity the entity name in the uris of the records
+	 * @param ids the ids of the records
+	 * @return the number of chunks deleted
+	 */
+	static int delete(final SQLiteDatabase db, final String entity,
+			final Collection<Long> ids) {
+		int count = 0;
+		for (Long id : ids) {
+			String prefix = SEPARATOR + entity + SEPARATOR + id + SEPARATOR;
+			count += db.delete(CHUNKS, "substr(" + SERIES + ", 1, "
+					+ prefix.length() + ") = ?", new String[] {prefix});
+		}
+		return count;
+	}
+
+	/**
+	 * Writes a chunk.
+	 * @param db the database to write to
+	 * @param rowid the row of the chunk or -1 for a new chunk
+	 * @param chunk the elements of the chunk
+	 */
+	private void write(final SQLiteDatabase db, final long rowid,
+			final List<GenericRecord> chunk) {
+		long min = Long.MAX_VALUE;
+		long max = Long.MIN_VALUE;
+		for (GenericRecord element : chunk) {
+			long timestamp = timestamp(element);
+			min = Math.min(min, timestamp);
+			max = Math.max(max, timestamp);
+		}
+		ContentValues values = new ContentValues();
+		values.put(MIN, min);
+		values.put(MAX, max);
+		values.put(COUNT, chunk.size());
+		values.put(DATA, encode(chunk));
+		if (rowid < 0) {
+			values.put(SERIES, mSeries);
+			db.insert(CHUNKS, null, values);
+		} else {
+			db.update(CHUNKS, values, "rowid = ?",
+					new String[] {String.valueOf(rowid)});
+		}
+	}
+
+	/**
+	 * @param element an element of the series
+	 * @return the timestamp of the element
+	 */
+	private long timestamp(final GenericRecord element) {
+		return ((Number) element.get(mTimestamp)).longValue();
+	}
+
+	/**
+	 * Encodes the elements of a chunk.
+	 * @param chunk the elements to encode
+	 * @return the encoded chunk
+	 */
+	private byte[] encode(final List<GenericRecord> chunk) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+		GenericDatumWriter<Object> writer =
+				new GenericDatumWriter<Object>(mElementSchema);
+		try {
+			encoder.writeArrayStart();
+			encoder.setItemCount(chunk.size());
+			for (GenericRecord element : chunk) {
+				encoder.startItem();
+				writer.write(element, encoder);
+			}
+			encoder.writeArrayEnd();
+			encoder.flush();
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to encode chunk.", e);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Decodes the elements of a chunk.
+	 * @param data the encoded chunk
+	 * @return the elements of the chunk
+	 */
+	private List<GenericRecord> decode(final byte[] data) {
+		List<GenericRecord> chunk = new ArrayList<GenericRecord>();
+		BinaryDecoder decoder = DecoderFactory.get().binaryDecoder(data, null);
+		GenericDatumReader<GenericRecord> reader =
+				new GenericDatumReader<GenericRecord>(mElementSchema);
+		try {
+			for (long count = decoder.readArrayStart(); count > 0;
+					count = decoder.arrayNext()) {
+				for (long i = 0; i < count; i++) {
+					chunk.add(reader.read(null, decoder));
+				}
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to decode chunk.", e);
+		}
+		return chunk;
+	}
+}
@@ -1,27 +1,29 @@
 package interdroid.vdb.avro.control;
 
+import interdroid.vdb.avro.AvroSchema;
+import interdroid.vdb.avro.AvroSchemaIndexes;
 import interdroid.vdb.avro.model.AvroRecordModel;
+import interdroid.vdb.avro.model.AvroRecordModel.OnExternalChangeListener;
 import interdroid.vdb.avro.model.NotBoundException;
 import interdroid.vdb.avro.view.AvroBaseEditor;
+import interdroid.vdb.avro.view.AvroListSummary;
 import interdroid.vdb.avro.view.factory.AvroViewFactory;
 import interdroid.vdb.content.EntityUriMatcher;
 import interdroid.vdb.content.EntityUriMatcher.UriMatch;
 
+import java.io.IOException;
+import java.util.List;
+
 import org.apache.avro.Schema;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import android.content.ContentResolver;
-import android.content.ContentValues;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.Bundle;
 import android.widget.Toast;
 
-// TODO: The database should be wired to notify the controller
-// and update the view should something else
-// edit the database behind our back.
-
 /**
  * The AvroController manages the model writing it as required by the activity.
  * 
@@ -59,6 +61,8 @@ public class AvroController {
 	private int mState;
 	/** The model of the record. */
 	private AvroRecordModel mDataModel;
+	/** The views of the form or null before it is built. */
+	private AvroViewFactory.FormViews mForm;
 
 	/**
 	 * Construct a controller.
@@ -87,9 +91,34 @@ public class AvroController {
 	 *             if the model is not bound
 	 */
 	public final void handleSave() throws NotBoundException {
-		if (mState != STATE_CANCELED && !mReadOnly) {
+		// Our own changes must not be merged back into the form.
+		if (mDataModel != null) {
+			mDataModel.stopObserving();
+		}
+		if (mState != STATE_CANCELED && !mReadOnly && mDataModel != null) {
+			boolean dirty = mDataModel.isDirty();
 			mDataModel.storeCurrentValue();
+			// A new record gets its uri when it is first stored.
+			mUri = mDataModel.getUri();
+			if (dirty && mDataModel.getCurrentModel() != null) {
+				AvroListSummary.update(mActivity,
+						mDataModel.getCurrentModel());
+			}
+		}
+	}
+
+	/**
+	 * Returns the uri of the record if it has a row in the database.
+	 * A new record has no row until it is first stored.
+	 * 
+	 * @return the uri of the stored record or null
+	 */
+	public final Uri getStoredUri() {
+		if (mDataModel == null || mDataModel.getCurrentModel() == null
+				|| mDataModel.getCurrentModel().isProvisional()) {
+			return null;
 		}
+		return mUri;
 	}
 
 	/**
@@ -108,20 +137,50 @@ public class AvroController {
 	 *             if the record is not bound
 	 */
 	public final void loadData() throws NotBoundException {
+		// Schema records may live in a repository from before indexes.
+		if (AvroSchema.NAMESPACE.equals(
+				EntityUriMatcher.getMatch(mUri).repositoryName)) {
+			try {
+				AvroSchemaIndexes.upgradeSchemaRepository(mActivity);
+			} catch (IOException e) {
+				LOG.error("Unable to upgrade schema repository.", e);
+				throw new NotBoundException("Unable to upgrade schemas.");
+			}
+		}
 		mDataModel.loadData();
 
 		// Set the layout for this activity now that the model is ready.
+		// Only the model is read here. Views are built on the UI thread.
 		mActivity.runOnUiThread(new Runnable() {
 			public void run() {
 				try {
-					AvroViewFactory.buildRootView(mActivity, mDataModel);
+					mForm = AvroViewFactory.buildRootView(mActivity,
+							mDataModel);
 				} catch (NotBoundException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
+					LOG.error("Unable to build form.", e);
 				}
 			}
 		});
+	}
 
+	/**
+	 * Starts watching for changes made to the record by someone else
+	 * while it is being edited. Changed fields are merged into the model
+	 * and their views are rebuilt. Must be called on the UI thread once
+	 * the data is loaded.
+	 */
+	public final void startObserving() {
+		if (mDataModel == null || mReadOnly) {
+			return;
+		}
+		mDataModel.startObserving(new OnExternalChangeListener() {
+			public void onFieldsChanged(final List<String> fields) {
+				if (mForm != null) {
+					AvroViewFactory.refreshFieldViews(mActivity, mDataModel,
+							mForm, fields);
+				}
+			}
+		});
 	}
 
 	/**
@@ -147,6 +206,8 @@ public class AvroController {
 	public final void handleDelete() throws NotBoundException {
 		mState = STATE_CANCELED;
 		mDataModel.delete();
+		mUri = mDataModel.getUri();
+		AvroListSummary.delete(mActivity, mUri);
 	}
 
 	/**
@@ -158,6 +219,8 @@ public class AvroController {
 	 */
 	public final void storeOriginalValue() throws NotBoundException {
 		mDataModel.storeOriginalValue();
+		// The list rebuilds the summary for the restored record.
+		AvroListSummary.delete(mActivity, mUri);
 	}
 
 	/**
@@ -170,8 +233,11 @@ public class AvroController {
 		if (mState == STATE_EDIT) {
 			storeOriginalValue();
 		} else if (mState == STATE_INSERT) {
-			// We inserted an empty field, make sure to delete it
-			handleDelete();
+			if (getStoredUri() != null) {
+				// The new record was stored before, so delete its row.
+				handleDelete();
+			}
+			// A provisional record has no row to delete.
 		}
 		mState = STATE_CANCELED;
 	}
@@ -216,6 +282,10 @@ public class AvroController {
 
 				// Load any savedInstanceState into the model
 				mDataModel.loadOriginals(savedState);
+				if (mState == STATE_INSERT) {
+					mDataModel.loadNew();
+				}
+				mUri = mDataModel.getUri();
 			}
 		}
 
@@ -266,24 +336,9 @@ public class AvroController {
 				|| Intent.ACTION_MAIN.equals(action)) {
 			LOG.debug("STATE_INSERT");
 			mState = STATE_INSERT;
-			LOG.debug("Inserting new record into: " + mUri);
-			Uri tempUri = null; // NOPMD by nick
-			try {
-				tempUri = mActivity.getApplicationContext()
-						.getContentResolver().insert(mUri, new ContentValues());
-			} catch (Exception e) {
-				LOG.error("Insert threw something: ", e);
-			}
-			LOG.debug("Insert complete.");
-			// If we were unable to create a new field, then just finish
-			// this activity. A RESULT_CANCELED will be sent back to the
-			// original activity if they requested a result.
-			if (tempUri == null) {
-				LOG.error("Failed to insert into " + mUri);
-				Toast.makeText(mActivity, "Unable to insert data.",
-						Toast.LENGTH_SHORT).show();
-			}
-			mUri = tempUri;
+			// The row is only inserted once there is something to store
+			// so editors which are abandoned leave nothing behind.
+			LOG.debug("New record will go in: " + mUri);
 		} else {
 			// Whoops, unknown action! Bail.
 			LOG.error("Unknown action, exiting");
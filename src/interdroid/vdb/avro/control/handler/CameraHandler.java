@@ -39,6 +39,8 @@ public class CameraHandler implements OnClickListener {
 	private final Activity mActivity;
 	/** The value handler for the photo. */
 	private final ValueHandler mValueHandler;
+	/** The field holding the thumbnail of the photo or null. */
+	private final String mThumbnailField;
 
 	/**
 	 * Construct a camera handler.
@@ -47,13 +49,16 @@ public class CameraHandler implements OnClickListener {
 	 * @param valueHandler the value handler with the data
 	 * @param cameraButton the button which triggers taking a photo
 	 * @param image the image view to display the photo in
+	 * @param thumbnailField the field holding the thumbnail or null
 	 */
 	public CameraHandler(final AvroRecordModel dataModel,
 			final Activity activity, final ValueHandler valueHandler,
-			final Button cameraButton, final ImageView image) {
+			final Button cameraButton, final ImageView image,
+			final String thumbnailField) {
 		mDataModel = dataModel;
 		mValueHandler = valueHandler;
 		mActivity = activity;
+		mThumbnailField = thumbnailField;
 		setButton(cameraButton);
 		setImageView(image);
 	}
@@ -78,6 +83,9 @@ public class CameraHandler implements OnClickListener {
 					MediaStore.ACTION_IMAGE_CAPTURE, uri);
 			cameraIntent.setClassName(mActivity, UseCamera.class.getName());
 			cameraIntent.putExtra("field", mValueHandler.getFieldName());
+			if (mThumbnailField != null) {
+				cameraIntent.putExtra("thumbnail", mThumbnailField);
+			}
 			AvroIntentUtil.launchDefaultIntent(mActivity, cameraIntent);
 		} catch (NotBoundException e) {
 			LOG.error("Not bound!");
@@ -3,7 +3,6 @@ package interdroid.vdb.avro.control.handler;
 import interdroid.vdb.avro.control.handler.value.ValueHandler;
 import interdroid.vdb.avro.model.NotBoundException;
 import interdroid.vdb.avro.model.UriRecord;
-import interdroid.vdb.avro.view.AvroBaseEditor;
 import interdroid.vdb.avro.view.AvroIntentUtil;
 import interdroid.vdb.content.EntityUriBuilder;
 import interdroid.vdb.avro.AvroSchema;
@@ -71,7 +70,7 @@ public class RecordTypeSelectHandler implements OnClickListener {
         LOG.debug("Launching edit on URI: {} type: {}",
         		uri, mActivity.getContentResolver().getType(uri));
         final Intent editIntent = new Intent(Intent.ACTION_EDIT, uri);
-        editIntent.putExtra(AvroBaseEditor.SCHEMA, mSchema.toString());
+        AvroIntentUtil.putSchema(editIntent, mSchema);
         AvroIntentUtil.launchEditIntent(mActivity, editIntent);
     }
 
@@ -15,6 +15,7 @@ import org.slf4j.LoggerFactory;
 
 import android.net.Uri;
 import android.view.View;
+import android.view.ViewGroup;
 import android.widget.CompoundButton;
 import android.widget.CompoundButton.OnCheckedChangeListener;
 import android.widget.RadioButton;
@@ -29,6 +30,24 @@ public class UnionHandler implements OnCheckedChangeListener {
 	private static final Logger LOG = LoggerFactory
 			.getLogger(UnionHandler.class);
 
+	/**
+	 * Builds the editor for a branch of the union. Branch editors are
+	 * only built once their branch is selected.
+	 * @author nick &lt;palmer@cs.vu.nl&gt;
+	 *
+	 */
+	public interface BranchBuilder {
+		/**
+		 * Builds the editor for a branch.
+		 * @param innerType the type of the branch
+		 * @param handler the value handler for the branch
+		 * @return the editor view
+		 * @throws NotBoundException if the model is not bound
+		 */
+		View buildBranch(Schema innerType, ValueHandler handler)
+				throws NotBoundException;
+	}
+
 	/** The data model we work for. */
 	private final AvroRecordModel mDataModel;
 	/** The map from radio buttons to the schema for the union branches. */
@@ -36,41 +55,49 @@ public class UnionHandler implements OnCheckedChangeListener {
 			new HashMap<RadioButton, Schema>();
 	/** The value handler to get and set data with. */
 	private final ValueHandler mValueHandler;
-	/** The map from the radio button to the views. */
+	/** The map from the radio button to the built branch editors. */
 	private final Map<RadioButton, View> mViews =
 			new HashMap<RadioButton, View>();
+	/** The map from the radio button to the branch placeholders. */
+	private final Map<RadioButton, ViewGroup> mPlaceholders =
+			new HashMap<RadioButton, ViewGroup>();
 	/** The map from the radio button to the inner value handlers. */
 	private final Map<RadioButton, ValueHandler>mHandlers =
 			new HashMap<RadioButton, ValueHandler>();
 	/** The union we are managing. */
 	private final UriUnion mUnion;
+	/** The builder for branch editors. */
+	private final BranchBuilder mBranchBuilder;
 
 	/**
 	 * Construct a UnionHandler.
 	 * @param dataModel the data model to work in
 	 * @param valueHandler the valueHandler to get and set data with
 	 * @param union the union we are managing
+	 * @param branchBuilder the builder for branch editors
 	 */
 	public UnionHandler(final AvroRecordModel dataModel,
-			final ValueHandler valueHandler, final UriUnion union) {
+			final ValueHandler valueHandler, final UriUnion union,
+			final BranchBuilder branchBuilder) {
 		LOG.debug("UnionHanlder built for: {}", union);
 		mDataModel = dataModel;
 		mValueHandler = valueHandler;
 		mUnion = union;
+		mBranchBuilder = branchBuilder;
 		mValueHandler.setValue(mUnion);
 	}
 
 	/**
-	 * Adds a branch to be managed.
+	 * Adds a branch to be managed. The editor for the branch is built
+	 * into the placeholder the first time the branch is selected.
 	 * @param radioButton the radio button for this branch
 	 * @param innerType the type for this branch
-	 * @param view the view for this branch
+	 * @param placeholder the placeholder for the branch editor
 	 */
 	public final void addType(final RadioButton radioButton,
-			final Schema innerType, final View view) {
+			final Schema innerType, final ViewGroup placeholder) {
 		mSchema.put(radioButton, innerType);
-		mViews.put(radioButton, view);
-		view.setEnabled(false);
+		mPlaceholders.put(radioButton, placeholder);
 		radioButton.setOnCheckedChangeListener(this);
 		if (mUnion == null) {
 			if (innerType.getType() == Schema.Type.NULL) {
@@ -87,7 +114,6 @@ public class UnionHandler implements OnCheckedChangeListener {
 			if (isMatchingType(innerType)) {
 				LOG.debug("Type match. Enabling.");
 				radioButton.setChecked(true);
-				view.setEnabled(true);
 			}
 		}
 	}
@@ -143,11 +169,35 @@ public class UnionHandler implements OnCheckedChangeListener {
 		return ret;
 	}
 
+	/**
+	 * Builds the editor for the branch of the given radio button
+	 * if it has not been built yet.
+	 * @param radioButton the radio button for the branch
+	 * @return the editor for the branch or null if it could not be built
+	 */
+	private View getBranchView(final CompoundButton radioButton) {
+		View view = mViews.get(radioButton);
+		if (view == null) {
+			LOG.debug("Building branch editor: {}", mSchema.get(radioButton));
+			try {
+				view = mBranchBuilder.buildBranch(mSchema.get(radioButton),
+						mHandlers.get(radioButton));
+			} catch (NotBoundException e) {
+				LOG.error("Unable to build branch editor.", e);
+				return null;
+			}
+			mPlaceholders.get(radioButton).addView(view);
+			mViews.put((RadioButton) radioButton, view);
+		}
+		return view;
+	}
+
 	@Override
 	public final void onCheckedChanged(final CompoundButton buttonView,
 			final boolean isChecked) {
 		// Uncheck the other radio buttons in the group.
 		if (isChecked) {
+			View view = getBranchView(buttonView);
 			for (RadioButton button : mSchema.keySet()) {
 				if (button != buttonView) {
 					button.setChecked(false);
@@ -159,9 +209,15 @@ public class UnionHandler implements OnCheckedChangeListener {
 					innerHandler.getValue(), mSchema.get(buttonView));
 			mUnion.setValue(innerHandler.getValue(), mSchema.get(buttonView));
 			mDataModel.onChanged();
-			mViews.get(buttonView).setEnabled(isChecked);
+			if (view != null) {
+				view.setEnabled(isChecked);
+			}
 		} else {
-			mViews.get(buttonView).setEnabled(isChecked);
+			// Unselected branches may never have been built.
+			View view = mViews.get(buttonView);
+			if (view != null) {
+				view.setEnabled(isChecked);
+			}
 		}
 	}
 
@@ -59,7 +59,8 @@ public class RecordValueHandler implements ValueHandler {
 
 	@Override
 	public final Uri getValueUri() throws NotBoundException {
-		return mRecord.getInstanceUri();
+		// Whoever asks for the uri is going to use the row.
+		return mDataModel.materialize(mRecord);
 	}
 
 	@Override
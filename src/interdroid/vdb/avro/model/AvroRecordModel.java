@@ -1,15 +1,30 @@
 package interdroid.vdb.avro.model;
 
+import interdroid.vdb.avro.AvroCascadeDelete;
+import interdroid.vdb.avro.AvroTimeSeries;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
 import org.apache.avro.Schema;
+import org.apache.avro.Schema.Field;
 import org.apache.avro.Schema.Type;
+import org.apache.avro.generic.GenericData;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import android.app.Activity;
 import android.content.ContentResolver;
+import android.database.ContentObserver;
 import android.database.DataSetObserver;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
 
 // TODO: Call verify to verify the data is of the right type?
 
@@ -26,8 +41,8 @@ public class AvroRecordModel extends DataSetObserver {
     /* =-=-=-= Model State =-=-=-= */
     /** The schema we are modeling. */
     private final Schema mSchema;
-    /** The uri for the data. */
-    private final Uri mUri;
+    /** The uri for the data. Changes when a new record is first stored. */
+    private Uri mUri;
     /** The activity using the model. */
     private final Activity mActivity;
 
@@ -43,6 +58,27 @@ public class AvroRecordModel extends DataSetObserver {
     // TODO: It would be really nice to have fine
     // grained dirty flags at all levels.
 
+    /**
+     * Receives the fields which were changed in the database by someone
+     * else and merged into the model.
+     */
+    public interface OnExternalChangeListener {
+        /**
+         * Called on the UI thread after changes were merged.
+         * @param fields the names of the fields which changed
+         */
+        void onFieldsChanged(List<String> fields);
+    }
+
+    /** Watches the record and its child tables while set. */
+    private ContentObserver mObserver;
+    /** The listener for merged changes. */
+    private OnExternalChangeListener mListener;
+    /** The refresh which is running or null. */
+    private RefreshTask mRefresh;
+    /** True if the data changed while a refresh was running. */
+    private boolean mRefreshPending;
+
 
     public void onChanged() {
         super.onChanged();
@@ -87,7 +123,76 @@ public class AvroRecordModel extends DataSetObserver {
                 mOriginalModel =
                         new UriRecord(mUri, mSchema).load(saved);
             }
+            if (!mCurrentModel.isProvisional()) {
+                mUri = mCurrentModel.getInstanceUri();
+            }
+        }
+    }
+
+    /**
+     * Starts the model out as a new record which has no row yet unless
+     * one was loaded from a bundle already. The row is inserted into
+     * the directory this model was constructed with the first time the
+     * model is stored.
+     */
+    public final void loadNew() {
+        if (mCurrentModel == null) {
+            LOG.debug("Starting new record in: {}", mUri);
+            mCurrentModel = UriRecord.newRecord(mUri, mSchema);
+            mOriginalModel = UriRecord.newRecord(mUri, mSchema);
+            mDirty = false;
+        }
+    }
+
+    /**
+     * Inserts the row for a record in the model if it has none yet.
+     * Called when something needs to write to the row directly.
+     * @param record the record to store
+     * @return the uri of the row for the record
+     * @throws NotBoundException if the row can not be inserted
+     */
+    public final Uri materialize(final UriRecord record)
+            throws NotBoundException {
+        boolean inserted = record.isProvisional();
+        Uri uri = record.materialize(mResolver);
+        if (inserted) {
+            clearSeries(record);
+        }
+        if (record == mCurrentModel) {
+            mUri = uri;
         }
+        return uri;
+    }
+
+    /**
+     * Clears the time series of a record which was just inserted. SQLite
+     * hands out the id of a deleted row again, and a series left behind
+     * by a record deleted around the model would show up in the new one.
+     * @param record the record which was just inserted
+     * @throws NotBoundException if a series can not be cleared
+     */
+    private void clearSeries(final UriRecord record)
+            throws NotBoundException {
+        for (Field field : record.getSchema().getFields()) {
+            if (AvroTimeSeries.isTimeSeries(field.schema())) {
+                try {
+                    new AvroTimeSeries(mActivity, Uri.withAppendedPath(
+                            record.getInstanceUri(), field.name()),
+                            field.schema()).clear();
+                } catch (IOException e) {
+                    LOG.error("Unable to clear series.", e);
+                    throw new NotBoundException(
+                            "Unable to clear series: " + field.name());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the uri for the data
+     */
+    public final Uri getUri() {
+        return mUri;
     }
 
     /**
@@ -95,7 +200,8 @@ public class AvroRecordModel extends DataSetObserver {
      * @throws NotBoundException if the record model is not bound
      */
     public final void storeOriginalValue() throws NotBoundException {
-        if (mDirty && mOriginalModel != null) {
+        if (mDirty && mOriginalModel != null
+                && !mOriginalModel.isProvisional()) {
             LOG.debug("Storing original values.");
             mOriginalModel.save(mResolver);
         }
@@ -111,7 +217,12 @@ public class AvroRecordModel extends DataSetObserver {
     public final void storeCurrentValue() throws NotBoundException {
         if (mDirty && mCurrentModel != null) {
             LOG.debug("Storing current state to uri: " + mUri);
+            boolean inserted = mCurrentModel.isProvisional();
             mCurrentModel.save(mResolver);
+            mUri = mCurrentModel.getInstanceUri();
+            if (inserted) {
+                clearSeries(mCurrentModel);
+            }
         } else {
             LOG.debug("Not storing: {} {}", mDirty, mCurrentModel != null);
         }
@@ -122,13 +233,17 @@ public class AvroRecordModel extends DataSetObserver {
      * @throws NotBoundException if the record model is not bound
      */
     public final void loadData() throws NotBoundException {
+        if (mCurrentModel != null && mCurrentModel.isProvisional()) {
+            LOG.debug("New record has nothing to load.");
+            return;
+        }
         LOG.debug("Loading data from: " + mUri);
-        mCurrentModel = new UriRecord(mUri, mSchema).load(mResolver);
+        mCurrentModel = UriRecordCache.load(mResolver, mUri, mSchema);
         mDirty = false;
-        // If there is no original model then load another copy
-        // TODO: Can we do a clone here?
+        // If there is no original model then load another copy.
+        // This comes from the cache since we just loaded the record.
         if (mOriginalModel == null) {
-            mOriginalModel = new UriRecord(mUri, mSchema).load(mResolver);
+            mOriginalModel = UriRecordCache.load(mResolver, mUri, mSchema);
         }
     }
 
@@ -155,7 +270,252 @@ public class AvroRecordModel extends DataSetObserver {
      * @throws NotBoundException if the record model is not bound
      */
     public final void delete() throws NotBoundException {
-        mOriginalModel.delete(mResolver);
+        // A new record only has a row if the current state was stored.
+        UriRecord stored = mOriginalModel;
+        if (stored.isProvisional()) {
+            stored = mCurrentModel;
+        }
+        if (!stored.isProvisional()) {
+            try {
+                AvroCascadeDelete.delete(mActivity, stored.getInstanceUri(),
+                        mSchema);
+            } catch (IOException e) {
+                LOG.error("Unable to delete in the database. Deleting model.",
+                        e);
+                stored.delete(mResolver);
+            }
+            UriRecordCache.invalidate(stored.getInstanceUri());
+        }
+    }
+
+    /**
+     * Starts watching the database for changes made behind our back.
+     * Changes are merged into the model field by field and the listener
+     * is told which fields changed. Must be called on the UI thread
+     * after the model was loaded.
+     * @param listener the listener for merged changes
+     */
+    public final void startObserving(final OnExternalChangeListener listener) {
+        if (mObserver != null || mCurrentModel == null
+                || mCurrentModel.isProvisional()) {
+            return;
+        }
+        mListener = listener;
+        mObserver = new ContentObserver(new Handler()) {
+            @Override
+            public void onChange(final boolean selfChange) {
+                LOG.debug("Data changed behind our back: {}", mUri);
+                refresh();
+            }
+        };
+        mResolver.registerContentObserver(mUri, true, mObserver);
+    }
+
+    /**
+     * Stops watching the database. Must be called on the UI thread and
+     * before the model stores itself so we don't see our own changes.
+     */
+    public final void stopObserving() {
+        if (mObserver != null) {
+            mResolver.unregisterContentObserver(mObserver);
+            mObserver = null;
+        }
+        mListener = null;
+        mRefreshPending = false;
+        // A running refresh is dropped when it finishes.
+        mRefresh = null;
+    }
+
+    /**
+     * Reloads the record in the background. If a refresh is already
+     * running another one runs once it finishes.
+     */
+    private void refresh() {
+        if (mRefresh != null) {
+            mRefreshPending = true;
+        } else if (mCurrentModel != null && mOriginalModel != null) {
+            mRefresh = new RefreshTask();
+            mRefresh.execute();
+        }
+    }
+
+    /**
+     * Reloads the record and merges what changed into the model.
+     * The database values are compared with the original model in the
+     * background to find what was changed by someone else. Such a change
+     * replaces the current value only if the user did not edit that
+     * field, so local edits always win. Edits are found on the UI thread
+     * without reading from the database, so a lazily read value counts
+     * as edited once any of its elements may have been changed.
+     */
+    private final class RefreshTask extends AsyncTask<Void, Void, UriRecord> {
+        /** The fields which differ from the original model. */
+        private final List<String> mCandidates = new ArrayList<String>();
+        /** A second copy of the changed bound fields for the original. */
+        private UriRecord mOriginalCopy;
+
+        @Override
+        protected UriRecord doInBackground(final Void... params) {
+            try {
+                UriRecord fresh = new UriRecord(mUri, mSchema).load(mResolver);
+                StringBuilder bound = new StringBuilder();
+                for (Field field : mSchema.getFields()) {
+                    if (!sameValue(fresh.get(field.name()),
+                            mOriginalModel.get(field.name()))) {
+                        mCandidates.add(field.name());
+                        if (UriBoundAdapter.isBoundType(
+                                field.schema().getType())) {
+                            if (bound.length() > 0) {
+                                bound.append(',');
+                            }
+                            bound.append(field.name());
+                        }
+                    }
+                }
+                // Bound values are mutable so the models can't share them.
+                // Only the changed ones are loaded again.
+                if (bound.length() > 0) {
+                    mOriginalCopy = new UriRecord(mUri, mSchema).load(
+                            mResolver, FieldMask.parse(bound.toString()));
+                }
+                return fresh;
+            } catch (NotBoundException e) {
+                LOG.error("Unable to refresh model.", e);
+                return null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(final UriRecord fresh) {
+            if (mRefresh != this) {
+                LOG.debug("Dropping stale refresh.");
+                return;
+            }
+            mRefresh = null;
+
+            List<String> changed = new ArrayList<String>();
+            if (fresh != null) {
+                for (String name : mCandidates) {
+                    Object value = fresh.get(name);
+                    if (!mDirty || sameValue(mCurrentModel.get(name),
+                            mOriginalModel.get(name), true)) {
+                        mCurrentModel.put(name, value);
+                        if (mOriginalCopy != null) {
+                            mOriginalModel.put(name, mOriginalCopy.get(name));
+                        } else {
+                            mOriginalModel.put(name, value);
+                        }
+                        changed.add(name);
+                    } else {
+                        LOG.debug("Keeping local edit of: {}", name);
+                    }
+                }
+            }
+
+            if (!changed.isEmpty() && mListener != null) {
+                LOG.debug("Merged external changes: {}", changed);
+                mListener.onFieldsChanged(
+                        Collections.unmodifiableList(changed));
+            }
+            if (mRefreshPending) {
+                mRefreshPending = false;
+                refresh();
+            }
+        }
+    }
+
+    /**
+     * Compares two values of the model.
+     * @param a the first value
+     * @param b the second value
+     * @return true if the values hold the same data
+     */
+    private static boolean sameValue(final Object a, final Object b) {
+        return sameValue(a, b, false);
+    }
+
+    /**
+     * Compares two values of the model. When only held values may be
+     * read, lazily read values in the first are judged by whether they
+     * were changed instead of being read from the database.
+     * @param a the first value
+     * @param b the second value
+     * @param held true if only the values held in memory may be read
+     * @return true if the values hold the same data
+     */
+    @SuppressWarnings("rawtypes")
+    private static boolean sameValue(final Object a, final Object b,
+            final boolean held) {
+        if (a == b) {
+            return true;
+        }
+        if (held && a instanceof UriPagedArray) {
+            return !((UriPagedArray) a).isChanged();
+        }
+        if (held && a instanceof UriKeyedMap) {
+            return !((UriKeyedMap) a).isChanged();
+        }
+        if (a == null || b == null) {
+            return false;
+        }
+        if (a instanceof byte[] && b instanceof byte[]) {
+            return Arrays.equals((byte[]) a, (byte[]) b);
+        }
+        if (a instanceof GenericData.Record
+                && b instanceof GenericData.Record) {
+            GenericData.Record ra = (GenericData.Record) a;
+            GenericData.Record rb = (GenericData.Record) b;
+            if (!ra.getSchema().equals(rb.getSchema())) {
+                return false;
+            }
+            for (Field field : ra.getSchema().getFields()) {
+                if (!sameValue(ra.get(field.name()), rb.get(field.name()),
+                        held)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (a instanceof List && b instanceof List) {
+            List la = (List) a;
+            List lb = (List) b;
+            if (la.size() != lb.size()) {
+                return false;
+            }
+            for (int i = 0; i < la.size(); i++) {
+                if (!sameValue(la.get(i), lb.get(i), held)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (a instanceof Map && b instanceof Map) {
+            Map ma = (Map) a;
+            Map mb = (Map) b;
+            if (!ma.keySet().equals(mb.keySet())) {
+                return false;
+            }
+            for (Object key : ma.keySet()) {
+                if (!sameValue(ma.get(key), mb.get(key), held)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (a instanceof UriUnion && b instanceof UriUnion) {
+            UriUnion ua = (UriUnion) a;
+            UriUnion ub = (UriUnion) b;
+            return ua.getType() == ub.getType()
+                    && sameValue(ua.getValue(), ub.getValue(), held);
+        }
+        return a.equals(b);
+    }
+
+    /**
+     * @return true if the model has changes which were not stored.
+     */
+    public final boolean isDirty() {
+        return mDirty;
     }
 
     /**
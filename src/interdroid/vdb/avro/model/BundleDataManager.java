@@ -1,5 +1,7 @@
 package interdroid.vdb.avro.model;
 
+import interdroid.vdb.avro.AvroTimeSeries;
+
 import org.apache.avro.Schema;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -39,7 +41,13 @@ public final class BundleDataManager { // NOPMD by nick
         Object value;
         switch (fieldSchema.getType()) {
         case ARRAY:
-            value = new UriArray(fieldSchema, saved).load(saved, fieldFullName);
+            if (AvroTimeSeries.isTimeSeries(fieldSchema)) {
+                // Series are never held by the model.
+                value = null;
+                break;
+            }
+            value = UriArray.newArray(fieldSchema, saved).load(
+            		saved, fieldFullName);
             break;
         case BOOLEAN:
             value = saved.getBoolean(fieldFullName);
@@ -66,7 +74,7 @@ public final class BundleDataManager { // NOPMD by nick
             value = saved.getLong(fieldFullName);
             break;
         case MAP:
-            value = new UriMap(fieldSchema, saved).load(saved, fieldFullName);
+            value = UriMap.newMap(fieldSchema, saved).load(saved, fieldFullName);
             break;
         case NULL:
             value = null; // NOPMD by nick
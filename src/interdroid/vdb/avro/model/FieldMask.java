@@ -0,0 +1,217 @@
+package interdroid.vdb.avro.model;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Field;
+
+import android.provider.BaseColumns;
+
+/**
+ * Selects the fields of a record to load. A mask is parsed from a comma
+ * separated list of field paths, for example
+ * <code>"name, location.Latitude, photos[*].thumb"</code>. Path segments
+ * are separated by '.', and the fields of the elements of an array or
+ * the values of a map follow the name of the array or map, with or
+ * without a "[*]" after it. A field named without further segments is
+ * loaded in full, as is everything under a "*" segment.
+ * <p>
+ * Only the columns of the selected fields are queried and arrays and
+ * maps which are not selected are not loaded at all.
+ *
+ * @author nick &lt;palmer@cs.vu.nl&gt;
+ *
+ */
+public final class FieldMask {
+	/** The mask which selects everything. */
+	public static final FieldMask ALL = new FieldMask(null);
+
+	/** Separates the paths in a mask. */
+	private static final String PATH_SEPARATOR = ",";
+
+	/** Separates the segments in a path. */
+	private static final String SEGMENT_SEPARATOR = ".";
+
+	/** Marks the elements of an array or the values of a map. */
+	private static final String ELEMENTS = "[*]";
+
+	/** The segment which selects all fields. */
+	private static final String WILDCARD = "*";
+
+	/** The column with the id of a row. */
+	private static final String ID = BaseColumns._ID;
+
+	/** The masks for the selected fields or null to select all. */
+	private final Map<String, FieldMask> mFields;
+
+	/**
+	 * Construct a mask.
+	 * @param fields the masks for the selected fields or null for all
+	 */
+	private FieldMask(final Map<String, FieldMask> fields) {
+		mFields = fields;
+	}
+
+	/**
+	 * Parses a mask.
+	 * @param mask the comma separated field paths
+	 * @return the mask
+	 * @throws IllegalArgumentException if a path is empty or has an empty
+	 * segment
+	 */
+	public static FieldMask parse(final String mask) {
+		FieldMask root = new FieldMask(new LinkedHashMap<String, FieldMask>());
+		for (String path : mask.split(PATH_SEPARATOR)) {
+			String trimmed = path.trim();
+			if (trimmed.length() == 0) {
+				throw new IllegalArgumentException("Empty path in mask: "
+						+ mask);
+			}
+			root = root.add(trimmed.split("\\" + SEGMENT_SEPARATOR), 0);
+		}
+		return root;
+	}
+
+	/**
+	 * Adds a path below this mask.
+	 * @param segments the segments of the path
+	 * @param first the first segment to add
+	 * @return the mask with the path added
+	 */
+	private FieldMask add(final String[] segments, final int first) {
+		if (first == segments.length || mFields == null) {
+			return ALL;
+		}
+		String name = segments[first].trim();
+		if (name.endsWith(ELEMENTS)) {
+			name = name.substring(0, name.length() - ELEMENTS.length());
+		}
+		if (name.length() == 0) {
+			throw new IllegalArgumentException("Empty segment in path: "
+					+ join(segments));
+		}
+		if (WILDCARD.equals(name)) {
+			return ALL;
+		}
+		FieldMask child = mFields.get(name);
+		if (child == null) {
+			child = new FieldMask(new LinkedHashMap<String, FieldMask>());
+		}
+		mFields.put(name, child.add(segments, first + 1));
+		return this;
+	}
+
+	/**
+	 * @return true if this mask selects everything
+	 */
+	public boolean isAll() {
+		return mFields == null;
+	}
+
+	/**
+	 * @param field the name of a field
+	 * @return true if the field is selected
+	 */
+	public boolean includes(final String field) {
+		return mFields == null || mFields.containsKey(field);
+	}
+
+	/**
+	 * @param field the name of a field
+	 * @return the mask for the contents of the field or null if the field
+	 * is not selected
+	 */
+	public FieldMask get(final String field) {
+		if (mFields == null) {
+			return ALL;
+		}
+		return mFields.get(field);
+	}
+
+	/**
+	 * Returns the columns of a record holding the selected fields. Arrays
+	 * and maps live in tables of their own and need no column unless
+	 * they are packed.
+	 * @param record the schema of the record
+	 * @return the columns to query
+	 */
+	String[] getColumns(final Schema record) {
+		List<String> columns = new ArrayList<String>();
+		columns.add(ID);
+		for (Field field : record.getFields()) {
+			if (!includes(field.name())) {
+				continue;
+			}
+			switch (field.schema().getType()) {
+			case ARRAY:
+			case MAP:
+				String holder = PackedStorage.getHolder(record, field);
+				if (holder != null) {
+					columns.add(holder);
+				}
+				break;
+			case UNION:
+				columns.add(field.name());
+				columns.add(NameHelper.getTypeName(field.name()));
+				columns.add(NameHelper.getTypeNameName(field.name()));
+				break;
+			default:
+				columns.add(field.name());
+				break;
+			}
+		}
+		return columns.toArray(new String[columns.size()]);
+	}
+
+	/**
+	 * Collects the paths selected by this mask.
+	 * @param prefix the path to this mask
+	 * @param paths the paths to add to
+	 */
+	private void collectPaths(final String prefix, final List<String> paths) {
+		if (mFields == null) {
+			paths.add(prefix + WILDCARD);
+			return;
+		}
+		for (Map.Entry<String, FieldMask> entry : mFields.entrySet()) {
+			if (entry.getValue().isAll()) {
+				paths.add(prefix + entry.getKey());
+			} else {
+				entry.getValue().collectPaths(
+						prefix + entry.getKey() + SEGMENT_SEPARATOR, paths);
+			}
+		}
+	}
+
+	/**
+	 * @param parts the parts to join
+	 * @return the parts separated by the segment separator
+	 */
+	private static String join(final String[] parts) {
+		StringBuilder joined = new StringBuilder();
+		for (String part : parts) {
+			if (joined.length() > 0) {
+				joined.append(SEGMENT_SEPARATOR);
+			}
+			joined.append(part);
+		}
+		return joined.toString();
+	}
+
+	@Override
+	public String toString() {
+		List<String> paths = new ArrayList<String>();
+		collectPaths("", paths);
+		StringBuilder mask = new StringBuilder();
+		for (String path : paths) {
+			if (mask.length() > 0) {
+				mask.append(PATH_SEPARATOR).append(' ');
+			}
+			mask.append(path);
+		}
+		return mask.toString();
+	}
+}
@@ -38,6 +38,9 @@ final class NameHelper {
     /** The uri name suffix. */
     private static final String SUFFIX_URI_NAME =
     		AvroContentProvider.TYPE_URI_COLUMN_NAME;
+    /** The provisional directory suffix. */
+    private static final String SUFFIX_PROVISIONAL =
+    		SEPARATOR + "provisional";
 
     /**
      * @param dataFullName the full name of the data type
@@ -122,4 +125,12 @@ final class NameHelper {
         return fieldName + SUFFIX_URI_NAME;
     }
 
+    /**
+     * @param fieldName the full field name
+     * @return the name of the provisional directory for the field
+     */
+    static String getProvisionalName(final String fieldName) { // NOPMD nick
+        return fieldName + SUFFIX_PROVISIONAL;
+    }
+
 }
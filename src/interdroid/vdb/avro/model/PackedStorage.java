@@ -0,0 +1,329 @@
+package interdroid.vdb.avro.model;
+
+import interdroid.vdb.avro.AvroSchemaProperties;
+import interdroid.vdb.avro.model.UriPrimitiveArray.BooleanArray;
+import interdroid.vdb.avro.model.UriPrimitiveArray.DoubleArray;
+import interdroid.vdb.avro.model.UriPrimitiveArray.FloatArray;
+import interdroid.vdb.avro.model.UriPrimitiveArray.IntArray;
+import interdroid.vdb.avro.model.UriPrimitiveArray.LongArray;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Field;
+import org.apache.avro.Schema.Type;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.net.Uri;
+
+/**
+ * Encodes arrays of primitives and maps of strings or primitives which
+ * use the packed storage layout. A packed field is stored in Avro binary
+ * encoding in a hidden bytes field on the row of its record, much like
+ * the thumbnail of a photo, instead of a row per element in a table of
+ * its own.
+ * <p>
+ * The rows of a field which was stored a row per element before it was
+ * packed are read until the record is saved again, which moves them into
+ * the bytes field.
+ *
+ * @see AvroSchemaProperties#DB_STORAGE
+ * @see AvroSchemaProperties#DB_PACKED
+ * @author nick &lt;palmer@cs.vu.nl&gt;
+ *
+ */
+public final class PackedStorage {
+	/** Access to logger. */
+	private static final Logger LOG =
+			LoggerFactory.getLogger(PackedStorage.class);
+
+	/**
+	 * Prevent construction.
+	 */
+	private PackedStorage() {
+		// No construction
+	}
+
+	/**
+	 * @param schema an array or map schema
+	 * @return true if the schema asks for the packed layout and can have it
+	 */
+	static boolean isPacked(final Schema schema) {
+		if (!AvroSchemaProperties.DB_STORAGE_PACKED.equals(
+				schema.getProp(AvroSchemaProperties.DB_STORAGE))) {
+			return false;
+		}
+		boolean packable;
+		switch (schema.getType()) {
+		case ARRAY:
+			packable = isPrimitive(schema.getElementType().getType());
+			break;
+		case MAP:
+			packable = isPrimitive(schema.getValueType().getType())
+					|| schema.getValueType().getType() == Type.STRING;
+			break;
+		default:
+			packable = false;
+			break;
+		}
+		if (!packable) {
+			LOG.warn("Unable to pack: {}", schema);
+		}
+		return packable;
+	}
+
+	/**
+	 * @param type the type to check
+	 * @return true if the type is a primitive we can pack
+	 */
+	private static boolean isPrimitive(final Type type) {
+		switch (type) {
+		case BOOLEAN:
+		case DOUBLE:
+		case FLOAT:
+		case INT:
+		case LONG:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the field of a record which holds a packed field.
+	 * @param record the schema of the record
+	 * @param field the field to check
+	 * @return the name of the bytes field holding the packed value or
+	 * null if the field is stored a row per element
+	 */
+	public static String getHolder(final Schema record,
+			final Field field) {
+		if (!isPacked(field.schema())) {
+			return null;
+		}
+		String holder = field.getProp(AvroSchemaProperties.DB_PACKED);
+		Field bytes = null;
+		if (holder != null) {
+			bytes = record.getField(holder);
+		}
+		if (bytes == null || bytes.schema().getType() != Type.BYTES) {
+			LOG.debug("No bytes field to pack {} in.", field.name());
+			return null;
+		}
+		return holder;
+	}
+
+	/**
+	 * @param record the schema of the record
+	 * @param field the field to check
+	 * @return true if the field holds another field of the record packed
+	 */
+	static boolean isHolder(final Schema record, final Field field) {
+		for (Field packed : record.getFields()) {
+			if (field.name().equals(getHolder(record, packed))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Encodes a packed field.
+	 * @param value the array or map to encode
+	 * @param schema the schema of the field
+	 * @return the encoded value or null if it is null or can not be
+	 * encoded
+	 */
+	static byte[] encode(final Object value, final Schema schema) {
+		if (value instanceof UriPrimitiveArray) {
+			return encodeArray((UriPrimitiveArray<?>) value);
+		} else if (value instanceof Map) {
+			return encodeMap((Map<?, ?>) value, schema.getValueType());
+		}
+		return null;
+	}
+
+	/**
+	 * Decodes a packed field.
+	 * @param data the encoded value
+	 * @param uri the uri of the table the field would have otherwise
+	 * @param schema the schema of the field
+	 * @return the array or map
+	 */
+	static Object decode(final byte[] data, final Uri uri,
+			final Schema schema) {
+		if (schema.getType() == Type.ARRAY) {
+			UriPrimitiveArray<?> array =
+					(UriPrimitiveArray<?>) UriArray.newArray(uri, schema);
+			decodeArray(data, array);
+			return array;
+		}
+		UriMap<Object> map = new UriMap<Object>(uri, schema);
+		decodeMap(data, map, schema.getValueType());
+		return map;
+	}
+
+	/**
+	 * Encodes the elements of an array.
+	 * @param array the array to encode
+	 * @return the encoded array
+	 */
+	static byte[] encodeArray(final UriPrimitiveArray<?> array) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+		try {
+			encoder.writeArrayStart();
+			encoder.setItemCount(array.size());
+			for (int i = 0; i < array.size(); i++) {
+				encoder.startItem();
+				if (array instanceof DoubleArray) {
+					encoder.writeDouble(((DoubleArray) array).getDouble(i));
+				} else if (array instanceof FloatArray) {
+					encoder.writeFloat(((FloatArray) array).getFloat(i));
+				} else if (array instanceof IntArray) {
+					encoder.writeInt(((IntArray) array).getInt(i));
+				} else if (array instanceof LongArray) {
+					encoder.writeLong(((LongArray) array).getLong(i));
+				} else {
+					encoder.writeBoolean(((BooleanArray) array).getBoolean(i));
+				}
+			}
+			encoder.writeArrayEnd();
+			encoder.flush();
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to encode array.", e);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Decodes elements and appends them to an array.
+	 * @param data the encoded array
+	 * @param array the array to append to
+	 */
+	static void decodeArray(final byte[] data,
+			final UriPrimitiveArray<?> array) {
+		BinaryDecoder decoder = DecoderFactory.get().binaryDecoder(data, null);
+		try {
+			for (long count = decoder.readArrayStart(); count > 0;
+					count = decoder.arrayNext()) {
+				array.ensureCapacity(array.size() + (int) count);
+				for (long i = 0; i < count; i++) {
+					if (array instanceof DoubleArray) {
+						((DoubleArray) array).addDouble(decoder.readDouble());
+					} else if (array instanceof FloatArray) {
+						((FloatArray) array).addFloat(decoder.readFloat());
+					} else if (array instanceof IntArray) {
+						((IntArray) array).addInt(decoder.readInt());
+					} else if (array instanceof LongArray) {
+						((LongArray) array).addLong(decoder.readLong());
+					} else {
+						((BooleanArray) array).addBoolean(
+								decoder.readBoolean());
+					}
+				}
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to decode array.", e);
+		}
+	}
+
+	/**
+	 * Encodes the entries of a map.
+	 * @param map the map to encode
+	 * @param valueType the schema of the values
+	 * @return the encoded map or null if it holds a value which can not
+	 * be encoded
+	 */
+	static byte[] encodeMap(final Map<?, ?> map, final Schema valueType) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+		try {
+			encoder.writeMapStart();
+			encoder.setItemCount(map.size());
+			for (Map.Entry<?, ?> entry : map.entrySet()) {
+				if (entry.getKey() == null || entry.getValue() == null) {
+					return null;
+				}
+				encoder.startItem();
+				encoder.writeString(entry.getKey().toString());
+				Object value = entry.getValue();
+				switch (valueType.getType()) {
+				case BOOLEAN:
+					encoder.writeBoolean((Boolean) value);
+					break;
+				case DOUBLE:
+					encoder.writeDouble((Double) value);
+					break;
+				case FLOAT:
+					encoder.writeFloat((Float) value);
+					break;
+				case INT:
+					encoder.writeInt((Integer) value);
+					break;
+				case LONG:
+					encoder.writeLong((Long) value);
+					break;
+				default:
+					encoder.writeString((String) value);
+					break;
+				}
+			}
+			encoder.writeMapEnd();
+			encoder.flush();
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to encode map.", e);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Decodes entries and puts them into a map.
+	 * @param data the encoded map
+	 * @param map the map to put into
+	 * @param valueType the schema of the values
+	 */
+	static void decodeMap(final byte[] data, final Map<String, Object> map,
+			final Schema valueType) {
+		BinaryDecoder decoder = DecoderFactory.get().binaryDecoder(data, null);
+		try {
+			for (long count = decoder.readMapStart(); count > 0;
+					count = decoder.mapNext()) {
+				for (long i = 0; i < count; i++) {
+					String key = decoder.readString(null).toString();
+					Object value;
+					switch (valueType.getType()) {
+					case BOOLEAN:
+						value = decoder.readBoolean();
+						break;
+					case DOUBLE:
+						value = decoder.readDouble();
+						break;
+					case FLOAT:
+						value = decoder.readFloat();
+						break;
+					case INT:
+						value = decoder.readInt();
+						break;
+					case LONG:
+						value = decoder.readLong();
+						break;
+					default:
+						value = decoder.readString(null).toString();
+						break;
+					}
+					map.put(key, value);
+				}
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to decode map.", e);
+		}
+	}
+}
@@ -0,0 +1,200 @@
+package interdroid.vdb.avro.model;
+
+import interdroid.vdb.avro.AvroSchemaProperties;
+import interdroid.vdb.avro.AvroTimeSeries;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.avro.Schema;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Process;
+
+/**
+ * Loads the arrays, maps and records of a record concurrently. They
+ * live in tables of their own and do not depend on each other, so a
+ * record with several large children loads in about the time of the
+ * largest one instead of the sum.
+ * <p>
+ * The loads run on a small shared pool. Children loaded on the pool
+ * load their own children in turn on the same thread, so a load never
+ * waits on a task queued behind it. Background loads such as prefetches
+ * load their children themselves too, so foreground loads never queue
+ * behind them or run their children at a higher priority.
+ *
+ * @see AvroSchemaProperties#DB_PARALLEL_LOAD
+ * @author nick &lt;palmer@cs.vu.nl&gt;
+ *
+ */
+final class ParallelLoader {
+	/** Access to logger. */
+	private static final Logger LOG =
+			LoggerFactory.getLogger(ParallelLoader.class);
+
+	/** The number of threads loading children. */
+	private static final int THREADS = 4;
+
+	/** True on threads which load children one at a time. */
+	private static final ThreadLocal<Boolean> sSequential =
+			new ThreadLocal<Boolean>();
+
+	/** The pool loading children or null before the first load. */
+	private static ExecutorService sExecutor;
+
+	/**
+	 * No construction.
+	 */
+	private ParallelLoader() {
+		// No construction
+	}
+
+	/**
+	 * @param record the schema of a record
+	 * @return true if the children of the record should be loaded
+	 * concurrently from this thread
+	 */
+	static boolean isParallel(final Schema record) {
+		return Boolean.parseBoolean(
+				record.getProp(AvroSchemaProperties.DB_PARALLEL_LOAD))
+				&& sSequential.get() == null;
+	}
+
+	/**
+	 * Makes the loads of the calling thread load children one at a time
+	 * on that thread instead of on the pool. Used by background loads.
+	 * @param sequential true to load children one at a time
+	 */
+	static void setSequential(final boolean sequential) {
+		if (sequential) {
+			sSequential.set(Boolean.TRUE);
+		} else {
+			sSequential.remove();
+		}
+	}
+
+	/**
+	 * @param fieldSchema the schema of a field
+	 * @return true if the field lives in a table of its own
+	 */
+	static boolean isSeparate(final Schema fieldSchema) {
+		switch (fieldSchema.getType()) {
+		case ARRAY:
+			// Series are not loaded with the record.
+			return !AvroTimeSeries.isTimeSeries(fieldSchema);
+		case MAP:
+		case RECORD:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Starts loading a field which lives in a table of its own. The id of
+	 * a record is read from the cursor before this returns, so the cursor
+	 * is only used on the calling thread.
+	 * @param resolver the resolver to load with
+	 * @param rootUri the uri of the record holding the field
+	 * @param cursor the cursor over the row of the record
+	 * @param fieldName the name of the field
+	 * @param fieldSchema the schema for the field
+	 * @param mask the fields to load from records in the field
+	 * @return the pending value of the field
+	 */
+	static Future<Object> submit(final ContentResolver resolver,
+			final Uri rootUri, final Cursor cursor, final String fieldName,
+			final Schema fieldSchema, final FieldMask mask) {
+		final Uri recordUri;
+		if (fieldSchema.getType() == Schema.Type.RECORD) {
+			int recordId = cursor.getInt(cursor.getColumnIndex(fieldName));
+			if (recordId <= 0) {
+				FutureTask<Object> none = new FutureTask<Object>(
+						new Callable<Object>() {
+					public Object call() {
+						return null;
+					}
+				});
+				none.run();
+				return none;
+			}
+			recordUri = Uri.withAppendedPath(
+					UriDataManager.getRecordUri(rootUri, fieldSchema),
+					String.valueOf(recordId));
+		} else {
+			recordUri = null;
+		}
+
+		return getExecutor().submit(new Callable<Object>() {
+			public Object call() throws NotBoundException {
+				LOG.debug("Loading field in parallel: {}", fieldName);
+				if (recordUri != null) {
+					return new UriRecord(recordUri, fieldSchema).load(
+							resolver, mask);
+				}
+				return UriDataManager.loadDataFromUri(resolver, rootUri,
+						null, fieldName, fieldSchema, mask);
+			}
+		});
+	}
+
+	/**
+	 * Waits for a field to finish loading.
+	 * @param pending the pending value
+	 * @return the loaded value
+	 * @throws NotBoundException if the field could not be loaded
+	 */
+	static Object join(final Future<Object> pending)
+			throws NotBoundException {
+		try {
+			return pending.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new NotBoundException("Interrupted while loading.");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof NotBoundException) {
+				throw (NotBoundException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IllegalStateException("Unable to load.", cause);
+		}
+	}
+
+	/**
+	 * @return the pool loading children
+	 */
+	private static synchronized ExecutorService getExecutor() {
+		if (sExecutor == null) {
+			sExecutor = Executors.newFixedThreadPool(THREADS,
+					new ThreadFactory() {
+				private int mCount;
+
+				public Thread newThread(final Runnable task) {
+					Thread thread = new Thread(new Runnable() {
+						public void run() {
+							Process.setThreadPriority(
+									Process.THREAD_PRIORITY_BACKGROUND);
+							setSequential(true);
+							task.run();
+						}
+					}, "Record loader: " + ++mCount);
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return sExecutor;
+	}
+}
@@ -0,0 +1,176 @@
+package interdroid.vdb.avro.model;
+
+import interdroid.vdb.avro.AvroSchemaCache;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Type;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The branches of a union schema, indexed so that a union can be held
+ * as the position of its branch. The stored type and type name of each
+ * branch are computed once per schema, and the stored form is resolved
+ * back to a branch with a single lookup instead of a scan of the types
+ * with string compares.
+ *
+ * @author nick &lt;palmer@cs.vu.nl&gt;
+ *
+ */
+final class UnionBranches {
+	/** Access to logger. */
+	private static final Logger LOG =
+			LoggerFactory.getLogger(UnionBranches.class);
+
+	/** The name of the branches artifact in the schema cache. */
+	private static final String BRANCHES_ARTIFACT = "union.branches";
+
+	/** Separates the type from the name in the lookup keys. */
+	private static final char SEPARATOR = ' ';
+
+	/** The schemas of the branches in union order. */
+	private final Schema[] mSchemas;
+	/** The stored type of each branch. */
+	private final String[] mTypes;
+	/** The stored type name of each branch. */
+	private final String[] mNames;
+	/** The branch index by stored type and, for named types, name. */
+	private final Map<String, Integer> mLookup =
+			new HashMap<String, Integer>();
+
+	/**
+	 * Indexes the branches of the given union.
+	 * @param union the union schema
+	 */
+	private UnionBranches(final Schema union) {
+		List<Schema> types = union.getTypes();
+		mSchemas = types.toArray(new Schema[types.size()]);
+		mTypes = new String[mSchemas.length];
+		mNames = new String[mSchemas.length];
+		for (int i = 0; i < mSchemas.length; i++) {
+			Schema branch = mSchemas[i];
+			mTypes[i] = branch.getType().toString();
+			mNames[i] = branch.getFullName();
+			if (UriBoundAdapter.isNamedType(branch.getType())) {
+				// Older data may hold the short name.
+				index(key(mTypes[i], branch.getName()), i);
+				index(key(mTypes[i], mNames[i]), i);
+			} else {
+				index(mTypes[i], i);
+			}
+		}
+	}
+
+	/**
+	 * Adds a key to the lookup unless an earlier branch has it.
+	 * @param key the key to add
+	 * @param branch the branch for the key
+	 */
+	private void index(final String key, final int branch) {
+		if (!mLookup.containsKey(key)) {
+			mLookup.put(key, branch);
+		}
+	}
+
+	/**
+	 * @param type the stored type
+	 * @param name the stored name
+	 * @return the lookup key for a named type
+	 */
+	private static String key(final String type, final String name) {
+		return type + SEPARATOR + name;
+	}
+
+	/**
+	 * Returns the branches for the given union, indexing them the first
+	 * time the union is seen.
+	 * @param union the union schema
+	 * @return the branches of the union
+	 */
+	static UnionBranches get(final Schema union) {
+		UnionBranches branches =
+				AvroSchemaCache.getArtifact(union, BRANCHES_ARTIFACT);
+		if (branches == null) {
+			LOG.debug("Indexing union branches: {}", union);
+			branches = AvroSchemaCache.putArtifact(union, BRANCHES_ARTIFACT,
+					new UnionBranches(union));
+		}
+		return branches;
+	}
+
+	/**
+	 * Resolves the stored form of a branch.
+	 * @param type the stored type or null
+	 * @param name the stored type name or null
+	 * @return the branch index or -1 if the type is null
+	 */
+	int resolve(final String type, final String name) {
+		if (type == null) {
+			return -1;
+		}
+		Integer branch = mLookup.get(key(type, name));
+		if (branch == null) {
+			branch = mLookup.get(type);
+		}
+		if (branch == null) {
+			throw new IllegalStateException("Unable to find union inner type: "
+					+ type + " : " + name);
+		}
+		return branch;
+	}
+
+	/**
+	 * @param schema the schema of a branch
+	 * @return the index of the branch
+	 */
+	int indexOf(final Schema schema) {
+		String type = schema.getType().toString();
+		if (UriBoundAdapter.isNamedType(schema.getType())) {
+			return resolve(type, schema.getFullName());
+		}
+		return resolve(type, null);
+	}
+
+	/**
+	 * @param branch the branch index
+	 * @return the schema of the branch
+	 */
+	Schema getSchema(final int branch) {
+		return mSchemas[branch];
+	}
+
+	/**
+	 * @param branch the branch index
+	 * @return the avro type of the branch
+	 */
+	Type getType(final int branch) {
+		return mSchemas[branch].getType();
+	}
+
+	/**
+	 * @param branch the branch index
+	 * @return the stored type of the branch
+	 */
+	String getStoredType(final int branch) {
+		return mTypes[branch];
+	}
+
+	/**
+	 * @param branch the branch index
+	 * @return the stored type name of the branch
+	 */
+	String getStoredName(final int branch) {
+		return mNames[branch];
+	}
+
+	/**
+	 * @return the number of branches
+	 */
+	int size() {
+		return mSchemas.length;
+	}
+}
@@ -34,6 +34,9 @@ implements UriBound<UriArray<A>> {
 	/** The default size to construct arrays with. */
 	private static final int DEFAULT_ARRAY_SIZE = 10;
 
+	/** The fields to load from records in this array. */
+	private FieldMask mElementMask = FieldMask.ALL;
+
 	/** The implementation of our UriBoundAdapter. */
 	private final UriBoundAdapterImpl<UriArray<A>> mBinderImpl =
 			new UriBoundAdapterImpl<UriArray<A>>() {
@@ -52,14 +55,8 @@ implements UriBound<UriArray<A>> {
 				final Uri idUri = UriDataManager.insertUri(resolver,
 						getInstanceUri(), values);
 				LOG.debug("Got id uri for array row: " + idUri);
-				final Uri dataUri = UriDataManager.storeDataToUri(resolver,
-						idUri, values, fieldName,
+				saveElement(resolver, idUri, fieldName,
 						getSchema().getElementType(), value);
-				if (dataUri != null) {
-					final UriMatch match = EntityUriMatcher.getMatch(dataUri);
-					values.put(fieldName, match.entityIdentifier);
-				}
-				UriDataManager.updateUriOrThrow(resolver, idUri, values);
 			}
 		}
 
@@ -76,7 +73,7 @@ implements UriBound<UriArray<A>> {
 					while (cursor.moveToNext()) {
 						add((A) UriDataManager.loadDataFromUri(resolver,
 								getInstanceUri(), cursor, fieldName,
-								getSchema().getElementType()));
+								getSchema().getElementType(), mElementMask));
 					}
 				} else {
 					throw new IllegalArgumentException("Unable to load: "
@@ -122,6 +119,8 @@ implements UriBound<UriArray<A>> {
 		public void saveImpl(final Bundle outState, final String fieldFullName)
 				throws NotBoundException {
 			LOG.debug("Storing to bundle: {} field: ", outState, fieldFullName);
+			outState.putParcelable(NameHelper.getTypeNameUri(fieldFullName),
+					getInstanceUri());
 			switch (getSchema().getElementType().getType()) {
 			case ARRAY:
 				saveArray(outState, fieldFullName);
@@ -180,8 +179,10 @@ implements UriBound<UriArray<A>> {
 		private void saveRecord(final Bundle outState,
 				final String fieldFullName) throws NotBoundException {
 			saveSize(outState, fieldFullName);
+			int i = 0;
 			for (Object element : UriArray.this) {
-				((UriRecord) element).save(outState, fieldFullName);
+				((UriRecord) element).save(outState,
+						NameHelper.getIndexedFieldName(fieldFullName, i++));
 			}
 		}
 
@@ -285,6 +286,10 @@ implements UriBound<UriArray<A>> {
 		@Override
 		public UriArray<A> loadImpl(final Bundle saved, final String fieldName)
 				throws NotBoundException {
+			Uri uri = saved.getParcelable(NameHelper.getTypeNameUri(fieldName));
+			if (uri != null) {
+				setInstanceUri(uri);
+			}
 			switch (getSchema().getElementType().getType()) {
 			case ARRAY:
 				loadArray(saved, fieldName);
@@ -371,7 +376,7 @@ implements UriBound<UriArray<A>> {
 				throws NotBoundException {
 			int count = saved.getInt(NameHelper.getCountName(fieldName));
 			for (int i = 0; i < count; i++) {
-				add((A) new UriMap(getInstanceUri(),
+				add((A) UriMap.newMap(getInstanceUri(),
 						getSchema().getElementType()).load(
 								saved, NameHelper.getIndexedFieldName(
 										fieldName, i)));
@@ -454,7 +459,7 @@ implements UriBound<UriArray<A>> {
 				throws NotBoundException {
 			int count = saved.getInt(NameHelper.getCountName(fieldName));
 			for (int i = 0; i < count; i++) {
-				add((A) new UriArray<A>(getInstanceUri(),
+				add((A) UriArray.newArray(getInstanceUri(),
 						getSchema().getElementType()).load(
 								saved,
 								NameHelper.getIndexedFieldName(
@@ -485,6 +490,105 @@ implements UriBound<UriArray<A>> {
 		mUriBinder = new UriBoundAdapter<UriArray<A>>(uri, mBinderImpl);
 	}
 
+	/**
+	 * Construct with the given schema from the given uri for a subclass
+	 * which holds its own elements and binds them itself.
+	 * @param uri the uri with the data
+	 * @param schema the schema for the array
+	 * @param binder the implementation of the binding
+	 */
+	UriArray(final Uri uri, final Schema schema,
+			final UriBoundAdapterImpl<UriArray<A>> binder) {
+		super(0, schema);
+		mUriBinder = new UriBoundAdapter<UriArray<A>>(uri, binder);
+	}
+
+	/**
+	 * Construct with the given schema from the bundle for a subclass
+	 * which holds its own elements and binds them itself.
+	 * @param schema the schema for the array
+	 * @param saved the bundle with data
+	 * @param binder the implementation of the binding
+	 */
+	UriArray(final Schema schema, final Bundle saved,
+			final UriBoundAdapterImpl<UriArray<A>> binder) {
+		super(0, schema);
+		mUriBinder = new UriBoundAdapter<UriArray<A>>(saved, binder);
+	}
+
+	/**
+	 * Builds an array for the given schema bound to the given uri.
+	 * Arrays which ask for paging get an array which loads a page at a
+	 * time, and arrays of primitives get an implementation which keeps
+	 * the elements unboxed.
+	 * @param <A> the type of the elements
+	 * @param uri the uri with the data
+	 * @param schema the schema for the array
+	 * @return the array
+	 */
+	public static <A> UriArray<A> newArray(final Uri uri,
+			final Schema schema) {
+		if (UriPagedArray.isPaged(schema)) {
+			return new UriPagedArray<A>(uri, schema);
+		}
+		UriArray<A> array = UriPrimitiveArray.newPrimitiveArray(uri, schema);
+		if (array == null) {
+			array = new UriArray<A>(uri, schema);
+		}
+		return array;
+	}
+
+	/**
+	 * Builds an array for the given schema from the bundle.
+	 * Arrays which ask for paging get an array which loads a page at a
+	 * time, and arrays of primitives get an implementation which keeps
+	 * the elements unboxed.
+	 * @param <A> the type of the elements
+	 * @param schema the schema for the array
+	 * @param saved the bundle with data
+	 * @return the array
+	 */
+	public static <A> UriArray<A> newArray(final Schema schema,
+			final Bundle saved) {
+		if (UriPagedArray.isPaged(schema)) {
+			return new UriPagedArray<A>(schema, saved);
+		}
+		UriArray<A> array = UriPrimitiveArray.newPrimitiveArray(schema, saved);
+		if (array == null) {
+			array = new UriArray<A>(schema, saved);
+		}
+		return array;
+	}
+
+	/**
+	 * Stores an element into an existing row of an array.
+	 * @param resolver the resolver to store with
+	 * @param rowUri the uri of the row
+	 * @param fieldName the name of the column with the value
+	 * @param elementSchema the schema of the element
+	 * @param value the element to store
+	 * @throws NotBoundException if the element is not bound
+	 */
+	static void saveElement(final ContentResolver resolver, final Uri rowUri,
+			final String fieldName, final Schema elementSchema,
+			final Object value) throws NotBoundException {
+		final ContentValues values = new ContentValues();
+		final Uri dataUri = UriDataManager.storeDataToUri(resolver,
+				rowUri, values, fieldName, elementSchema, value);
+		if (dataUri != null) {
+			final UriMatch match = EntityUriMatcher.getMatch(dataUri);
+			values.put(fieldName, match.entityIdentifier);
+		}
+		UriDataManager.updateUriOrThrow(resolver, rowUri, values);
+	}
+
+	/**
+	 * @return the binding which holds the elements in this array
+	 */
+	final UriBoundAdapterImpl<UriArray<A>> getDefaultBinder() {
+		return mBinderImpl;
+	}
+
 	@Override
 	public final Uri getInstanceUri() throws NotBoundException {
 		return mUriBinder.getInstanceUri();
@@ -509,6 +613,29 @@ implements UriBound<UriArray<A>> {
 		return mUriBinder.load(resolver, fieldName);
 	}
 
+	/**
+	 * Loads this array from the content provider, loading only the
+	 * selected fields of the records in it.
+	 * @param resolver the resolver to load with
+	 * @param fieldName the name of the field with the array
+	 * @param mask the fields to load from each element
+	 * @return this array
+	 * @throws NotBoundException if the array is not bound
+	 */
+	public final UriArray<A> load(final ContentResolver resolver,
+			final String fieldName, final FieldMask mask)
+					throws NotBoundException {
+		mElementMask = mask;
+		return mUriBinder.load(resolver, fieldName);
+	}
+
+	/**
+	 * @return the fields loaded from the elements of this array
+	 */
+	final FieldMask getElementMask() {
+		return mElementMask;
+	}
+
 	@Override
 	public final void save(final Bundle outState, final String prefix)
 			throws NotBoundException {
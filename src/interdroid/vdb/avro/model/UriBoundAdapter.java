@@ -152,7 +152,7 @@ public class UriBoundAdapter<A> implements UriBound<A> {
 	@Override
 	public final void save(final Bundle saved,
 			final String prefix) throws NotBoundException {
-		mAdapter.saveImpl(saved, null);
+		mAdapter.saveImpl(saved, prefix);
 	}
 
 	@Override
@@ -1,9 +1,12 @@
 package interdroid.vdb.avro.model;
 
+import interdroid.vdb.avro.AvroTimeSeries;
 import interdroid.vdb.content.EntityUriMatcher;
 
 import interdroid.vdb.content.EntityUriMatcher.UriMatch;
 
+import java.io.ByteArrayOutputStream;
+
 import org.apache.avro.Schema;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -11,6 +14,8 @@ import org.slf4j.LoggerFactory;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.net.Uri;
 
 /**
@@ -30,6 +35,56 @@ public final class UriDataManager {
     	// No construction
     }
 
+    /** The largest side of a thumbnail. */
+    public static final int THUMBNAIL_SIZE = 150;
+
+    /** The jpeg quality thumbnails are stored at. */
+    private static final int THUMBNAIL_QUALITY = 80;
+
+    /**
+     * Builds a small jpeg thumbnail of an image. The image is subsampled
+     * while decoding so the full size bitmap is never held in memory.
+     * @param data the image data
+     * @return the thumbnail or null if the data is not an image
+     */
+    public static byte[] getThumbnail(final byte[] data) {
+        if (data == null || data.length == 0) {
+            return null;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        int largest = Math.max(options.outWidth, options.outHeight);
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = 1;
+        while (largest / (options.inSampleSize * 2) >= THUMBNAIL_SIZE) {
+            options.inSampleSize *= 2;
+        }
+        Bitmap bitmap =
+                BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (bitmap == null) {
+            return null;
+        }
+
+        float scale = (float) THUMBNAIL_SIZE
+                / Math.max(bitmap.getWidth(), bitmap.getHeight());
+        if (scale < 1) {
+            Bitmap scaled = Bitmap.createScaledBitmap(bitmap,
+                    Math.round(bitmap.getWidth() * scale),
+                    Math.round(bitmap.getHeight() * scale), true);
+            bitmap.recycle();
+            bitmap = scaled;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, THUMBNAIL_QUALITY, out);
+        bitmap.recycle();
+        return out.toByteArray();
+    }
+
     /**
      * Utility for safely closing a cursor.
      * @param cursor the cursor to close
@@ -54,17 +109,40 @@ public final class UriDataManager {
      * @return the loaded data
      * @throws NotBoundException if the data is not bound properly
      */
-    @SuppressWarnings("rawtypes")
     static Object loadDataFromUri(final ContentResolver resolver,
     		final Uri rootUri, final Cursor cursor,
             final String fieldName, final Schema fieldSchema)
             		throws NotBoundException {
+        return loadDataFromUri(resolver, rootUri, cursor, fieldName,
+        		fieldSchema, FieldMask.ALL);
+    }
+
+    /**
+     * Loads the selected parts of data from a content provider.
+     * @param resolver the resolver to load with
+     * @param rootUri the uri to load
+     * @param cursor the cursor to load from
+     * @param fieldName the name of the field being loaded
+     * @param fieldSchema the schema for the field
+     * @param mask the fields to load from records in the data
+     * @return the loaded data
+     * @throws NotBoundException if the data is not bound properly
+     */
+    @SuppressWarnings("rawtypes")
+    static Object loadDataFromUri(final ContentResolver resolver,
+    		final Uri rootUri, final Cursor cursor,
+            final String fieldName, final Schema fieldSchema,
+            final FieldMask mask) throws NotBoundException {
         LOG.debug("Loading field: " + fieldName + " : " + fieldSchema);
         Object value = null;
         switch (fieldSchema.getType()) {
         case ARRAY:
-            value = new UriArray(Uri.withAppendedPath(rootUri, fieldName),
-                    fieldSchema).load(resolver, fieldName);
+            if (AvroTimeSeries.isTimeSeries(fieldSchema)) {
+                // Series are read in ranges through AvroTimeSeries.
+                break;
+            }
+            value = UriArray.newArray(Uri.withAppendedPath(rootUri, fieldName),
+                    fieldSchema).load(resolver, fieldName, mask);
             break;
         case BOOLEAN:
             value = (cursor.getInt(cursor.getColumnIndex(fieldName)) == 1);
@@ -93,8 +171,8 @@ public final class UriDataManager {
             value = cursor.getLong(cursor.getColumnIndex(fieldName));
             break;
         case MAP:
-            value = new UriMap(Uri.withAppendedPath(rootUri, fieldName),
-                    fieldSchema).load(resolver, fieldName);
+            value = UriMap.newMap(Uri.withAppendedPath(rootUri, fieldName),
+                    fieldSchema).load(resolver, fieldName, mask);
             break;
         case NULL:
             value = null;
@@ -104,7 +182,7 @@ public final class UriDataManager {
             if (recordId > 0) {
                 Uri recordUri = getRecordUri(rootUri, fieldSchema);
                 value = new UriRecord(Uri.withAppendedPath(recordUri,
-                		String.valueOf(recordId)), fieldSchema).load(resolver);
+                		String.valueOf(recordId)), fieldSchema).load(resolver, mask);
             } else {
                 value = null;
             }
@@ -117,7 +195,7 @@ public final class UriDataManager {
             break;
         case UNION:
             value = new UriUnion(fieldSchema).load(resolver, rootUri, cursor,
-            		fieldName);
+            		fieldName, mask);
             break;
         default:
             throw new IllegalArgumentException(
@@ -126,6 +204,54 @@ public final class UriDataManager {
         return value;
     }
 
+    /**
+     * Returns the value a field has in a freshly inserted row.
+     * @param rootUri the uri of the record the field is in
+     * @param fieldName the name of the field
+     * @param fieldSchema the schema for the field
+     * @return the empty value for the field
+     */
+    @SuppressWarnings("rawtypes")
+    static Object newData(final Uri rootUri, final String fieldName,
+            final Schema fieldSchema) {
+        Object value = null;
+        switch (fieldSchema.getType()) {
+        case ARRAY:
+            if (!AvroTimeSeries.isTimeSeries(fieldSchema)) {
+                value = UriArray.newArray(
+                        Uri.withAppendedPath(rootUri, fieldName), fieldSchema);
+            }
+            break;
+        case BOOLEAN:
+            value = false;
+            break;
+        case DOUBLE:
+            value = 0d;
+            break;
+        case ENUM:
+        case INT:
+            value = 0;
+            break;
+        case FLOAT:
+            value = 0f;
+            break;
+        case LONG:
+            value = 0L;
+            break;
+        case MAP:
+            value = UriMap.newMap(Uri.withAppendedPath(rootUri, fieldName),
+                    fieldSchema);
+            break;
+        case UNION:
+            value = new UriUnion(fieldSchema);
+            break;
+        default:
+            // Bytes, fixed, records and strings start out null.
+            break;
+        }
+        return value;
+    }
+
     /**
      * @param rootUri the root uri we are working with
      * @param fieldSchema the schema for the record
@@ -158,6 +284,10 @@ public final class UriDataManager {
         Uri dataUri = null;
         switch (fieldSchema.getType()) {
         case ARRAY:
+            if (AvroTimeSeries.isTimeSeries(fieldSchema)) {
+                // Series are appended through AvroTimeSeries.
+                break;
+            }
             if (data != null) {
                 UriArray array = (UriArray) data;
                 array.save(resolver, fieldName);
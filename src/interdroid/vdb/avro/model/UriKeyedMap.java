@@ -0,0 +1,505 @@
+package interdroid.vdb.avro.model;
+
+import interdroid.vdb.avro.AvroSchemaProperties;
+import interdroid.vdb.avro.model.UriBoundAdapter.UriBoundAdapterImpl;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Type;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.provider.BaseColumns;
+
+/**
+ * A UriMap which reads and writes a key at a time. Loading the map
+ * only counts its rows. Looking up a key queries the row for that key
+ * and remembers the value, and saving writes only the keys which were
+ * put or removed, plus the values which can be changed in place. The
+ * whole map is only read when it is iterated over.
+ * <p>
+ * Maps get one of these when they are built with {@link UriMap#newMap}
+ * and have {@link AvroSchemaProperties#DB_STORAGE} set to
+ * {@link AvroSchemaProperties#DB_STORAGE_KEYED}.
+ *
+ * @author nick &lt;palmer@cs.vu.nl&gt;
+ *
+ * @param <V> the value type
+ */
+public class UriKeyedMap<V> extends UriMap<V> {
+    /** Access to logger. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(UriKeyedMap.class);
+
+    /** The serial version id for this class. */
+    private static final long serialVersionUID = 1L;
+
+    /** The column with the id of a row. */
+    private static final String ID = BaseColumns._ID;
+
+    /** The suffix of the flag saved for a map which was not read. */
+    private static final String SUFFIX_KEYED = ".keyed";
+
+    /** The resolver keys are read with or null if not loaded. */
+    private transient ContentResolver mResolver;
+    /** The name of the field with the map. */
+    private String mFieldName;
+    /** True once every entry is held by the map itself. */
+    private boolean mComplete = true;
+    /** The number of entries. */
+    private int mSize;
+    /** The keys known to have no row. */
+    private final Set<String> mAbsent = new HashSet<String>();
+    /** The keys put since the map was loaded. */
+    private final Set<String> mPut = new HashSet<String>();
+    /** The keys removed since the map was loaded. */
+    private final Set<String> mRemoved = new HashSet<String>();
+
+    /**
+     * Binds a keyed map to its uri.
+     * @author nick &lt;palmer@cs.vu.nl&gt;
+     *
+     * @param <V> the value type
+     */
+    private static final class KeyedBinder<V>
+    implements UriBoundAdapterImpl<UriMap<V>> {
+        /** The map being bound. */
+        private UriKeyedMap<V> mMap;
+
+        @Override
+        public UriMap<V> loadImpl(final ContentResolver resolver,
+                final String fieldName) throws NotBoundException {
+            mMap.loadCount(resolver, fieldName);
+            return mMap;
+        }
+
+        @Override
+        public void saveImpl(final ContentResolver resolver,
+                final String fieldName) throws NotBoundException {
+            if (mMap.mResolver == null) {
+                // Never read from the rows so it holds everything.
+                mMap.getDefaultBinder().saveImpl(resolver, fieldName);
+                mMap.loaded(resolver, fieldName);
+            } else {
+                mMap.saveKeys(resolver, fieldName);
+            }
+        }
+
+        @Override
+        public void deleteImpl(final ContentResolver resolver)
+                throws NotBoundException {
+            mMap.getDefaultBinder().deleteImpl(resolver);
+        }
+
+        @Override
+        public UriMap<V> loadImpl(final Bundle saved, final String prefix)
+                throws NotBoundException {
+            mMap.reset();
+            if (saved.getBoolean(prefix + SUFFIX_KEYED)) {
+                // The rows are counted again when the map is next loaded.
+                Uri uri = saved.getParcelable(
+                        NameHelper.getTypeNameUri(prefix));
+                if (uri != null) {
+                    mMap.setInstanceUri(uri);
+                }
+                return mMap;
+            }
+            return mMap.getDefaultBinder().loadImpl(saved, prefix);
+        }
+
+        @Override
+        public void saveImpl(final Bundle outState, final String prefix)
+                throws NotBoundException {
+            if (mMap.mResolver != null && !mMap.hasChanges()) {
+                outState.putParcelable(NameHelper.getTypeNameUri(prefix),
+                        mMap.getInstanceUri());
+                outState.putBoolean(prefix + SUFFIX_KEYED, true);
+                return;
+            }
+            mMap.getDefaultBinder().saveImpl(outState, prefix);
+        }
+    }
+
+    /**
+     * Construct bound to the given uri with the given schema.
+     * @param uri the uri to bind to
+     * @param schema the schema for the map
+     */
+    UriKeyedMap(final Uri uri, final Schema schema) {
+        this(uri, schema, new KeyedBinder<V>());
+    }
+
+    /**
+     * Construct bound to the given uri with the given schema.
+     * @param uri the uri to bind to
+     * @param schema the schema for the map
+     * @param binder the binder for this map
+     */
+    private UriKeyedMap(final Uri uri, final Schema schema,
+            final KeyedBinder<V> binder) {
+        super(uri, schema, binder);
+        binder.mMap = this;
+    }
+
+    /**
+     * Construct from the given bundle and schema.
+     * @param schema the schema for the map
+     * @param saved the bundle with saved data
+     */
+    UriKeyedMap(final Schema schema, final Bundle saved) {
+        this(schema, saved, new KeyedBinder<V>());
+    }
+
+    /**
+     * Construct from the given bundle and schema.
+     * @param schema the schema for the map
+     * @param saved the bundle with saved data
+     * @param binder the binder for this map
+     */
+    private UriKeyedMap(final Schema schema, final Bundle saved,
+            final KeyedBinder<V> binder) {
+        super(schema, saved, binder);
+        binder.mMap = this;
+    }
+
+    /**
+     * @param schema a map schema
+     * @return true if the map should be read and written a key at a time
+     */
+    static boolean isKeyed(final Schema schema) {
+        return schema.getType() == Type.MAP
+                && AvroSchemaProperties.DB_STORAGE_KEYED.equals(
+                        schema.getProp(AvroSchemaProperties.DB_STORAGE));
+    }
+
+    /**
+     * Forgets all entries.
+     */
+    private void reset() {
+        super.clear();
+        mResolver = null;
+        mComplete = true;
+        mSize = 0;
+        mAbsent.clear();
+        mPut.clear();
+        mRemoved.clear();
+    }
+
+    /**
+     * Starts reading keys from the rows.
+     * @param resolver the resolver to read with
+     * @param fieldName the name of the field with the map
+     */
+    private void loaded(final ContentResolver resolver,
+            final String fieldName) {
+        mResolver = resolver;
+        mFieldName = fieldName;
+        mSize = super.size();
+        mComplete = true;
+    }
+
+    /**
+     * Counts the rows of the map.
+     * @param resolver the resolver to read with
+     * @param fieldName the name of the field with the map
+     * @throws NotBoundException if the map is not bound
+     */
+    private void loadCount(final ContentResolver resolver,
+            final String fieldName) throws NotBoundException {
+        LOG.debug("Loading keyed map from: {}", getInstanceUri());
+        final Cursor cursor = resolver.query(getInstanceUri(),
+                new String[] {ID}, null, null, null);
+        if (cursor == null) {
+            throw new IllegalArgumentException("Unable to load: "
+                    + getInstanceUri());
+        }
+        try {
+            reset();
+            mSize = cursor.getCount();
+        } finally {
+            UriDataManager.safeClose(cursor);
+        }
+        mResolver = resolver;
+        mFieldName = fieldName;
+        mComplete = false;
+    }
+
+    /**
+     * Queries the row for a key.
+     * @param key the key to query
+     * @param projection the columns to return
+     * @return the cursor over the row
+     * @throws NotBoundException if the map is not bound
+     */
+    private Cursor queryKey(final String key, final String[] projection)
+            throws NotBoundException {
+        final Cursor cursor = mResolver.query(getInstanceUri(), projection,
+                NameHelper.getMapKeyName(mFieldName) + " = ?",
+                new String[] {key}, null);
+        if (cursor == null) {
+            throw new IllegalArgumentException("Unable to load: "
+                    + getInstanceUri());
+        }
+        return cursor;
+    }
+
+    /**
+     * Makes sure the map holds the value for a key if there is one.
+     * @param key the key to look up
+     * @return true if the map has the key
+     */
+    private boolean fetch(final Object key) {
+        if (super.containsKey(key)) {
+            return true;
+        }
+        if (mComplete || !(key instanceof String)
+                || mRemoved.contains(key) || mAbsent.contains(key)) {
+            return false;
+        }
+        final String name = (String) key;
+        try {
+            final Cursor cursor = queryKey(name, null);
+            try {
+                if (cursor.moveToFirst()) {
+                    super.put(name, loadValue(mResolver, cursor,
+                            cursor.getColumnIndex(
+                                    NameHelper.getMapKeyName(mFieldName)),
+                            cursor.getColumnIndex(mFieldName), mFieldName));
+                    return true;
+                }
+            } finally {
+                UriDataManager.safeClose(cursor);
+            }
+        } catch (NotBoundException e) {
+            throw new IllegalStateException("Unable to read key: " + key, e);
+        }
+        mAbsent.add(name);
+        return false;
+    }
+
+    /**
+     * Reads every entry which is not held yet. Called before the map is
+     * iterated over. Changes made through the iterators can not be
+     * followed, so the map is saved in full from then on.
+     */
+    private void complete() {
+        final ContentResolver resolver = mResolver;
+        mResolver = null;
+        if (!mComplete) {
+            LOG.debug("Reading all of keyed map: {}", mSize);
+            // Entries we hold may have been changed so they win.
+            final Map<String, V> held = heldEntries();
+            super.clear();
+            try {
+                getDefaultBinder().loadImpl(resolver, mFieldName);
+            } catch (NotBoundException e) {
+                throw new IllegalStateException("Unable to read map.", e);
+            }
+            for (String key : mRemoved) {
+                super.remove(key);
+            }
+            super.putAll(held);
+            mComplete = true;
+        }
+        mAbsent.clear();
+        mPut.clear();
+        mRemoved.clear();
+    }
+
+    /**
+     * @return a copy of the entries held by the map itself
+     */
+    private Map<String, V> heldEntries() {
+        final Map<String, V> held = new HashMap<String, V>();
+        for (Map.Entry<String, V> entry : super.entrySet()) {
+            held.put(entry.getKey(), entry.getValue());
+        }
+        return held;
+    }
+
+    /**
+     * Tells if the map may differ from the database without reading it.
+     * @return true if the map was read in full or has keys to write
+     */
+    final boolean isChanged() {
+        return mResolver == null || hasChanges();
+    }
+
+    /**
+     * @return true if there are keys to write
+     */
+    private boolean hasChanges() {
+        return !mPut.isEmpty() || !mRemoved.isEmpty()
+                || (isMutable() && !super.isEmpty());
+    }
+
+    /**
+     * @return true if values can be changed in place
+     */
+    private boolean isMutable() {
+        Type type = getSchema().getValueType().getType();
+        return UriBoundAdapter.isBoundType(type) || type == Type.UNION;
+    }
+
+    /**
+     * Writes the keys which were put or removed and the values which can
+     * be changed in place.
+     * @param resolver the resolver to save with
+     * @param fieldName the name of the field with the map
+     * @throws NotBoundException if the map is not bound
+     */
+    private void saveKeys(final ContentResolver resolver,
+            final String fieldName) throws NotBoundException {
+        final Uri uri = getInstanceUri();
+        final String keyName = NameHelper.getMapKeyName(fieldName);
+        final Set<String> keys = new HashSet<String>(mPut);
+        if (isMutable()) {
+            keys.addAll(super.keySet());
+        }
+        LOG.debug("Saving {} keys and removing {} keys: {}",
+                new Object[] {keys.size(), mRemoved.size(), uri});
+
+        for (String key : mRemoved) {
+            resolver.delete(uri, keyName + " = ?", new String[] {key});
+        }
+        for (String key : keys) {
+            Uri rowUri = null;
+            final Cursor cursor = queryKey(key, new String[] {ID});
+            try {
+                if (cursor.moveToFirst()) {
+                    rowUri = ContentUris.withAppendedId(uri,
+                            cursor.getLong(0));
+                }
+            } finally {
+                UriDataManager.safeClose(cursor);
+            }
+            if (rowUri == null) {
+                final ContentValues values = new ContentValues();
+                values.put(keyName, key);
+                rowUri = UriDataManager.insertUri(resolver, uri, values);
+            }
+            UriArray.saveElement(resolver, rowUri, fieldName,
+                    getSchema().getValueType(), super.get(key));
+        }
+        mPut.clear();
+        mRemoved.clear();
+    }
+
+    @Override
+    public final V get(final Object key) {
+        if (mResolver != null) {
+            fetch(key);
+        }
+        return super.get(key);
+    }
+
+    @Override
+    public final boolean containsKey(final Object key) {
+        if (mResolver == null) {
+            return super.containsKey(key);
+        }
+        return fetch(key);
+    }
+
+    @Override
+    public final V put(final String key, final V value) {
+        if (mResolver == null) {
+            return super.put(key, value);
+        }
+        final boolean present = fetch(key);
+        if (!present) {
+            mSize++;
+        }
+        mAbsent.remove(key);
+        mRemoved.remove(key);
+        mPut.add(key);
+        return super.put(key, value);
+    }
+
+    @Override
+    public final void putAll(final Map<? extends String, ? extends V> map) {
+        for (Map.Entry<? extends String, ? extends V> entry
+                : map.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public final V remove(final Object key) {
+        if (mResolver == null) {
+            return super.remove(key);
+        }
+        if (!fetch(key)) {
+            return null;
+        }
+        mSize--;
+        mPut.remove(key);
+        mRemoved.add((String) key);
+        return super.remove(key);
+    }
+
+    @Override
+    public final int size() {
+        if (mResolver == null) {
+            return super.size();
+        }
+        return mSize;
+    }
+
+    @Override
+    public final boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public final void clear() {
+        if (mResolver != null) {
+            // Saving now replaces all the rows.
+            reset();
+        }
+        super.clear();
+    }
+
+    @Override
+    public final boolean containsValue(final Object value) {
+        if (mResolver != null) {
+            complete();
+        }
+        return super.containsValue(value);
+    }
+
+    @Override
+    public final Set<String> keySet() {
+        if (mResolver != null) {
+            complete();
+        }
+        return super.keySet();
+    }
+
+    @Override
+    public final Collection<V> values() {
+        if (mResolver != null) {
+            complete();
+        }
+        return super.values();
+    }
+
+    @Override
+    public final Set<Map.Entry<String, V>> entrySet() {
+        if (mResolver != null) {
+            complete();
+        }
+        return super.entrySet();
+    }
+}
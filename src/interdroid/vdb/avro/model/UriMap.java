@@ -40,6 +40,9 @@ implements UriBound<UriMap<V>> {
         return mSchema;
     }
 
+    /** The fields to load from records in this map. */
+    private transient FieldMask mValueMask = FieldMask.ALL;
+
     /** The binder adapterused to bind this to a uri. */
     private final UriBoundAdapter<UriMap<V>> mUriBinder;
 
@@ -53,13 +56,19 @@ implements UriBound<UriMap<V>> {
         		final String fieldFullName) throws NotBoundException {
             String keyName = NameHelper.getMapKeyName(fieldFullName);
             String valueName = NameHelper.getMapValueName(fieldFullName);
+            Uri uri = saved.getParcelable(
+            		NameHelper.getTypeNameUri(fieldFullName));
+            if (uri != null) {
+                setInstanceUri(uri);
+            }
 
             int count = saved.getInt(NameHelper.getCountName(fieldFullName));
             for (int i = 0; i < count; i++) {
                 String key = saved.getString(
                 		NameHelper.getIndexedFieldName(keyName, i));
-                put(key, (V) BundleDataManager.loadDataFromBundle(
-                		saved, valueName, getSchema().getValueType()));
+                put(key, (V) BundleDataManager.loadDataFromBundle(saved,
+                		NameHelper.getIndexedFieldName(valueName, i),
+                		getSchema().getValueType()));
             }
 
             return UriMap.this;
@@ -142,7 +151,6 @@ implements UriBound<UriMap<V>> {
             }
         }
 
-        @SuppressWarnings("unchecked")
         @Override
         public UriMap<V> loadImpl(final ContentResolver resolver,
                 final String fieldName) throws NotBoundException {
@@ -159,36 +167,8 @@ implements UriBound<UriMap<V>> {
                     final int valueIndex = cursor
                             .getColumnIndex(fieldName);
                     while (cursor.moveToNext()) {
-                        Uri dataUri = Uri.withAppendedPath(getInstanceUri(),
-                        		cursor.getString(keyIndex));
-                        Cursor dataCursor = cursor;
-                        try {
-                            if (UriBoundAdapter.isBoundType(
-                            		getSchema().getValueType().getType())) {
-                                final int recordId = cursor.getInt(valueIndex);
-                                if (recordId > 0) {
-                                    dataUri = Uri.withAppendedPath(
-                                            UriDataManager.getRecordUri(
-                                            		getInstanceUri(),
-                                            		getSchema().getValueType()),
-                                            String.valueOf(recordId));
-                                    dataCursor = resolver.query(dataUri,
-                                    		null, null, null, null);
-                                    if (dataCursor != null) {
-                                        dataCursor.moveToFirst();
-                                    }
-                                }
-                            }
-                            put(cursor.getString(keyIndex),
-                                    (V) UriDataManager.loadDataFromUri(resolver,
-                                    		dataUri, dataCursor, fieldName,
-                                    		getSchema().getValueType()));
-                        } finally {
-                            if (UriBoundAdapter.isBoundType(
-                            		getSchema().getValueType().getType())) {
-                                UriDataManager.safeClose(dataCursor);
-                            }
-                        }
+                        put(cursor.getString(keyIndex), loadValue(resolver,
+                        		cursor, keyIndex, valueIndex, fieldName));
                     }
                 } else {
                     throw new IllegalArgumentException("Unable to load: "
@@ -225,6 +205,119 @@ implements UriBound<UriMap<V>> {
         mUriBinder = new UriBoundAdapter<UriMap<V>>(uri, mBinderImpl);
     }
 
+    /**
+     * Construct bound to the given uri with the given schema for a
+     * subclass which binds itself.
+     * @param uri the uri to bind to
+     * @param schema the schema for the map
+     * @param binder the implementation of the binding
+     */
+    UriMap(final Uri uri, final Schema schema,
+    		final UriBoundAdapterImpl<UriMap<V>> binder) {
+    	super();
+        mSchema = schema;
+        mUriBinder = new UriBoundAdapter<UriMap<V>>(uri, binder);
+    }
+
+    /**
+     * Construct from the given bundle and schema for a subclass which
+     * binds itself.
+     * @param schema the schema for the map
+     * @param saved the bundle with saved data
+     * @param binder the implementation of the binding
+     */
+    UriMap(final Schema schema, final Bundle saved,
+    		final UriBoundAdapterImpl<UriMap<V>> binder) {
+    	super();
+        mSchema = schema;
+        mUriBinder = new UriBoundAdapter<UriMap<V>>(saved, binder);
+    }
+
+    /**
+     * Builds a map for the given schema bound to the given uri. Maps
+     * which are addressed by key get a map which reads and writes a
+     * key at a time.
+     * @param <V> the type of the values
+     * @param uri the uri to bind to
+     * @param schema the schema for the map
+     * @return the map
+     */
+    public static <V> UriMap<V> newMap(final Uri uri, final Schema schema) {
+        if (UriKeyedMap.isKeyed(schema)) {
+            return new UriKeyedMap<V>(uri, schema);
+        }
+        return new UriMap<V>(uri, schema);
+    }
+
+    /**
+     * Builds a map for the given schema from the bundle. Maps which are
+     * addressed by key get a map which reads and writes a key at a time.
+     * @param <V> the type of the values
+     * @param schema the schema for the map
+     * @param saved the bundle with saved data
+     * @return the map
+     */
+    public static <V> UriMap<V> newMap(final Schema schema,
+    		final Bundle saved) {
+        if (UriKeyedMap.isKeyed(schema)) {
+            return new UriKeyedMap<V>(schema, saved);
+        }
+        return new UriMap<V>(schema, saved);
+    }
+
+    /**
+     * Loads the value in the current row of a cursor over the rows of
+     * this map.
+     * @param resolver the resolver to load with
+     * @param cursor the cursor positioned on the row
+     * @param keyIndex the index of the key column
+     * @param valueIndex the index of the value column
+     * @param fieldName the name of the field with the map
+     * @return the value in the row
+     * @throws NotBoundException if the map is not bound
+     */
+    @SuppressWarnings("unchecked")
+    final V loadValue(final ContentResolver resolver, final Cursor cursor,
+    		final int keyIndex, final int valueIndex, final String fieldName)
+    				throws NotBoundException {
+        Uri dataUri = Uri.withAppendedPath(getInstanceUri(),
+        		cursor.getString(keyIndex));
+        Cursor dataCursor = cursor;
+        try {
+            if (UriBoundAdapter.isBoundType(
+            		getSchema().getValueType().getType())) {
+                final int recordId = cursor.getInt(valueIndex);
+                if (recordId > 0) {
+                    dataUri = Uri.withAppendedPath(
+                            UriDataManager.getRecordUri(
+                            		getInstanceUri(),
+                            		getSchema().getValueType()),
+                            String.valueOf(recordId));
+                    dataCursor = resolver.query(dataUri,
+                    		null, null, null, null);
+                    if (dataCursor != null) {
+                        dataCursor.moveToFirst();
+                    }
+                }
+            }
+            return (V) UriDataManager.loadDataFromUri(resolver,
+            		dataUri, dataCursor, fieldName,
+            		getSchema().getValueType(), mValueMask);
+        } finally {
+            if (UriBoundAdapter.isBoundType(
+            		getSchema().getValueType().getType())) {
+                UriDataManager.safeClose(dataCursor);
+            }
+        }
+    }
+
+    /**
+     * @return the binding which holds the entries in this map
+     */
+    final UriBoundAdapterImpl<UriMap<V>> getDefaultBinder() {
+        return mBinderImpl;
+    }
+
     @Override
     public final Uri getInstanceUri() throws NotBoundException {
         return mUriBinder.getInstanceUri();
@@ -266,4 +359,20 @@ implements UriBound<UriMap<V>> {
             throws NotBoundException {
         return mUriBinder.load(resolver, fieldName);
     }
+
+    /**
+     * Loads this map from the content provider, loading only the
+     * selected fields of the records in it.
+     * @param resolver the resolver to load with
+     * @param fieldName the name of the field with the map
+     * @param mask the fields to load from each value
+     * @return this map
+     * @throws NotBoundException if the map is not bound
+     */
+    public final UriMap<V> load(final ContentResolver resolver,
+    		final String fieldName, final FieldMask mask)
+            throws NotBoundException {
+        mValueMask = mask;
+        return mUriBinder.load(resolver, fieldName);
+    }
 }
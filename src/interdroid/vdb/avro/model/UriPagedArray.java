@@ -0,0 +1,723 @@
+package interdroid.vdb.avro.model;
+
+import interdroid.vdb.avro.AvroSchemaProperties;
+import interdroid.vdb.avro.model.UriBoundAdapter.UriBoundAdapterImpl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Type;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Process;
+import android.provider.BaseColumns;
+
+/**
+ * A UriArray which loads its elements a page at a time. Loading the
+ * array only reads the ids of the rows. Pages are read by id range when
+ * an element on them is asked for, only the last few pages used are
+ * kept in memory, and the page ahead of a scrolling list is read in the
+ * background.
+ * <p>
+ * Elements which are set, and records, maps and unions which were handed
+ * out and so may be changed in place, are held until the array is saved,
+ * when only their rows are written. Appended elements are inserted as
+ * new rows. Any other change to the structure of the array loads the
+ * whole array and it is saved in full from then on.
+ * <p>
+ * Arrays get one of these when they are built with
+ * {@link UriArray#newArray} and have {@link AvroSchemaProperties#UI_PAGE_SIZE}
+ * set.
+ *
+ * @author nick &lt;palmer@cs.vu.nl&gt;
+ *
+ * @param <A> the type of the elements
+ */
+public class UriPagedArray<A> extends UriArray<A> {
+	/** Access to logger. */
+	private static final Logger LOG = LoggerFactory
+			.getLogger(UriPagedArray.class);
+
+	/** The column with the id of a row. */
+	private static final String ID = BaseColumns._ID;
+
+	/** The number of pages kept in memory. */
+	private static final int WINDOW = 4;
+
+	/** The suffix of the flag saved for an array which was not loaded. */
+	private static final String SUFFIX_PAGED = ".paged";
+
+	/** The number of prefetches waiting to run. */
+	private static final int PREFETCH_QUEUE = 1;
+
+	/** The thread reading pages ahead or null before the first read. */
+	private static ExecutorService sPrefetcher;
+
+	/** The number of elements in a page. */
+	private final int mPageSize;
+	/** True if elements can be changed in place. */
+	private final boolean mMutable;
+
+	/** The ids of the rows in order. */
+	private long[] mIds = new long[0];
+	/** The resolver the pages are read with. */
+	private ContentResolver mResolver;
+	/** The name of the column with the values. */
+	private String mFieldName;
+	/** True once all elements are held by the array itself. */
+	private boolean mMaterialized;
+
+	/** The pages in memory, least recently used first. */
+	private final LinkedHashMap<Integer, Page> mPages =
+			new LinkedHashMap<Integer, Page>(WINDOW + 1, 1, true) {
+		/** Serial version. */
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(
+				final Map.Entry<Integer, Page> eldest) {
+			// Elements which may have been changed are in mChanged.
+			return size() > WINDOW;
+		}
+	};
+	/**
+	 * The elements which have to be written by position. Elements which
+	 * can be changed in place are kept here once handed out, since the
+	 * caller may change them at any time.
+	 */
+	private final Map<Integer, Object> mChanged =
+			new HashMap<Integer, Object>();
+	/** The elements appended since the array was loaded. */
+	private final List<A> mAppended = new ArrayList<A>();
+
+	/** The first visible position the last time the list scrolled. */
+	private int mLastFirst;
+	/** Bumped to cancel the running prefetch. */
+	private volatile int mGeneration;
+
+	/**
+	 * A page of elements.
+	 */
+	private static final class Page {
+		/** The elements on the page. */
+		private final Object[] mElements;
+
+		/**
+		 * Construct a page.
+		 * @param size the number of elements on the page
+		 */
+		private Page(final int size) {
+			mElements = new Object[size];
+		}
+	}
+
+	/**
+	 * Binds a paged array to its uri.
+	 * @author nick &lt;palmer@cs.vu.nl&gt;
+	 *
+	 * @param <A> the type of the elements
+	 */
+	private static final class PagedBinder<A>
+	implements UriBoundAdapterImpl<UriArray<A>> {
+		/** The array being bound. */
+		private UriPagedArray<A> mArray;
+
+		@Override
+		public UriArray<A> loadImpl(final ContentResolver resolver,
+				final String fieldName) throws NotBoundException {
+			mArray.loadIds(resolver, fieldName);
+			return mArray;
+		}
+
+		@Override
+		public void saveImpl(final ContentResolver resolver,
+				final String fieldName) throws NotBoundException {
+			mArray.saveRows(resolver, fieldName);
+		}
+
+		@Override
+		public void deleteImpl(final ContentResolver resolver)
+				throws NotBoundException {
+			mArray.getDefaultBinder().deleteImpl(resolver);
+		}
+
+		@Override
+		public UriArray<A> loadImpl(final Bundle saved, final String prefix)
+				throws NotBoundException {
+			mArray.reset();
+			if (saved.getBoolean(prefix + SUFFIX_PAGED)) {
+				// The rows are read again when the array is next loaded.
+				Uri uri = saved.getParcelable(
+						NameHelper.getTypeNameUri(prefix));
+				if (uri != null) {
+					mArray.setInstanceUri(uri);
+				}
+				return mArray;
+			}
+			mArray.mMaterialized = true;
+			return mArray.getDefaultBinder().loadImpl(saved, prefix);
+		}
+
+		@Override
+		public void saveImpl(final Bundle outState, final String prefix)
+				throws NotBoundException {
+			if (!mArray.mMaterialized && !mArray.hasChanges()) {
+				outState.putParcelable(NameHelper.getTypeNameUri(prefix),
+						mArray.getInstanceUri());
+				outState.putBoolean(prefix + SUFFIX_PAGED, true);
+				return;
+			}
+			mArray.materialize();
+			mArray.getDefaultBinder().saveImpl(outState, prefix);
+		}
+	}
+
+	/**
+	 * Construct with the given schema from the given uri.
+	 * @param uri the uri with the data
+	 * @param schema the schema for the array
+	 */
+	UriPagedArray(final Uri uri, final Schema schema) {
+		this(uri, schema, new PagedBinder<A>());
+	}
+
+	/**
+	 * Construct with the given schema from the given uri.
+	 * @param uri the uri with the data
+	 * @param schema the schema for the array
+	 * @param binder the binder for this array
+	 */
+	private UriPagedArray(final Uri uri, final Schema schema,
+			final PagedBinder<A> binder) {
+		super(uri, schema, binder);
+		binder.mArray = this;
+		mPageSize = pageSize(schema);
+		mMutable = isMutable(schema.getElementType());
+	}
+
+	/**
+	 * Construct with the given schema from the bundle.
+	 * @param schema the schema for the array
+	 * @param saved the bundle with data
+	 */
+	UriPagedArray(final Schema schema, final Bundle saved) {
+		this(schema, saved, new PagedBinder<A>());
+	}
+
+	/**
+	 * Construct with the given schema from the bundle.
+	 * @param schema the schema for the array
+	 * @param saved the bundle with data
+	 * @param binder the binder for this array
+	 */
+	private UriPagedArray(final Schema schema, final Bundle saved,
+			final PagedBinder<A> binder) {
+		super(schema, saved, binder);
+		binder.mArray = this;
+		mPageSize = pageSize(schema);
+		mMutable = isMutable(schema.getElementType());
+	}
+
+	/**
+	 * @param schema an array schema
+	 * @return true if the array should be loaded a page at a time
+	 */
+	static boolean isPaged(final Schema schema) {
+		return schema.getProp(AvroSchemaProperties.UI_PAGE_SIZE) != null
+				&& pageSize(schema) > 0
+				&& !PackedStorage.isPacked(schema);
+	}
+
+	/**
+	 * @param schema an array schema
+	 * @return the page size of the array or 0 if it has none
+	 */
+	private static int pageSize(final Schema schema) {
+		String size = schema.getProp(AvroSchemaProperties.UI_PAGE_SIZE);
+		if (size != null) {
+			try {
+				return Math.max(0, Integer.parseInt(size));
+			} catch (NumberFormatException e) {
+				LOG.warn("Ignoring page size: {}", size);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @param elementSchema the schema of the elements
+	 * @return true if elements of the type can be changed in place
+	 */
+	private static boolean isMutable(final Schema elementSchema) {
+		return UriBoundAdapter.isBoundType(elementSchema.getType())
+				|| elementSchema.getType() == Type.UNION;
+	}
+
+	/**
+	 * @return the number of elements in a page
+	 */
+	public final int getPageSize() {
+		return mPageSize;
+	}
+
+	/**
+	 * Forgets all elements.
+	 */
+	private void reset() {
+		mGeneration++;
+		synchronized (mPages) {
+			mPages.clear();
+			mChanged.clear();
+		}
+		mIds = new long[0];
+		mAppended.clear();
+		mMaterialized = false;
+		super.clear();
+	}
+
+	/**
+	 * Reads the ids of the rows.
+	 * @param resolver the resolver to read with
+	 * @param fieldName the name of the column with the values
+	 * @throws NotBoundException if the array is not bound
+	 */
+	private void loadIds(final ContentResolver resolver,
+			final String fieldName) throws NotBoundException {
+		LOG.debug("Loading paged array from uri: {}", getInstanceUri());
+		final Cursor cursor = resolver.query(getInstanceUri(),
+				new String[] {ID}, null, null, ID);
+		if (cursor == null) {
+			throw new IllegalArgumentException("Unable to load: "
+					+ getInstanceUri());
+		}
+		try {
+			reset();
+			long[] ids = new long[cursor.getCount()];
+			int count = 0;
+			while (cursor.moveToNext() && count < ids.length) {
+				ids[count++] = cursor.getLong(0);
+			}
+			mIds = ids;
+		} finally {
+			UriDataManager.safeClose(cursor);
+		}
+		mResolver = resolver;
+		mFieldName = fieldName;
+	}
+
+	/**
+	 * Reads a page.
+	 * @param page the index of the page
+	 * @return the page read
+	 * @throws NotBoundException if the array is not bound
+	 */
+	private Page readPage(final int page) throws NotBoundException {
+		final int start = page * mPageSize;
+		final int end = Math.min(mIds.length, start + mPageSize);
+		final long[] ids = mIds;
+		final Page result = new Page(end - start);
+		final Schema elementSchema = getSchema().getElementType();
+		LOG.debug("Reading page {} of: {}", page, getInstanceUri());
+		final Cursor cursor = mResolver.query(getInstanceUri(), null,
+				ID + " >= ? AND " + ID + " <= ?",
+				new String[] {String.valueOf(ids[start]),
+					String.valueOf(ids[end - 1])}, ID);
+		if (cursor == null) {
+			throw new IllegalArgumentException("Unable to load: "
+					+ getInstanceUri());
+		}
+		try {
+			final int idColumn = cursor.getColumnIndexOrThrow(ID);
+			while (cursor.moveToNext()) {
+				// Rows inserted since the ids were read are not ours.
+				int index = Arrays.binarySearch(ids, start, end,
+						cursor.getLong(idColumn));
+				if (index >= 0) {
+					Object value = UriDataManager.loadDataFromUri(mResolver,
+							getInstanceUri(), cursor, mFieldName,
+							elementSchema, getElementMask());
+					result.mElements[index - start] = value;
+				}
+			}
+		} finally {
+			UriDataManager.safeClose(cursor);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns a page, reading it if it is not in memory.
+	 * @param page the index of the page
+	 * @return the page
+	 */
+	private Page getPage(final int page) {
+		synchronized (mPages) {
+			Page result = mPages.get(page);
+			if (result != null) {
+				return result;
+			}
+		}
+		Page read;
+		try {
+			read = readPage(page);
+		} catch (NotBoundException e) {
+			throw new IllegalStateException("Unable to read page.", e);
+		}
+		return putPage(page, read);
+	}
+
+	/**
+	 * Puts a page into memory unless it was read already.
+	 * @param page the index of the page
+	 * @param read the page read
+	 * @return the page in memory
+	 */
+	private Page putPage(final int page, final Page read) {
+		synchronized (mPages) {
+			// Elements may have been handed out from the page in memory.
+			Page current = mPages.get(page);
+			if (current != null) {
+				return current;
+			}
+			mPages.put(page, read);
+			return read;
+		}
+	}
+
+	/**
+	 * Tells if the array may differ from the database without reading it.
+	 * @return true if the array was materialized or has elements to write
+	 */
+	final boolean isChanged() {
+		return mMaterialized || hasChanges();
+	}
+
+	/**
+	 * @return true if there are elements to write
+	 */
+	private boolean hasChanges() {
+		synchronized (mPages) {
+			return !mChanged.isEmpty() || !mAppended.isEmpty();
+		}
+	}
+
+	/**
+	 * Reads the page ahead of a scrolling list in the background.
+	 * Must be called on the UI thread each time the list scrolls.
+	 * @param first the first visible position
+	 * @param count the number of visible positions
+	 */
+	public final void prefetch(final int first, final int count) {
+		if (mMaterialized || mResolver == null || first == mLastFirst) {
+			return;
+		}
+		final int page;
+		if (first > mLastFirst) {
+			page = (first + count - 1) / mPageSize + 1;
+		} else {
+			page = first / mPageSize - 1;
+		}
+		mLastFirst = first;
+		if (page < 0 || page * mPageSize >= mIds.length) {
+			return;
+		}
+		synchronized (mPages) {
+			if (mPages.containsKey(page)) {
+				return;
+			}
+		}
+		final int generation = ++mGeneration;
+		getPrefetcher().execute(new Runnable() {
+			public void run() {
+				if (generation != mGeneration) {
+					return;
+				}
+				try {
+					Page read = readPage(page);
+					if (generation == mGeneration) {
+						putPage(page, read);
+					}
+				} catch (RuntimeException e) {
+					LOG.warn("Unable to prefetch page: " + page, e);
+				} catch (NotBoundException e) {
+					LOG.warn("Unable to prefetch page: " + page, e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Returns the thread reading pages ahead. Only the newest waiting
+	 * read is kept, since a list which scrolled on no longer needs the
+	 * older ones.
+	 * @return the executor for prefetches
+	 */
+	private static synchronized ExecutorService getPrefetcher() {
+		if (sPrefetcher == null) {
+			sPrefetcher = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+					new ArrayBlockingQueue<Runnable>(PREFETCH_QUEUE),
+					new ThreadFactory() {
+				public Thread newThread(final Runnable task) {
+					Thread thread = new Thread(new Runnable() {
+						public void run() {
+							Process.setThreadPriority(
+									Process.THREAD_PRIORITY_BACKGROUND);
+							task.run();
+						}
+					}, "Page prefetcher");
+					thread.setDaemon(true);
+					return thread;
+				}
+			}, new ThreadPoolExecutor.DiscardOldestPolicy());
+		}
+		return sPrefetcher;
+	}
+
+	/**
+	 * Moves all elements into the array itself. The array is saved in
+	 * full from then on.
+	 */
+	private void materialize() {
+		if (mMaterialized) {
+			return;
+		}
+		LOG.debug("Loading all of paged array: {}", mIds.length);
+		List<Object> all = new ArrayList<Object>(size());
+		for (int i = 0; i < size(); i++) {
+			all.add(get(i));
+		}
+		mGeneration++;
+		synchronized (mPages) {
+			mPages.clear();
+			mChanged.clear();
+		}
+		mAppended.clear();
+		mMaterialized = true;
+		super.clear();
+		for (Object element : all) {
+			addElement(element);
+		}
+	}
+
+	/**
+	 * Adds to the elements held by the array itself.
+	 * @param element the element to add
+	 */
+	@SuppressWarnings("unchecked")
+	private void addElement(final Object element) {
+		super.add((A) element);
+	}
+
+	/**
+	 * Writes the changed and appended elements, or all elements if the
+	 * array was changed in structure.
+	 * @param resolver the resolver to save with
+	 * @param fieldName the name of the column with the values
+	 * @throws NotBoundException if the array is not bound
+	 */
+	private void saveRows(final ContentResolver resolver,
+			final String fieldName) throws NotBoundException {
+		if (mMaterialized) {
+			getDefaultBinder().saveImpl(resolver, fieldName);
+			return;
+		}
+		if (!hasChanges()) {
+			return;
+		}
+		final Uri uri = getInstanceUri();
+		final Schema elementSchema = getSchema().getElementType();
+		final Map<Integer, Object> changed;
+		synchronized (mPages) {
+			changed = new HashMap<Integer, Object>(mChanged);
+		}
+		LOG.debug("Saving {} changed and {} appended rows: {}",
+				new Object[] {changed.size(), mAppended.size(), uri});
+		for (Map.Entry<Integer, Object> entry : changed.entrySet()) {
+			saveElement(resolver,
+					ContentUris.withAppendedId(uri, mIds[entry.getKey()]),
+					fieldName, elementSchema, entry.getValue());
+		}
+		long[] ids = new long[mIds.length + mAppended.size()];
+		System.arraycopy(mIds, 0, ids, 0, mIds.length);
+		int count = mIds.length;
+		for (A element : mAppended) {
+			final Uri rowUri = UriDataManager.insertUri(resolver, uri,
+					new ContentValues());
+			saveElement(resolver, rowUri, fieldName, elementSchema, element);
+			ids[count++] = ContentUris.parseId(rowUri);
+		}
+
+		// Everything written is read back from the rows when needed.
+		mGeneration++;
+		synchronized (mPages) {
+			mPages.clear();
+			mChanged.clear();
+		}
+		mAppended.clear();
+		mIds = ids;
+		mResolver = resolver;
+		mFieldName = fieldName;
+	}
+
+	/**
+	 * Checks that an index is in range.
+	 * @param index the index to check
+	 * @param limit the first index out of range
+	 */
+	private static void checkIndex(final int index, final int limit) {
+		if (index < 0 || index >= limit) {
+			throw new IndexOutOfBoundsException("Index " + index
+					+ " out of bounds.");
+		}
+	}
+
+	@Override
+	public final int size() {
+		if (mMaterialized) {
+			return super.size();
+		}
+		return mIds.length + mAppended.size();
+	}
+
+	@Override
+	public final void clear() {
+		reset();
+		// Saving now replaces all the rows.
+		mMaterialized = true;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public final A get(final int index) {
+		if (mMaterialized) {
+			return super.get(index);
+		}
+		checkIndex(index, size());
+		if (index >= mIds.length) {
+			return mAppended.get(index - mIds.length);
+		}
+		synchronized (mPages) {
+			if (mChanged.containsKey(index)) {
+				return (A) mChanged.get(index);
+			}
+		}
+		Object element =
+				getPage(index / mPageSize).mElements[index % mPageSize];
+		if (mMutable && element != null) {
+			synchronized (mPages) {
+				mChanged.put(index, element);
+			}
+		}
+		return (A) element;
+	}
+
+	@Override
+	public final A set(final int index, final A value) {
+		if (mMaterialized) {
+			return super.set(index, value);
+		}
+		checkIndex(index, size());
+		if (index >= mIds.length) {
+			return mAppended.set(index - mIds.length, value);
+		}
+		A old = get(index);
+		synchronized (mPages) {
+			mChanged.put(index, value);
+		}
+		return old;
+	}
+
+	@Override
+	public final boolean add(final A value) {
+		if (mMaterialized) {
+			return super.add(value);
+		}
+		return mAppended.add(value);
+	}
+
+	@Override
+	public final void add(final int index, final A value) {
+		if (!mMaterialized && index == size()) {
+			mAppended.add(value);
+			return;
+		}
+		materialize();
+		super.add(index, value);
+	}
+
+	@Override
+	public final A remove(final int index) {
+		if (!mMaterialized && index >= mIds.length) {
+			checkIndex(index, size());
+			return mAppended.remove(index - mIds.length);
+		}
+		materialize();
+		return super.remove(index);
+	}
+
+	@Override
+	public final A peek() {
+		// Nothing is kept around for reuse.
+		return null;
+	}
+
+	@Override
+	public final void reverse() {
+		materialize();
+		super.reverse();
+	}
+
+	@Override
+	public final Iterator<A> iterator() {
+		if (mMaterialized) {
+			return super.iterator();
+		}
+		return new Iterator<A>() {
+			private int mPosition = 0;
+			private boolean mRemovable;
+
+			@Override
+			public boolean hasNext() {
+				return mPosition < size();
+			}
+
+			@Override
+			public A next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				mRemovable = true;
+				return get(mPosition++);
+			}
+
+			@Override
+			public void remove() {
+				if (!mRemovable) {
+					throw new IllegalStateException();
+				}
+				mRemovable = false;
+				// Loads the whole array unless the element was appended.
+				UriPagedArray.this.remove(--mPosition);
+			}
+		};
+	}
+}
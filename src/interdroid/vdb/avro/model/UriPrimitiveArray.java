@@ -0,0 +1,876 @@
+package interdroid.vdb.avro.model;
+
+import interdroid.vdb.avro.model.UriBoundAdapter.UriBoundAdapterImpl;
+
+import java.lang.reflect.Array;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.avro.Schema;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+/**
+ * A UriArray of a primitive type which keeps its elements unboxed in a
+ * growable primitive buffer. Elements are only boxed when they are read
+ * through the List interface. Rows are read straight from the cursor
+ * into the buffer and written back in bulk, and saved state is a copy
+ * of the buffer.
+ * <p>
+ * Arrays of ints, longs, floats, doubles and booleans get one of these
+ * automatically when they are built with {@link UriArray#newArray}.
+ *
+ * @author nick &lt;palmer@cs.vu.nl&gt;
+ *
+ * @param <A> the boxed type of the elements
+ */
+public abstract class UriPrimitiveArray<A> extends UriArray<A> {
+	/** Access to logger. */
+	private static final Logger LOG = LoggerFactory
+			.getLogger(UriPrimitiveArray.class);
+
+	/** The capacity of a new buffer. */
+	private static final int INITIAL_CAPACITY = 10;
+
+	/** The most rows inserted with one call to the resolver. */
+	private static final int INSERT_BATCH = 256;
+
+	/** The buffer holding the elements. */
+	private Object mBuffer;
+	/** The number of elements in the buffer. */
+	private int mSize;
+
+	/**
+	 * Binds a primitive array to its uri.
+	 * @author nick &lt;palmer@cs.vu.nl&gt;
+	 *
+	 * @param <A> the boxed type of the elements
+	 */
+	private static final class PrimitiveBinder<A>
+	implements UriBoundAdapterImpl<UriArray<A>> {
+		/** The array being bound. */
+		private UriPrimitiveArray<A> mArray;
+
+		@Override
+		public UriArray<A> loadImpl(final ContentResolver resolver,
+				final String fieldName) throws NotBoundException {
+			mArray.loadRows(resolver, fieldName);
+			return mArray;
+		}
+
+		@Override
+		public void saveImpl(final ContentResolver resolver,
+				final String fieldName) throws NotBoundException {
+			mArray.saveRows(resolver, fieldName);
+		}
+
+		@Override
+		public void deleteImpl(final ContentResolver resolver)
+				throws NotBoundException {
+			resolver.delete(mArray.getInstanceUri(), null, null);
+		}
+
+		@Override
+		public UriArray<A> loadImpl(final Bundle saved, final String prefix)
+				throws NotBoundException {
+			Uri uri = saved.getParcelable(NameHelper.getTypeNameUri(prefix));
+			if (uri != null) {
+				mArray.setInstanceUri(uri);
+			}
+			mArray.mSize = 0;
+			mArray.loadState(saved, prefix);
+			return mArray;
+		}
+
+		@Override
+		public void saveImpl(final Bundle outState, final String prefix)
+				throws NotBoundException {
+			outState.putParcelable(NameHelper.getTypeNameUri(prefix),
+					mArray.getInstanceUri());
+			mArray.saveState(outState, prefix);
+		}
+	}
+
+	/**
+	 * Construct with the given schema from the given uri.
+	 * @param uri the uri with the data
+	 * @param schema the schema for the array
+	 * @param buffer an empty buffer for the elements
+	 */
+	UriPrimitiveArray(final Uri uri, final Schema schema,
+			final Object buffer) {
+		this(uri, schema, buffer, new PrimitiveBinder<A>());
+	}
+
+	/**
+	 * Construct with the given schema from the given uri.
+	 * @param uri the uri with the data
+	 * @param schema the schema for the array
+	 * @param buffer an empty buffer for the elements
+	 * @param binder the binder for this array
+	 */
+	private UriPrimitiveArray(final Uri uri, final Schema schema,
+			final Object buffer, final PrimitiveBinder<A> binder) {
+		super(uri, schema, binder);
+		binder.mArray = this;
+		mBuffer = buffer;
+	}
+
+	/**
+	 * Construct with the given schema from the bundle.
+	 * @param schema the schema for the array
+	 * @param saved the bundle with data
+	 * @param buffer an empty buffer for the elements
+	 */
+	UriPrimitiveArray(final Schema schema, final Bundle saved,
+			final Object buffer) {
+		this(schema, saved, buffer, new PrimitiveBinder<A>());
+	}
+
+	/**
+	 * Construct with the given schema from the bundle.
+	 * @param schema the schema for the array
+	 * @param saved the bundle with data
+	 * @param buffer an empty buffer for the elements
+	 * @param binder the binder for this array
+	 */
+	private UriPrimitiveArray(final Schema schema, final Bundle saved,
+			final Object buffer, final PrimitiveBinder<A> binder) {
+		super(schema, saved, binder);
+		binder.mArray = this;
+		mBuffer = buffer;
+	}
+
+	/**
+	 * Builds a primitive array for the given schema.
+	 * @param <A> the boxed type of the elements
+	 * @param uri the uri with the data
+	 * @param schema the schema for the array
+	 * @return the array or null if the elements are not primitive
+	 */
+	@SuppressWarnings("unchecked")
+	static <A> UriArray<A> newPrimitiveArray(final Uri uri,
+			final Schema schema) {
+		UriArray<?> array;
+		switch (schema.getElementType().getType()) {
+		case BOOLEAN:
+			array = new BooleanArray(uri, schema);
+			break;
+		case DOUBLE:
+			array = new DoubleArray(uri, schema);
+			break;
+		case FLOAT:
+			array = new FloatArray(uri, schema);
+			break;
+		case INT:
+			array = new IntArray(uri, schema);
+			break;
+		case LONG:
+			array = new LongArray(uri, schema);
+			break;
+		default:
+			array = null;
+			break;
+		}
+		return (UriArray<A>) array;
+	}
+
+	/**
+	 * Builds a primitive array for the given schema from the bundle.
+	 * @param <A> the boxed type of the elements
+	 * @param schema the schema for the array
+	 * @param saved the bundle with data
+	 * @return the array or null if the elements are not primitive
+	 */
+	@SuppressWarnings("unchecked")
+	static <A> UriArray<A> newPrimitiveArray(final Schema schema,
+			final Bundle saved) {
+		UriArray<?> array;
+		switch (schema.getElementType().getType()) {
+		case BOOLEAN:
+			array = new BooleanArray(schema, saved);
+			break;
+		case DOUBLE:
+			array = new DoubleArray(schema, saved);
+			break;
+		case FLOAT:
+			array = new FloatArray(schema, saved);
+			break;
+		case INT:
+			array = new IntArray(schema, saved);
+			break;
+		case LONG:
+			array = new LongArray(schema, saved);
+			break;
+		default:
+			array = null;
+			break;
+		}
+		return (UriArray<A>) array;
+	}
+
+	/**
+	 * Boxes an element.
+	 * @param index the index of the element
+	 * @return the boxed element
+	 */
+	abstract A box(int index);
+
+	/**
+	 * Stores a boxed element. Null is stored as the default value of the
+	 * type, which is also what a new element of a form starts out as.
+	 * @param index the index to store at
+	 * @param value the boxed value or null
+	 */
+	abstract void unbox(int index, A value);
+
+	/**
+	 * Reads an element from the current row of the cursor.
+	 * @param cursor the cursor to read from
+	 * @param column the column with the value
+	 * @param index the index to store at
+	 */
+	abstract void read(Cursor cursor, int column, int index);
+
+	/**
+	 * Puts an element into content values.
+	 * @param values the values to put into
+	 * @param fieldName the name of the column
+	 * @param index the index of the element
+	 */
+	abstract void write(ContentValues values, String fieldName, int index);
+
+	/**
+	 * Saves the elements to the bundle.
+	 * @param outState the bundle to save to
+	 * @param fieldName the name to save under
+	 */
+	abstract void saveState(Bundle outState, String fieldName);
+
+	/**
+	 * Loads the elements from the bundle.
+	 * @param saved the bundle to load from
+	 * @param fieldName the name to load from
+	 */
+	abstract void loadState(Bundle saved, String fieldName);
+
+	/**
+	 * @return a copy of the buffer holding exactly the elements
+	 */
+	final Object copyBuffer() {
+		Object copy = Array.newInstance(
+				mBuffer.getClass().getComponentType(), mSize);
+		System.arraycopy(mBuffer, 0, copy, 0, mSize);
+		return copy;
+	}
+
+	/**
+	 * Replaces the elements with a copy of the given buffer.
+	 * @param buffer the buffer to copy or null for no elements
+	 */
+	final void copyFrom(final Object buffer) {
+		if (buffer == null) {
+			mSize = 0;
+		} else {
+			int length = Array.getLength(buffer);
+			ensureCapacity(length);
+			System.arraycopy(buffer, 0, mBuffer, 0, length);
+			mSize = length;
+		}
+	}
+
+	/**
+	 * @return the buffer holding the elements
+	 */
+	final Object buffer() {
+		return mBuffer;
+	}
+
+	/**
+	 * Grows the buffer to hold at least the given number of elements.
+	 * @param capacity the number of elements to hold
+	 */
+	final void ensureCapacity(final int capacity) {
+		int current = Array.getLength(mBuffer);
+		if (capacity > current) {
+			Object grown = Array.newInstance(
+					mBuffer.getClass().getComponentType(),
+					Math.max(capacity, Math.max(INITIAL_CAPACITY, current * 2)));
+			System.arraycopy(mBuffer, 0, grown, 0, mSize);
+			mBuffer = grown;
+		}
+	}
+
+	/**
+	 * Makes room for an element at the end.
+	 * @return the index of the new element
+	 */
+	final int append() {
+		ensureCapacity(mSize + 1);
+		return mSize++;
+	}
+
+	/**
+	 * Loads the rows with a single column query straight into the buffer.
+	 * @param resolver the resolver to load with
+	 * @param fieldName the name of the column with the values
+	 * @throws NotBoundException if the array is not bound
+	 */
+	private void loadRows(final ContentResolver resolver,
+			final String fieldName) throws NotBoundException {
+		LOG.debug("Loading primitive array from uri: {}", getInstanceUri());
+		final Cursor cursor = resolver.query(getInstanceUri(),
+				new String[] {fieldName}, null, null, null);
+		if (cursor == null) {
+			throw new IllegalArgumentException("Unable to load: "
+					+ getInstanceUri());
+		}
+		try {
+			mSize = 0;
+			ensureCapacity(cursor.getCount());
+			final int column = cursor.getColumnIndexOrThrow(fieldName);
+			while (cursor.moveToNext()) {
+				read(cursor, column, mSize++);
+			}
+		} finally {
+			UriDataManager.safeClose(cursor);
+		}
+	}
+
+	/**
+	 * Replaces the rows with the elements, inserting them in batches.
+	 * @param resolver the resolver to save with
+	 * @param fieldName the name of the column with the values
+	 * @throws NotBoundException if the array is not bound
+	 */
+	private void saveRows(final ContentResolver resolver,
+			final String fieldName) throws NotBoundException {
+		final Uri uri = getInstanceUri();
+		LOG.debug("Saving primitive array: {} : {}", uri, fieldName);
+		resolver.delete(uri, null, null);
+		for (int start = 0; start < mSize; start += INSERT_BATCH) {
+			final ContentValues[] rows =
+					new ContentValues[Math.min(INSERT_BATCH, mSize - start)];
+			for (int i = 0; i < rows.length; i++) {
+				rows[i] = new ContentValues(1);
+				write(rows[i], fieldName, start + i);
+			}
+			resolver.bulkInsert(uri, rows);
+		}
+	}
+
+	/**
+	 * Checks that an index is in range.
+	 * @param index the index to check
+	 * @param limit the first index out of range
+	 */
+	private static void checkIndex(final int index, final int limit) {
+		if (index < 0 || index >= limit) {
+			throw new IndexOutOfBoundsException("Index " + index
+					+ " out of bounds.");
+		}
+	}
+
+	@Override
+	public final int size() {
+		return mSize;
+	}
+
+	@Override
+	public final void clear() {
+		mSize = 0;
+	}
+
+	@Override
+	public final A get(final int index) {
+		checkIndex(index, mSize);
+		return box(index);
+	}
+
+	@Override
+	public final A set(final int index, final A value) {
+		checkIndex(index, mSize);
+		A old = box(index);
+		unbox(index, value);
+		return old;
+	}
+
+	@Override
+	public final boolean add(final A value) {
+		// The size only grows once the value was stored.
+		ensureCapacity(mSize + 1);
+		unbox(mSize, value);
+		mSize++;
+		return true;
+	}
+
+	@Override
+	public final void add(final int index, final A value) {
+		checkIndex(index, mSize + 1);
+		// Store in the spare slot first so a bad value changes nothing.
+		ensureCapacity(mSize + 1);
+		unbox(mSize, value);
+		A stored = box(mSize);
+		System.arraycopy(mBuffer, index, mBuffer, index + 1, mSize - index);
+		mSize++;
+		unbox(index, stored);
+	}
+
+	@Override
+	public final A remove(final int index) {
+		checkIndex(index, mSize);
+		A old = box(index);
+		System.arraycopy(mBuffer, index + 1, mBuffer, index,
+				mSize - index - 1);
+		mSize--;
+		return old;
+	}
+
+	@Override
+	public final A peek() {
+		// Avro arrays hand back the slot past the end for reuse.
+		return null;
+	}
+
+	@Override
+	public final void reverse() {
+		for (int left = 0, right = mSize - 1; left < right; left++, right--) {
+			A swap = box(left);
+			unbox(left, box(right));
+			unbox(right, swap);
+		}
+	}
+
+	@Override
+	public final Iterator<A> iterator() {
+		return new Iterator<A>() {
+			/** The index of the next element. */
+			private int mNext;
+
+			@Override
+			public boolean hasNext() {
+				return mNext < mSize;
+			}
+
+			@Override
+			public A next() {
+				if (mNext >= mSize) {
+					throw new NoSuchElementException();
+				}
+				return box(mNext++);
+			}
+
+			@Override
+			public void remove() {
+				UriPrimitiveArray.this.remove(--mNext);
+			}
+		};
+	}
+
+	/**
+	 * An array of ints.
+	 * @author nick &lt;palmer@cs.vu.nl&gt;
+	 *
+	 */
+	public static final class IntArray extends UriPrimitiveArray<Integer> {
+		/**
+		 * Construct with the given schema from the given uri.
+		 * @param uri the uri with the data
+		 * @param schema the schema for the array
+		 */
+		IntArray(final Uri uri, final Schema schema) {
+			super(uri, schema, new int[INITIAL_CAPACITY]);
+		}
+
+		/**
+		 * Construct with the given schema from the bundle.
+		 * @param schema the schema for the array
+		 * @param saved the bundle with data
+		 */
+		IntArray(final Schema schema, final Bundle saved) {
+			super(schema, saved, new int[INITIAL_CAPACITY]);
+		}
+
+		/**
+		 * @param index the index of the element
+		 * @return the element
+		 */
+		public int getInt(final int index) {
+			checkIndex(index, size());
+			return ((int[]) buffer())[index];
+		}
+
+		/**
+		 * @param value the element to add
+		 */
+		public void addInt(final int value) {
+			int index = append();
+			((int[]) buffer())[index] = value;
+		}
+
+		/**
+		 * @return a copy of the elements
+		 */
+		public int[] toIntArray() {
+			return (int[]) copyBuffer();
+		}
+
+		@Override
+		Integer box(final int index) {
+			return ((int[]) buffer())[index];
+		}
+
+		@Override
+		void unbox(final int index, final Integer value) {
+			((int[]) buffer())[index] = value == null ? 0 : value;
+		}
+
+		@Override
+		void read(final Cursor cursor, final int column, final int index) {
+			((int[]) buffer())[index] = cursor.getInt(column);
+		}
+
+		@Override
+		void write(final ContentValues values, final String fieldName,
+				final int index) {
+			values.put(fieldName, ((int[]) buffer())[index]);
+		}
+
+		@Override
+		void saveState(final Bundle outState, final String fieldName) {
+			outState.putIntArray(fieldName, toIntArray());
+		}
+
+		@Override
+		void loadState(final Bundle saved, final String fieldName) {
+			copyFrom(saved.getIntArray(fieldName));
+		}
+	}
+
+	/**
+	 * An array of longs.
+	 * @author nick &lt;palmer@cs.vu.nl&gt;
+	 *
+	 */
+	public static final class LongArray extends UriPrimitiveArray<Long> {
+		/**
+		 * Construct with the given schema from the given uri.
+		 * @param uri the uri with the data
+		 * @param schema the schema for the array
+		 */
+		LongArray(final Uri uri, final Schema schema) {
+			super(uri, schema, new long[INITIAL_CAPACITY]);
+		}
+
+		/**
+		 * Construct with the given schema from the bundle.
+		 * @param schema the schema for the array
+		 * @param saved the bundle with data
+		 */
+		LongArray(final Schema schema, final Bundle saved) {
+			super(schema, saved, new long[INITIAL_CAPACITY]);
+		}
+
+		/**
+		 * @param index the index of the element
+		 * @return the element
+		 */
+		public long getLong(final int index) {
+			checkIndex(index, size());
+			return ((long[]) buffer())[index];
+		}
+
+		/**
+		 * @param value the element to add
+		 */
+		public void addLong(final long value) {
+			int index = append();
+			((long[]) buffer())[index] = value;
+		}
+
+		/**
+		 * @return a copy of the elements
+		 */
+		public long[] toLongArray() {
+			return (long[]) copyBuffer();
+		}
+
+		@Override
+		Long box(final int index) {
+			return ((long[]) buffer())[index];
+		}
+
+		@Override
+		void unbox(final int index, final Long value) {
+			((long[]) buffer())[index] = value == null ? 0L : value;
+		}
+
+		@Override
+		void read(final Cursor cursor, final int column, final int index) {
+			((long[]) buffer())[index] = cursor.getLong(column);
+		}
+
+		@Override
+		void write(final ContentValues values, final String fieldName,
+				final int index) {
+			values.put(fieldName, ((long[]) buffer())[index]);
+		}
+
+		@Override
+		void saveState(final Bundle outState, final String fieldName) {
+			outState.putLongArray(fieldName, toLongArray());
+		}
+
+		@Override
+		void loadState(final Bundle saved, final String fieldName) {
+			copyFrom(saved.getLongArray(fieldName));
+		}
+	}
+
+	/**
+	 * An array of floats.
+	 * @author nick &lt;palmer@cs.vu.nl&gt;
+	 *
+	 */
+	public static final class FloatArray extends UriPrimitiveArray<Float> {
+		/**
+		 * Construct with the given schema from the given uri.
+		 * @param uri the uri with the data
+		 * @param schema the schema for the array
+		 */
+		FloatArray(final Uri uri, final Schema schema) {
+			super(uri, schema, new float[INITIAL_CAPACITY]);
+		}
+
+		/**
+		 * Construct with the given schema from the bundle.
+		 * @param schema the schema for the array
+		 * @param saved the bundle with data
+		 */
+		FloatArray(final Schema schema, final Bundle saved) {
+			super(schema, saved, new float[INITIAL_CAPACITY]);
+		}
+
+		/**
+		 * @param index the index of the element
+		 * @return the element
+		 */
+		public float getFloat(final int index) {
+			checkIndex(index, size());
+			return ((float[]) buffer())[index];
+		}
+
+		/**
+		 * @param value the element to add
+		 */
+		public void addFloat(final float value) {
+			int index = append();
+			((float[]) buffer())[index] = value;
+		}
+
+		/**
+		 * @return a copy of the elements
+		 */
+		public float[] toFloatArray() {
+			return (float[]) copyBuffer();
+		}
+
+		@Override
+		Float box(final int index) {
+			return ((float[]) buffer())[index];
+		}
+
+		@Override
+		void unbox(final int index, final Float value) {
+			((float[]) buffer())[index] = value == null ? 0f : value;
+		}
+
+		@Override
+		void read(final Cursor cursor, final int column, final int index) {
+			((float[]) buffer())[index] = cursor.getFloat(column);
+		}
+
+		@Override
+		void write(final ContentValues values, final String fieldName,
+				final int index) {
+			values.put(fieldName, ((float[]) buffer())[index]);
+		}
+
+		@Override
+		void saveState(final Bundle outState, final String fieldName) {
+			outState.putFloatArray(fieldName, toFloatArray());
+		}
+
+		@Override
+		void loadState(final Bundle saved, final String fieldName) {
+			copyFrom(saved.getFloatArray(fieldName));
+		}
+	}
+
+	/**
+	 * An array of doubles.
+	 * @author nick &lt;palmer@cs.vu.nl&gt;
+	 *
+	 */
+	public static final class DoubleArray extends UriPrimitiveArray<Double> {
+		/**
+		 * Construct with the given schema from the given uri.
+		 * @param uri the uri with the data
+		 * @param schema the schema for the array
+		 */
+		DoubleArray(final Uri uri, final Schema schema) {
+			super(uri, schema, new double[INITIAL_CAPACITY]);
+		}
+
+		/**
+		 * Construct with the given schema from the bundle.
+		 * @param schema the schema for the array
+		 * @param saved the bundle with data
+		 */
+		DoubleArray(final Schema schema, final Bundle saved) {
+			super(schema, saved, new double[INITIAL_CAPACITY]);
+		}
+
+		/**
+		 * @param index the index of the element
+		 * @return the element
+		 */
+		public double getDouble(final int index) {
+			checkIndex(index, size());
+			return ((double[]) buffer())[index];
+		}
+
+		/**
+		 * @param value the element to add
+		 */
+		public void addDouble(final double value) {
+			int index = append();
+			((double[]) buffer())[index] = value;
+		}
+
+		/**
+		 * @return a copy of the elements
+		 */
+		public double[] toDoubleArray() {
+			return (double[]) copyBuffer();
+		}
+
+		@Override
+		Double box(final int index) {
+			return ((double[]) buffer())[index];
+		}
+
+		@Override
+		void unbox(final int index, final Double value) {
+			((double[]) buffer())[index] = value == null ? 0d : value;
+		}
+
+		@Override
+		void read(final Cursor cursor, final int column, final int index) {
+			((double[]) buffer())[index] = cursor.getDouble(column);
+		}
+
+		@Override
+		void write(final ContentValues values, final String fieldName,
+				final int index) {
+			values.put(fieldName, ((double[]) buffer())[index]);
+		}
+
+		@Override
+		void saveState(final Bundle outState, final String fieldName) {
+			outState.putDoubleArray(fieldName, toDoubleArray());
+		}
+
+		@Override
+		void loadState(final Bundle saved, final String fieldName) {
+			copyFrom(saved.getDoubleArray(fieldName));
+		}
+	}
+
+	/**
+	 * An array of booleans.
+	 * @author nick &lt;palmer@cs.vu.nl&gt;
+	 *
+	 */
+	public static final class BooleanArray
+	extends UriPrimitiveArray<Boolean> {
+		/**
+		 * Construct with the given schema from the given uri.
+		 * @param uri the uri with the data
+		 * @param schema the schema for the array
+		 */
+		BooleanArray(final Uri uri, final Schema schema) {
+			super(uri, schema, new boolean[INITIAL_CAPACITY]);
+		}
+
+		/**
+		 * Construct with the given schema from the bundle.
+		 * @param schema the schema for the array
+		 * @param saved the bundle with data
+		 */
+		BooleanArray(final Schema schema, final Bundle saved) {
+			super(schema, saved, new boolean[INITIAL_CAPACITY]);
+		}
+
+		/**
+		 * @param index the index of the element
+		 * @return the element
+		 */
+		public boolean getBoolean(final int index) {
+			checkIndex(index, size());
+			return ((boolean[]) buffer())[index];
+		}
+
+		/**
+		 * @param value the element to add
+		 */
+		public void addBoolean(final boolean value) {
+			int index = append();
+			((boolean[]) buffer())[index] = value;
+		}
+
+		/**
+		 * @return a copy of the elements
+		 */
+		public boolean[] toBooleanArray() {
+			return (boolean[]) copyBuffer();
+		}
+
+		@Override
+		Boolean box(final int index) {
+			return ((boolean[]) buffer())[index];
+		}
+
+		@Override
+		void unbox(final int index, final Boolean value) {
+			((boolean[]) buffer())[index] = value == null ? false : value;
+		}
+
+		@Override
+		void read(final Cursor cursor, final int column, final int index) {
+			((boolean[]) buffer())[index] = cursor.getInt(column) == 1;
+		}
+
+		@Override
+		void write(final ContentValues values, final String fieldName,
+				final int index) {
+			values.put(fieldName, ((boolean[]) buffer())[index]);
+		}
+
+		@Override
+		void saveState(final Bundle outState, final String fieldName) {
+			outState.putBooleanArray(fieldName, toBooleanArray());
+		}
+
+		@Override
+		void loadState(final Bundle saved, final String fieldName) {
+			copyFrom(saved.getBooleanArray(fieldName));
+		}
+	}
+}
@@ -1,9 +1,15 @@
 package interdroid.vdb.avro.model;
 
+import interdroid.vdb.avro.AvroSchemaProperties;
 import interdroid.vdb.avro.model.UriBoundAdapter.UriBoundAdapterImpl;
 import interdroid.vdb.content.EntityUriMatcher;
 import interdroid.vdb.content.EntityUriMatcher.UriMatch;
 
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Future;
+
 import org.apache.avro.Schema;
 import org.apache.avro.Schema.Field;
 import org.apache.avro.Schema.Type;
@@ -12,6 +18,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.net.Uri;
@@ -31,6 +38,22 @@ implements UriBound<UriRecord> {
 	/** The binder adapter we use to bind to a uri. */
 	private final UriBoundAdapter<UriRecord> mUriBinder;
 
+	/** The id in the placeholder uri of records which have no row. */
+	private static final long PROVISIONAL_ID = 0;
+
+	/** The directory the row goes in if this has no row yet or null. */
+	private Uri mProvisionalDir;
+
+	/** The bundle key suffix holding the mask of a partial record. */
+	private static final String SUFFIX_MASK = ".mask";
+
+	/** The fields which were loaded into this record. */
+	private FieldMask mMask = FieldMask.ALL;
+
+	/** The photos the stored thumbnails were made from by field name. */
+	private final Map<String, Object> mThumbnailSources =
+			new HashMap<String, Object>();
+
 	/** The implementation for the binder adapter. */
 	private final UriBoundAdapterImpl<UriRecord> mBinderImpl =
 			new UriBoundAdapterImpl<UriRecord>() {
@@ -38,10 +61,29 @@ implements UriBound<UriRecord> {
 		@Override
 		public void saveImpl(final ContentResolver resolver,
 				final String fieldFullName) throws NotBoundException {
+			materialize(resolver);
 			ContentValues values = new ContentValues();
 			LOG.debug("Storing record: {}", fieldFullName);
+			updateThumbnails();
 			for (Field field : getSchema().getFields()) {
 				String fieldName = field.name();
+				// Fields which were not loaded keep what they hold
+				if (!isLoaded(field)
+						|| PackedStorage.isHolder(getSchema(), field)) {
+					continue;
+				}
+				String holder = PackedStorage.getHolder(getSchema(), field);
+				if (holder != null) {
+					byte[] packed = PackedStorage.encode(get(fieldName),
+							field.schema());
+					values.put(holder, packed);
+					if (packed != null) {
+						// Drop any rows from before the field was packed.
+						resolver.delete(Uri.withAppendedPath(
+								getInstanceUri(), fieldName), null, null);
+						continue;
+					}
+				}
 				// Store the data to either the values or the right table
 				Uri dataUri = UriDataManager.storeDataToUri(resolver,
 						getInstanceUri(), values, field.name(), field.schema(),
@@ -55,6 +97,7 @@ implements UriBound<UriRecord> {
 			}
 			// Now we can update the data for this record.
 			UriDataManager.updateUriOrThrow(resolver, getInstanceUri(), values);
+			UriRecordCache.invalidate(getInstanceUri());
 		}
 
 		@Override
@@ -63,24 +106,58 @@ implements UriBound<UriRecord> {
 			LOG.debug("Loading record from uri: {} : {}",
 					getInstanceUri(), getSchema());
 
+			String[] projection = null;
+			if (!mMask.isAll()) {
+				projection = mMask.getColumns(getSchema());
+			}
 			Cursor cursor = resolver.query(getInstanceUri(),
-					null, null, null, null);
+					projection, null, null, null);
 
 			try {
 				LOG.debug("Cursor is: {}", cursor);
 				if (cursor != null && cursor.getCount() == 1) {
 					cursor.moveToFirst();
 
+					boolean parallel = ParallelLoader.isParallel(getSchema());
+					Map<String, Future<Object>> pending =
+							new LinkedHashMap<String, Future<Object>>();
 					for (Field field : getSchema().getFields()) {
 						String fieldName = field.name();
+						if (!mMask.includes(fieldName)
+								|| PackedStorage.isHolder(getSchema(), field)) {
+							continue;
+						}
+						String holder =
+								PackedStorage.getHolder(getSchema(), field);
+						byte[] packed = null;
+						if (holder != null) {
+							packed = cursor.getBlob(
+									cursor.getColumnIndex(holder));
+						}
+						if (packed != null) {
+							put(fieldName, PackedStorage.decode(packed,
+									Uri.withAppendedPath(getInstanceUri(),
+											fieldName), field.schema()));
+							continue;
+						}
+						if (parallel
+								&& ParallelLoader.isSeparate(field.schema())) {
+							pending.put(fieldName, ParallelLoader.submit(
+									resolver, getInstanceUri(), cursor,
+									fieldName, field.schema(),
+									mMask.get(fieldName)));
+							continue;
+						}
 						// Load the data for this field
 						Object value = UriDataManager.loadDataFromUri(resolver,
 								getInstanceUri(), cursor, fieldName,
-								field.schema());
+								field.schema(), mMask.get(fieldName));
 						LOG.debug("Loaded: {} : {}", fieldName, value);
 						// And store it in the record
 						put(fieldName, value);
 					}
+					joinFields(pending);
+					rememberThumbnails();
 				}
 			} finally {
 				UriDataManager.safeClose(cursor);
@@ -92,6 +169,16 @@ implements UriBound<UriRecord> {
 		public void deleteImpl(final ContentResolver resolver)
 				throws NotBoundException {
 			LOG.debug("Deleting Record: {}", getInstanceUri());
+			if (mProvisionalDir != null) {
+				LOG.debug("Record was never stored.");
+				return;
+			}
+
+			// A partial record does not know all its children.
+			if (!mMask.isAll()) {
+				mMask = FieldMask.ALL;
+				loadImpl(resolver, null);
+			}
 
 			// TODO: The fields here may not reflect what we
 			// really need to do to delete if this is not
@@ -112,6 +199,7 @@ implements UriBound<UriRecord> {
 			}
 
 			resolver.delete(getInstanceUri(), null, null);
+			UriRecordCache.invalidate(getInstanceUri());
 		}
 
 		@Override
@@ -124,6 +212,13 @@ implements UriBound<UriRecord> {
 
 			outState.putParcelable(NameHelper.getTypeNameUri(dataFullName),
 					getInstanceUri());
+			outState.putParcelable(
+					NameHelper.getProvisionalName(dataFullName),
+					mProvisionalDir);
+			if (!mMask.isAll()) {
+				outState.putString(dataFullName + SUFFIX_MASK,
+						mMask.toString());
+			}
 
 			for (Field field : getSchema().getFields()) {
 				String fieldName = field.name();
@@ -142,6 +237,17 @@ implements UriBound<UriRecord> {
 					prefix, getSchema().getFullName());
 			String dataFullName =
 					NameHelper.getPrefixName(prefix, getSchema().getFullName());
+			Uri uri = saved.getParcelable(
+					NameHelper.getTypeNameUri(dataFullName));
+			if (uri != null) {
+				setInstanceUri(uri);
+			}
+			mProvisionalDir = saved.getParcelable(
+					NameHelper.getProvisionalName(dataFullName));
+			String mask = saved.getString(dataFullName + SUFFIX_MASK);
+			if (mask != null) {
+				mMask = FieldMask.parse(mask);
+			}
 
 			for (Field field : getSchema().getFields()) {
 				String fieldName = field.name();
@@ -179,6 +285,142 @@ implements UriBound<UriRecord> {
 		mUriBinder = new UriBoundAdapter<UriRecord>(uri, mBinderImpl);
 	}
 
+	/**
+	 * Constructs a record which has no row yet. The row is inserted into
+	 * the given directory the first time the record is saved, so records
+	 * which are never saved never touch the database.
+	 * @param dir the uri of the directory the row goes in
+	 * @param schema the schema for the record
+	 * @return the new record
+	 */
+	public static UriRecord newRecord(final Uri dir, final Schema schema) {
+		Uri uri = ContentUris.withAppendedId(dir, PROVISIONAL_ID);
+		UriRecord record = new UriRecord(uri, schema);
+		record.mProvisionalDir = dir;
+		for (Field field : schema.getFields()) {
+			record.put(field.name(), UriDataManager.newData(uri, field.name(),
+					field.schema()));
+		}
+		return record;
+	}
+
+	/**
+	 * @return true if this record has no row in the database yet
+	 */
+	public final boolean isProvisional() {
+		return mProvisionalDir != null;
+	}
+
+	/**
+	 * Inserts the row for this record if it does not have one yet and
+	 * binds the record and its arrays and maps to the new row.
+	 * @param resolver the resolver to insert with
+	 * @return the uri of the row for this record
+	 * @throws NotBoundException if the row can not be inserted
+	 */
+	@SuppressWarnings("rawtypes")
+	public final Uri materialize(final ContentResolver resolver)
+			throws NotBoundException {
+		if (mProvisionalDir != null) {
+			Uri uri = UriDataManager.insertUri(resolver, mProvisionalDir,
+					new ContentValues());
+			if (uri == null) {
+				throw new NotBoundException(
+						"Unable to insert into: " + mProvisionalDir);
+			}
+			LOG.debug("Record now stored at: {}", uri);
+			mProvisionalDir = null;
+			setInstanceUri(uri);
+			for (Field field : getSchema().getFields()) {
+				Object value = get(field.name());
+				if (value instanceof UriUnion) {
+					value = ((UriUnion) value).getValue();
+				}
+				if (value instanceof UriArray || value instanceof UriMap) {
+					((UriBound) value).setInstanceUri(
+							Uri.withAppendedPath(uri, field.name()));
+				}
+			}
+		}
+		return getInstanceUri();
+	}
+
+	/**
+	 * Waits for fields loading in parallel and stores them in this record.
+	 * The remaining loads are cancelled if one of them fails.
+	 * @param pending the pending values by field name
+	 * @throws NotBoundException if a field could not be loaded
+	 */
+	private void joinFields(final Map<String, Future<Object>> pending)
+			throws NotBoundException {
+		try {
+			for (Map.Entry<String, Future<Object>> entry
+					: pending.entrySet()) {
+				put(entry.getKey(), ParallelLoader.join(entry.getValue()));
+			}
+		} finally {
+			for (Future<Object> future : pending.values()) {
+				future.cancel(false);
+			}
+		}
+	}
+
+	/**
+	 * Returns true if a field was loaded into this record. The thumbnail
+	 * of a loaded photo counts as loaded since it is rebuilt from it.
+	 * @param field the field to check
+	 * @return true if the field should be saved
+	 */
+	private boolean isLoaded(final Field field) {
+		if (mMask.includes(field.name())) {
+			return true;
+		}
+		for (Field photo : getSchema().getFields()) {
+			if (field.name().equals(
+					photo.getProp(AvroSchemaProperties.UI_THUMBNAIL))
+					&& mMask.includes(photo.name())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Regenerates the thumbnails of photos which changed since they
+	 * were loaded or last saved.
+	 */
+	private void updateThumbnails() {
+		for (Field field : getSchema().getFields()) {
+			String thumbnail =
+					field.getProp(AvroSchemaProperties.UI_THUMBNAIL);
+			if (thumbnail != null && getSchema().getField(thumbnail) != null) {
+				Object photo = get(field.name());
+				if (!mThumbnailSources.containsKey(field.name())
+						|| mThumbnailSources.get(field.name()) != photo) {
+					LOG.debug("Building thumbnail for: {}", field.name());
+					put(thumbnail, UriDataManager.getThumbnail((byte[]) photo));
+					mThumbnailSources.put(field.name(), photo);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Remembers the photos the loaded thumbnails were made from.
+	 */
+	final void rememberThumbnails() {
+		mThumbnailSources.clear();
+		for (Field field : getSchema().getFields()) {
+			String thumbnail =
+					field.getProp(AvroSchemaProperties.UI_THUMBNAIL);
+			if (thumbnail != null && getSchema().getField(thumbnail) != null
+					&& (get(field.name()) == null
+					|| get(thumbnail) != null)) {
+				mThumbnailSources.put(field.name(), get(field.name()));
+			}
+		}
+	}
+
 	@Override
 	public final Uri getInstanceUri() throws NotBoundException {
 		return mUriBinder.getInstanceUri();
@@ -201,6 +443,7 @@ implements UriBound<UriRecord> {
 	public final UriRecord load(final ContentResolver resolver,
 			final String fieldName)
 			throws NotBoundException {
+		mMask = FieldMask.ALL;
 		return mUriBinder.load(resolver, fieldName);
 	}
 
@@ -251,9 +494,35 @@ implements UriBound<UriRecord> {
 	 */
 	public final UriRecord load(final ContentResolver resolver) throws
 	NotBoundException {
+		mMask = FieldMask.ALL;
 		return mUriBinder.load(resolver, null);
 	}
 
+	/**
+	 * Load the selected fields from the content provider. Fields outside
+	 * the mask are left as they are and are not written when the record
+	 * is saved, so a partially loaded record can be edited and saved.
+	 * Nested records, arrays and maps which are not selected are not
+	 * loaded at all.
+	 * @param resolver the resolver to load with
+	 * @param mask the fields to load
+	 * @return the record
+	 * @throws NotBoundException if this is not bound properly
+	 * @see FieldMask#parse(String)
+	 */
+	public final UriRecord load(final ContentResolver resolver,
+			final FieldMask mask) throws NotBoundException {
+		mMask = mask;
+		return mUriBinder.load(resolver, null);
+	}
+
+	/**
+	 * @return the fields which were loaded into this record
+	 */
+	public final FieldMask getMask() {
+		return mMask;
+	}
+
 	/**
 	 * Save to the given bundle.
 	 * @param outState the bundle to save to
@@ -0,0 +1,385 @@
+package interdroid.vdb.avro.model;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Field;
+import org.apache.avro.Schema.Type;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Parcel;
+
+/**
+ * A process wide cache of loaded records keyed by instance uri.
+ * Records are mutable so the cache keeps a snapshot of each loaded
+ * record graph and every caller gets a copy of its own built from the
+ * snapshot. Snapshots are evicted least recently used first once the
+ * cache holds more than its share of the heap, and are dropped as soon
+ * as anything in the graph changes.
+ * <p>
+ * Each snapshot watches the uri of its record and of every nested
+ * record in the graph. Nested records live in tables of their own,
+ * outside the uri of the record holding them, and pickers, other
+ * processes and sync write them directly. Changes we make ourselves
+ * are also dropped directly through {@link #invalidate(Uri)}, which
+ * matches every uri in the graph.
+ *
+ * @author nick &lt;palmer@cs.vu.nl&gt;
+ *
+ */
+public final class UriRecordCache {
+	/** Access to logger. */
+	private static final Logger LOG =
+			LoggerFactory.getLogger(UriRecordCache.class);
+
+	/**
+	 * Prevent construction.
+	 */
+	private UriRecordCache() {
+		// No construction
+	}
+
+	/** The part of the heap the cache may use. */
+	private static final int HEAP_FRACTION = 16;
+
+	/** The most bytes of snapshots the cache holds. */
+	private static final long MAX_BYTES =
+			Runtime.getRuntime().maxMemory() / HEAP_FRACTION;
+
+	/**
+	 * A cached snapshot of a record graph.
+	 * @author nick &lt;palmer@cs.vu.nl&gt;
+	 *
+	 */
+	private static final class Entry extends ContentObserver {
+		/** The uri of the record. */
+		private final Uri mUri;
+		/** The schema the record was loaded with. */
+		private final Schema mSchema;
+		/** The resolver the observer is registered with. */
+		private final ContentResolver mResolver;
+		/** The uris of all records in the graph. */
+		private final Set<Uri> mUris = new HashSet<Uri>();
+		/** The snapshot of the graph. */
+		private Bundle mSnapshot;
+		/** The size of the snapshot in bytes. */
+		private int mSize;
+		/** Set once anything in the graph changed. */
+		private boolean mStale;
+
+		/**
+		 * Construct an entry and start watching the record.
+		 * @param resolver the resolver to watch with
+		 * @param uri the uri of the record
+		 * @param schema the schema of the record
+		 */
+		private Entry(final ContentResolver resolver, final Uri uri,
+				final Schema schema) {
+			super(null);
+			mResolver = resolver;
+			mUri = uri;
+			mSchema = schema;
+			mUris.add(uri);
+			mResolver.registerContentObserver(uri, true, this);
+		}
+
+		/**
+		 * Adds a uri in the graph so changing or invalidating it drops
+		 * this entry.
+		 * @param uri the uri of a record in the graph
+		 */
+		private void cover(final Uri uri) {
+			if (!covers(uri)) {
+				mUris.add(uri);
+				mResolver.registerContentObserver(uri, true, this);
+			}
+		}
+
+		/**
+		 * @param uri the uri which changed
+		 * @return true if the uri is part of this graph
+		 */
+		private boolean covers(final Uri uri) {
+			String changed = uri.toString();
+			for (Uri watched : mUris) {
+				String prefix = watched.toString();
+				if (changed.equals(prefix)
+						|| changed.startsWith(prefix + "/")) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public void onChange(final boolean selfChange) {
+			LOG.debug("Record changed: {}", mUri);
+			synchronized (UriRecordCache.class) {
+				mStale = true;
+				if (sEntries.get(mUri) == this) {
+					remove(mUri);
+				} else {
+					mResolver.unregisterContentObserver(this);
+				}
+			}
+		}
+	}
+
+	/** The entries in least recently used order. */
+	private static final Map<Uri, Entry> sEntries =
+			new LinkedHashMap<Uri, Entry>(16, 0.75f, true);
+
+	/** The number of bytes held by the entries. */
+	private static long sBytes;
+
+	/**
+	 * Loads the record at the given uri. The record comes from the
+	 * cache if it holds the record and from the database otherwise.
+	 * The returned record belongs to the caller.
+	 * @param resolver the resolver to load with
+	 * @param uri the uri of the record
+	 * @param schema the schema of the record
+	 * @return the loaded record
+	 * @throws NotBoundException if the record can not be bound
+	 */
+	public static UriRecord load(final ContentResolver resolver,
+			final Uri uri, final Schema schema) throws NotBoundException {
+		Bundle snapshot = null;
+		synchronized (UriRecordCache.class) {
+			Entry entry = sEntries.get(uri);
+			if (entry != null && entry.mSchema.equals(schema)) {
+				snapshot = entry.mSnapshot;
+			}
+		}
+		if (snapshot != null) {
+			LOG.debug("Loading record from cache: {}", uri);
+			UriRecord record = new UriRecord(uri, schema).load(snapshot);
+			// The snapshot came straight from the database.
+			record.rememberThumbnails();
+			loadDeferred(resolver, record);
+			return record;
+		}
+
+		// Watch before loading so a change during the load is seen.
+		Entry entry = new Entry(resolver, uri, schema);
+		UriRecord record = new UriRecord(uri, schema).load(resolver);
+		collectUris(entry, record);
+		entry.mSnapshot = new Bundle();
+		record.save(entry.mSnapshot);
+		entry.mSize = sizeOf(entry.mSnapshot);
+		put(entry);
+		return record;
+	}
+
+	/**
+	 * Loads the record at the given uri into the cache unless it is
+	 * already there. Prefetching never evicts, so it stops once the
+	 * cache is half full. Children are loaded on the calling thread so
+	 * prefetches do not take the loading pool from the editors.
+	 * @param resolver the resolver to load with
+	 * @param uri the uri of the record
+	 * @param schema the schema of the record
+	 * @return false if the cache has no room for more prefetching
+	 * @throws NotBoundException if the record can not be bound
+	 */
+	public static boolean prefetch(final ContentResolver resolver,
+			final Uri uri, final Schema schema) throws NotBoundException {
+		synchronized (UriRecordCache.class) {
+			if (sBytes > MAX_BYTES / 2) {
+				return false;
+			}
+			if (sEntries.containsKey(uri)) {
+				return true;
+			}
+		}
+		LOG.debug("Prefetching: {}", uri);
+		ParallelLoader.setSequential(true);
+		try {
+			load(resolver, uri, schema);
+		} finally {
+			ParallelLoader.setSequential(false);
+		}
+		return true;
+	}
+
+	/**
+	 * Drops anything cached for the given uri. Called when we change the
+	 * database so our own writes are seen before the change notification
+	 * arrives.
+	 * @param uri the uri which changed
+	 */
+	public static synchronized void invalidate(final Uri uri) {
+		Iterator<Entry> entries = sEntries.values().iterator();
+		while (entries.hasNext()) {
+			Entry entry = entries.next();
+			if (entry.covers(uri)) {
+				LOG.debug("Invalidating: {}", entry.mUri);
+				entries.remove();
+				release(entry);
+			}
+		}
+	}
+
+	/**
+	 * Drops everything in the cache. Called when memory runs low.
+	 */
+	public static synchronized void trimMemory() {
+		LOG.debug("Trimming {} records.", sEntries.size());
+		for (Entry entry : sEntries.values()) {
+			release(entry);
+		}
+		sEntries.clear();
+	}
+
+	/**
+	 * Adds an entry and evicts the least recently used entries which
+	 * no longer fit.
+	 * @param entry the entry to add
+	 */
+	private static synchronized void put(final Entry entry) {
+		if (entry.mStale || entry.mSize > MAX_BYTES / 4) {
+			LOG.debug("Not caching: {}", entry.mUri);
+			entry.mResolver.unregisterContentObserver(entry);
+			return;
+		}
+		remove(entry.mUri);
+		sEntries.put(entry.mUri, entry);
+		sBytes += entry.mSize;
+
+		Iterator<Entry> entries = sEntries.values().iterator();
+		while (sBytes > MAX_BYTES && entries.hasNext()) {
+			Entry eldest = entries.next();
+			LOG.debug("Evicting: {}", eldest.mUri);
+			entries.remove();
+			release(eldest);
+		}
+	}
+
+	/**
+	 * Removes the entry for the given uri.
+	 * @param uri the uri to remove
+	 */
+	private static void remove(final Uri uri) {
+		Entry entry = sEntries.remove(uri);
+		if (entry != null) {
+			release(entry);
+		}
+	}
+
+	/**
+	 * Releases an entry which was removed from the cache.
+	 * @param entry the entry to release
+	 */
+	private static void release(final Entry entry) {
+		sBytes -= entry.mSize;
+		entry.mStale = true;
+		entry.mResolver.unregisterContentObserver(entry);
+	}
+
+	/**
+	 * Loads the paged arrays and keyed maps reachable from the given
+	 * value. A snapshot only holds the uri of these, so their rows are
+	 * counted again.
+	 * @param resolver the resolver to load with
+	 * @param value the value to walk
+	 * @throws NotBoundException if an array is not bound
+	 */
+	@SuppressWarnings("rawtypes")
+	private static void loadDeferred(final ContentResolver resolver,
+			final Object value) throws NotBoundException {
+		if (value instanceof UriRecord) {
+			UriRecord record = (UriRecord) value;
+			for (Field field : record.getSchema().getFields()) {
+				Object fieldValue = record.get(field.name());
+				if (fieldValue instanceof UriPagedArray) {
+					((UriPagedArray) fieldValue).load(resolver, field.name());
+				} else if (fieldValue instanceof UriKeyedMap) {
+					((UriKeyedMap) fieldValue).load(resolver, field.name());
+				} else {
+					loadDeferred(resolver, fieldValue);
+				}
+			}
+		} else if (value instanceof List
+				&& !(value instanceof UriPrimitiveArray)) {
+			for (Object item : (List) value) {
+				loadDeferred(resolver, item);
+			}
+		} else if (value instanceof Map && !(value instanceof UriKeyedMap)) {
+			for (Object item : ((Map) value).values()) {
+				loadDeferred(resolver, item);
+			}
+		} else if (value instanceof UriUnion) {
+			loadDeferred(resolver, ((UriUnion) value).getValue());
+		}
+	}
+
+	/**
+	 * Collects the uris of the records reachable from the given value.
+	 * Arrays and maps live below the uri of their record so the records
+	 * are all we need to cover.
+	 * @param entry the entry to collect for
+	 * @param value the value to walk
+	 * @throws NotBoundException if a record is not bound
+	 */
+	@SuppressWarnings("rawtypes")
+	private static void collectUris(final Entry entry, final Object value)
+			throws NotBoundException {
+		if (value instanceof UriRecord) {
+			UriRecord record = (UriRecord) value;
+			entry.cover(record.getInstanceUri());
+			for (Field field : record.getSchema().getFields()) {
+				collectUris(entry, record.get(field.name()));
+			}
+		} else if (value instanceof UriPagedArray) {
+			// The records in the array live in their own table.
+			UriPagedArray array = (UriPagedArray) value;
+			if (array.getSchema().getElementType().getType() == Type.RECORD) {
+				entry.cover(UriDataManager.getRecordUri(
+						array.getInstanceUri(),
+						array.getSchema().getElementType()));
+			}
+		} else if (value instanceof UriKeyedMap) {
+			// The records in the map live in their own table.
+			UriKeyedMap map = (UriKeyedMap) value;
+			if (map.getSchema().getValueType().getType() == Type.RECORD) {
+				entry.cover(UriDataManager.getRecordUri(
+						map.getInstanceUri(), map.getSchema().getValueType()));
+			}
+		} else if (value instanceof List
+				&& !(value instanceof UriPrimitiveArray)) {
+			for (Object item : (List) value) {
+				collectUris(entry, item);
+			}
+		} else if (value instanceof Map) {
+			for (Object item : ((Map) value).values()) {
+				collectUris(entry, item);
+			}
+		} else if (value instanceof UriUnion) {
+			collectUris(entry, ((UriUnion) value).getValue());
+		}
+	}
+
+	/**
+	 * @param snapshot the snapshot to measure
+	 * @return the size of the snapshot in bytes
+	 */
+	private static int sizeOf(final Bundle snapshot) {
+		Parcel parcel = Parcel.obtain();
+		try {
+			parcel.writeBundle(snapshot);
+			return parcel.dataSize();
+		} finally {
+			parcel.recycle();
+		}
+	}
+}
@@ -28,12 +28,10 @@ public class UriUnion {
 
 	/** The current value for the union. */
 	private Object mValue;
-	/** The schema for the union. */
-	private final Schema mSchema;
-	/** The current type being held. */
-	private Type mType;
-	/** The name of the type if the type is a named type. */
-	private String mName;
+	/** The branches of the union. */
+	private final UnionBranches mBranches;
+	/** The index of the branch being held or -1 if none is. */
+	private int mBranch = -1;
 
 	/**
 	 * Construct a new union.
@@ -46,7 +44,7 @@ public class UriUnion {
 			LOG.error("Wrong type for union.");
 			throw new IllegalArgumentException("Not a union.");
 		}
-		mSchema = fieldSchema;
+		mBranches = UnionBranches.get(fieldSchema);
 	}
 
 	/**
@@ -64,44 +62,35 @@ public class UriUnion {
 	 */
 	public final void setValue(final Object value, final Schema schema) {
 		LOG.debug("Union Value set to: {} {}", value, schema);
+		mBranch = mBranches.indexOf(schema);
 		mValue = value;
-		mType = schema.getType();
-		mName = schema.getFullName();
 	}
 
 	/**
 	 * @return the type the union currently holds
 	 */
 	public final Type getType() {
-		return mType;
+		if (mBranch < 0) {
+			return null;
+		}
+		return mBranches.getType(mBranch);
 	}
 
 	/**
 	 * @return the name for the type the union curently holds or null
 	 */
 	public final String getTypeName() {
-		return mName;
+		if (mBranch < 0) {
+			return null;
+		}
+		return mBranches.getStoredName(mBranch);
 	}
 
 	/**
 	 * @return the schema for the value the union currently holds
 	 */
 	public final Schema getValueSchema() {
-		Schema ret = null; // NOPMD by nick
-		for (Schema type : mSchema.getTypes()) {
-			if (type.getType() == mType) {
-				if (UriBoundAdapter.isNamedType(mType)) {
-					if (type.getName().equals(mName)) {
-						ret = type;
-						break;
-					}
-				} else {
-					ret = type;
-					break;
-				}
-			}
-		}
-		return ret;
+		return getTypeSchema();
 	}
 
 	/**
@@ -115,18 +104,22 @@ public class UriUnion {
 	public final void save(final ContentResolver resolver, final Uri rootUri,
 			final ContentValues values, final String fieldName)
 					throws NotBoundException {
-		if (mType == null) {
+		// The provider stores the branch by type and type name.
+		if (mBranch < 0) {
 			values.putNull(NameHelper.getTypeName(fieldName));
+			values.putNull(NameHelper.getTypeNameName(fieldName));
 		} else {
-			values.put(NameHelper.getTypeName(fieldName), mType.toString());
+			values.put(NameHelper.getTypeName(fieldName),
+					mBranches.getStoredType(mBranch));
+			values.put(NameHelper.getTypeNameName(fieldName),
+					mBranches.getStoredName(mBranch));
 		}
-		values.put(NameHelper.getTypeNameName(fieldName), mName);
 		if (mValue == null) {
 			values.put(fieldName, -1);
 		} else {
 			UriDataManager.storeDataToUri(resolver, rootUri, values,
 					fieldName, getTypeSchema(), mValue);
-			if (UriBoundAdapter.isBoundType(mType)) {
+			if (UriBoundAdapter.isBoundType(getType())) {
 				values.put(fieldName, getInstanceId((UriBound<?>) mValue));
 			}
 		}
@@ -163,6 +156,23 @@ public class UriUnion {
 	public final UriUnion load(final ContentResolver resolver,
 			final Uri rootUri, final Cursor cursor, final String fieldName)
 					throws NotBoundException {
+		return load(resolver, rootUri, cursor, fieldName, FieldMask.ALL);
+	}
+
+	/**
+	 * Loads the data from the union from the content provider, loading
+	 * only the selected fields of a record in it.
+	 * @param resolver the resolver to use
+	 * @param rootUri the root uri for the data being loaded
+	 * @param cursor the cursor to load from
+	 * @param fieldName the name of the field being loaded
+	 * @param mask the fields to load from a record in the union
+	 * @return the loaded union
+	 * @throws NotBoundException if the data is not properly bound
+	 */
+	public final UriUnion load(final ContentResolver resolver,
+			final Uri rootUri, final Cursor cursor, final String fieldName,
+			final FieldMask mask) throws NotBoundException {
 		final String name = NameHelper.getTypeName(fieldName);
 		LOG.debug("Looking for column: {}", name);
 		final int index = cursor.getColumnIndex(name);
@@ -171,11 +181,11 @@ public class UriUnion {
 			final String typeName = cursor.getString(index);
 
 			if (typeName != null) {
-				mType = Type.valueOf(typeName);
-				mName = cursor.getString(cursor.getColumnIndex(
-						NameHelper.getTypeNameName(fieldName)));
+				mBranch = mBranches.resolve(typeName,
+						cursor.getString(cursor.getColumnIndex(
+								NameHelper.getTypeNameName(fieldName))));
 				mValue = UriDataManager.loadDataFromUri(resolver, rootUri,
-						cursor, fieldName, getTypeSchema());
+						cursor, fieldName, getTypeSchema(), mask);
 			}
 		} else {
 			LOG.debug("Cursor doesn't have field: {} {}",
@@ -194,16 +204,11 @@ public class UriUnion {
 	 */
 	public final void save(final Bundle outState, final String fieldFullName)
 			throws NotBoundException {
-		if (mType == null) {
-			outState.putString(NameHelper.getTypeName(fieldFullName), null);
-		} else {
-			outState.putString(NameHelper.getTypeName(fieldFullName),
-					mType.toString());
-		}
-		outState.putString(NameHelper.getTypeNameName(fieldFullName), mName);
+		// The branch index is all we need to find the branch again.
+		outState.putInt(NameHelper.getTypeName(fieldFullName), mBranch);
 		BundleDataManager.storeDataToBundle(outState, fieldFullName,
 				getTypeSchema(), mValue);
-		if (mValue != null && UriBoundAdapter.isBoundType(mType)) {
+		if (mValue != null && UriBoundAdapter.isBoundType(getType())) {
 			outState.putParcelable(fieldFullName,
 					((UriBound<?>) mValue).getInstanceUri());
 		}
@@ -231,13 +236,27 @@ public class UriUnion {
 	 */
 	public final UriUnion load(final Bundle saved, final String fieldName)
 			throws NotBoundException {
-		mType = Type.valueOf(saved.getString(
-				NameHelper.getTypeName(fieldName)));
-		mName = saved.getString(NameHelper.getTypeNameName(fieldName));
+		final String typeKey = NameHelper.getTypeName(fieldName);
+		final Object stored = saved.get(typeKey);
+		if (stored instanceof String) {
+			// Saved by an older version by type and type name.
+			mBranch = mBranches.resolve((String) stored, saved.getString(
+					NameHelper.getTypeNameName(fieldName)));
+		} else {
+			mBranch = saved.getInt(typeKey, -1);
+			if (mBranch >= mBranches.size()) {
+				throw new IllegalStateException("Unable to find union branch: "
+						+ mBranch);
+			}
+		}
 
 		final Schema fieldType = getTypeSchema();
-		setValue(BundleDataManager.loadDataFromBundle(saved,
-				fieldName, fieldType), fieldType);
+		if (fieldType == null) {
+			mValue = null;
+		} else {
+			mValue = BundleDataManager.loadDataFromBundle(saved,
+					fieldName, fieldType);
+		}
 		return this;
 	}
 
@@ -245,25 +264,10 @@ public class UriUnion {
 	 * @return the schema for the held type
 	 */
 	private Schema getTypeSchema() {
-		Schema fieldType = null; // NOPMD by nick
-		if (mType != null) {
-			for (Schema unionType : mSchema.getTypes()) {
-				if (unionType.getType().equals(mType)
-						&& (!UriBoundAdapter.isNamedType(mType)
-								|| (mName.equals(unionType.getFullName())
-										|| mName.equals(unionType.getName()))
-								)) {
-					fieldType = unionType;
-					break;
-				}
-			}
-			if (fieldType == null) {
-				throw new
-				IllegalStateException("Unable to find union inner type: "
-						+ mType + " : " + mName);
-			}
+		if (mBranch < 0) {
+			return null;
 		}
-		return fieldType;
+		return mBranches.getSchema(mBranch);
 	}
 
 	/**
@@ -4,8 +4,8 @@ import interdroid.util.view.AsyncTaskWithProgressDialog;
 import interdroid.vdb.avro.R;
 import interdroid.vdb.avro.control.AvroController;
 import interdroid.vdb.avro.model.NotBoundException;
+import interdroid.vdb.avro.model.UriRecordCache;
 import interdroid.vdb.avro.view.factory.AvroViewFactory;
-import interdroid.vdb.content.avro.AvroProviderRegistry;
 
 import org.apache.avro.Schema;
 import org.slf4j.Logger;
@@ -41,6 +41,8 @@ public class AvroBaseEditor extends Activity {
 
 	/** The schema bundle parameter. */
 	public static final String SCHEMA = "schema";
+	/** The schema fingerprint bundle parameter. */
+	public static final String SCHEMA_FINGERPRINT = "schema_fingerprint";
 	/** The entity bundle parameter. */
 	public static final String ENTITY = "entity";
 
@@ -50,6 +52,12 @@ public class AvroBaseEditor extends Activity {
 	/** The controller we use to manage the model. */
 	private AvroController mController;
 
+	/** True between onResume and onPause. */
+	private boolean mResumed;
+
+	/** True once finish stored the record for the result. */
+	private boolean mStoredForResult;
+
 	/** Empty constructor for the editor. */
 	public AvroBaseEditor() {
 		LOG.debug("Constructed AvroBaseEditor: " + this);
@@ -112,16 +120,10 @@ public class AvroBaseEditor extends Activity {
 			if (defaultUri == null) {
 				throw new IllegalArgumentException("A Uri is required.");
 			}
-			String schemaJson = intent.getStringExtra(SCHEMA);
-			Schema schema = null;
-			if (schemaJson == null) {
-				schema = AvroProviderRegistry.getSchema(this, defaultUri);
-				if (schema == null) {
-					throw new IllegalArgumentException(
-							"Schema not found and not provided in the intent.");
-				}
-			} else {
-				schema = Schema.parse(schemaJson);
+			Schema schema = AvroIntentUtil.getSchema(this, intent);
+			if (schema == null) {
+				throw new IllegalArgumentException(
+						"Schema not found and not provided in the intent.");
 			}
 			LOG.debug("Building controller for: {} : {}", schema.getName(),
 					defaultUri);
@@ -142,6 +144,9 @@ public class AvroBaseEditor extends Activity {
 			LOG.debug("No edit URI built.");
 			finish();
 			return;
+		} else if (mController.getState() == AvroController.STATE_INSERT) {
+			// A new record has no uri to return until it is stored.
+			setResult(RESULT_CANCELED);
 		} else {
 			// Everything was setup properly so assume the result will work.
 			LOG.debug("Setting result ok: {}", editUri);
@@ -183,6 +188,11 @@ public class AvroBaseEditor extends Activity {
 			}
 
 			super.onPostExecute(v);
+
+			// Follow changes made by others until we are paused.
+			if (mResumed) {
+				mController.startObserving();
+			}
 		}
 
 		@Override
@@ -203,6 +213,10 @@ public class AvroBaseEditor extends Activity {
 
 		LOG.debug("onPause");
 
+		mResumed = false;
+		if (mStoredForResult) {
+			return;
+		}
 		try {
 			mController.handleSave();
 		} catch (NotBoundException e) {
@@ -217,6 +231,7 @@ public class AvroBaseEditor extends Activity {
 		super.onResume();
 
 		LOG.debug("onResume");
+		mResumed = true;
 
 		// Are we come backing from a for result task?
 		LOG.debug("Loading Data");
@@ -226,6 +241,29 @@ public class AvroBaseEditor extends Activity {
 		LOG.debug("Ready");
 	}
 
+	@Override
+	public final void finish() {
+		// The result of an insert is the uri the record was stored at,
+		// so the record has to be stored before the result is sent.
+		if (mController != null
+				&& mController.getState() == AvroController.STATE_INSERT) {
+			try {
+				mController.handleSave();
+				mStoredForResult = true;
+			} catch (NotBoundException e) {
+				LOG.error("Unable to store new record.", e);
+			}
+			Uri uri = mController.getStoredUri();
+			if (uri == null) {
+				setResult(RESULT_CANCELED);
+			} else {
+				LOG.debug("Setting result ok: {}", uri);
+				setResult(RESULT_OK, new Intent().setData(uri));
+			}
+		}
+		super.finish();
+	}
+
 	@Override
 	protected final void onSaveInstanceState(final Bundle outState) {
 		super.onSaveInstanceState(outState);
@@ -249,6 +287,13 @@ public class AvroBaseEditor extends Activity {
 		LOG.debug("onDestroy");
 	}
 
+	@Override
+	public final void onLowMemory() {
+		super.onLowMemory();
+		LOG.debug("onLowMemory");
+		UriRecordCache.trimMemory();
+	}
+
 	@Override
 	public final boolean onCreateOptionsMenu(final Menu menu) {
 		super.onCreateOptionsMenu(menu);
@@ -18,11 +18,15 @@ package interdroid.vdb.avro.view;
 
 import interdroid.util.view.AsyncTaskWithProgressDialog;
 import interdroid.vdb.Actions;
+import interdroid.vdb.avro.AvroCascadeDelete;
+import interdroid.vdb.avro.AvroOrphanCollector;
 import interdroid.vdb.avro.R;
+import interdroid.vdb.avro.model.UriRecordCache;
 import interdroid.vdb.avro.view.factory.AvroViewFactory;
 import interdroid.vdb.content.EntityUriMatcher;
 import interdroid.vdb.content.EntityUriMatcher.UriMatch;
-import interdroid.vdb.content.avro.AvroProviderRegistry;
+
+import java.io.IOException;
 
 import org.apache.avro.Schema;
 import org.slf4j.Logger;
@@ -40,8 +44,8 @@ import android.view.ContextMenu.ContextMenuInfo;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.view.inputmethod.InputMethodManager;
 import android.widget.AdapterView;
-import android.widget.CursorAdapter;
 import android.widget.ListView;
 import android.widget.Toast;
 
@@ -63,6 +67,8 @@ public class AvroBaseList extends ListActivity {
 	public static final int MENU_ITEM_COMMIT = MENU_ITEM_INSERT + 1;
 	/** Item edit menu. */
 	public static final int MENU_ITEM_EDIT = MENU_ITEM_COMMIT + 1;
+	/** Item search menu. */
+	public static final int MENU_ITEM_SEARCH = MENU_ITEM_EDIT + 1;
 
 	/** The branch uri we are listing. */
 	private Uri mBranchUri;
@@ -70,6 +76,20 @@ public class AvroBaseList extends ListActivity {
 	private boolean mReadOnly = true;
 	/** The schema for the records we are listing. */
 	private Schema mSchema;
+	/** The adapter for the list. */
+	private AvroListAdapter mAdapter;
+	/** The loader which keeps the list cursor up to date. */
+	private AvroListLoader mLoader;
+
+	/**
+	 * Set once the activity is destroyed. A configuration change destroys
+	 * the activity without it finishing.
+	 */
+	private boolean mDestroyed;
+	/** Can the list be searched? */
+	private boolean mSearchable;
+	/** Preloads records the user is likely to open. */
+	private AvroListPrefetcher mPrefetcher;
 
 	/** Construct a list activity. */
 	public AvroBaseList() {
@@ -134,17 +154,11 @@ public class AvroBaseList extends ListActivity {
 			if (defaultUri == null) {
 				throw new IllegalArgumentException("A Uri is required.");
 			}
-			String schemaJson = intent.getStringExtra(AvroBaseEditor.SCHEMA);
-			Schema schema = null;
-			if (schemaJson == null) {
-				LOG.debug("Checking for schema for: {}", defaultUri);
-				schema = AvroProviderRegistry.getSchema(this, defaultUri);
-				if (schema == null) {
-					throw new IllegalArgumentException(
-							"Schema not found and not provided in the intent.");
-				}
-			} else {
-				schema = Schema.parse(schemaJson);
+			LOG.debug("Checking for schema for: {}", defaultUri);
+			Schema schema = AvroIntentUtil.getSchema(this, intent);
+			if (schema == null) {
+				throw new IllegalArgumentException(
+						"Schema not found and not provided in the intent.");
 			}
 
 			LOG.debug("Setting up: {} {}", defaultUri, schema);
@@ -181,16 +195,80 @@ public class AvroBaseList extends ListActivity {
 
 		setTitle(AvroViewFactory.toTitle(mSchema));
 
+		mAdapter = new AvroListAdapter(this, mSchema);
+		setListAdapter(mAdapter);
+		mLoader = new AvroListLoader(getContentResolver(),
+				getIntent().getData(),
+				AvroListAdapter.getProjection(mSchema), null, null,
+				AvroListAdapter.getSortOrder(mSchema),
+				new AvroListLoader.Callback() {
+					@Override
+					public void onLoadFinished(final Cursor cursor) {
+						mAdapter.changeCursor(cursor);
+					}
+				});
+		mLoader.attachSummaries(this, mSchema);
+		mPrefetcher = new AvroListPrefetcher(getContentResolver(),
+				getIntent().getData(), mSchema, getListView());
+
+		// Typing in the list narrows it down on the searchable fields.
+		String[] searchColumns = AvroListAdapter.getSearchColumns(mSchema);
+		mSearchable = searchColumns.length > 0;
+		if (mSearchable) {
+			mAdapter.setFilterQueryProvider(
+					new AvroListFilter(mLoader, searchColumns));
+			getListView().setTextFilterEnabled(true);
+		}
+
 		new InitTask().execute(getIntent());
 	}
 
+	@Override
+	protected final void onResume() {
+		super.onResume();
+		if (mPrefetcher != null) {
+			mPrefetcher.start();
+		}
+		if (!mReadOnly && mBranchUri != null) {
+			// Clean up behind old saves once the list has settled.
+			AvroOrphanCollector.collectWhenIdle(this, getIntent().getData());
+		}
+	}
+
+	@Override
+	protected final void onPause() {
+		super.onPause();
+		if (mPrefetcher != null) {
+			mPrefetcher.stop();
+		}
+	}
+
+	@Override
+	protected final void onDestroy() {
+		super.onDestroy();
+		mDestroyed = true;
+		if (mLoader != null) {
+			mLoader.stopLoading();
+		}
+		if (mAdapter != null) {
+			// Closes the cursor
+			mAdapter.changeCursor(null);
+		}
+	}
+
+	@Override
+	public final void onLowMemory() {
+		super.onLowMemory();
+		UriRecordCache.trimMemory();
+	}
+
 	/**
 	 * Initialization task which loads the list.
 	 * @author nick &lt;palmer@cs.vu.nl&gt;
 	 *
 	 */
 	private class InitTask
-		extends AsyncTaskWithProgressDialog<Object, Void, Void> {
+		extends AsyncTaskWithProgressDialog<Object, Void, Cursor> {
 
 		/**
 		 * Construct the dialog.
@@ -201,18 +279,23 @@ public class AvroBaseList extends ListActivity {
 		}
 
 		@Override
-		protected Void doInBackground(final Object... params) {
-
-			AvroBaseList.this.runOnUiThread(new Runnable() { @Override
-			public void run() {
-				final CursorAdapter adapter =
-						new AvroListAdapter(AvroBaseList.this,
-								mSchema, getIntent().getData());
-				setListAdapter(adapter);
-			}
+		protected Cursor doInBackground(final Object... params) {
+			return mLoader.loadInBackground();
+		}
+
+		@Override
+		protected void onPostExecute(final Cursor cursor) {
+			if (isFinishing() || mDestroyed) {
+				if (cursor != null) {
+					cursor.close();
+				}
+			} else {
+				mAdapter.changeCursor(cursor);
+				// From now on changes to the data requery in the background.
+				mLoader.startLoading();
+				mPrefetcher.prefetch();
 			}
-					);
-			return null;
+			super.onPostExecute(cursor);
 		}
 
 	}
@@ -230,6 +313,11 @@ public class AvroBaseList extends ListActivity {
 			.setShortcut('9', 'c')
 			.setIcon(android.R.drawable.ic_menu_save);
 		}
+		if (mSearchable) {
+			menu.add(0, MENU_ITEM_SEARCH, 0, "Search")
+			.setShortcut('2', 's')
+			.setIcon(android.R.drawable.ic_menu_search);
+		}
 		// Generate any additional actions that can be performed on the
 		// overall list.  In a normal install, there are no additional
 		// actions found here, but this allows other applications to extend
@@ -295,6 +383,12 @@ public class AvroBaseList extends ListActivity {
 		case MENU_ITEM_COMMIT:
 			startActivity(new Intent(Actions.ACTION_COMMIT, mBranchUri));
 			return true;
+		case MENU_ITEM_SEARCH:
+			// Typing goes to the list's text filter.
+			getListView().requestFocus();
+			((InputMethodManager) getSystemService(INPUT_METHOD_SERVICE))
+			.showSoftInput(getListView(), InputMethodManager.SHOW_FORCED);
+			return true;
 		default:
 			return super.onOptionsItemSelected(item);
 		}
@@ -371,7 +465,15 @@ public class AvroBaseList extends ListActivity {
 		// Delete the note that the context menu is for
 		Uri noteUri = ContentUris.withAppendedId(
 				getIntent().getData(), info.id);
-		getContentResolver().delete(noteUri, null, null);
+		try {
+			AvroCascadeDelete.delete(this, noteUri, mSchema);
+		} catch (IOException e) {
+			LOG.error("Unable to delete: " + noteUri, e);
+			Toast.makeText(this, "Unable to delete.", Toast.LENGTH_LONG).show();
+			return;
+		}
+		UriRecordCache.invalidate(noteUri);
+		AvroListSummary.delete(this, noteUri);
 	}
 
 	/**
@@ -382,6 +484,7 @@ public class AvroBaseList extends ListActivity {
 			final AdapterView.AdapterContextMenuInfo info) {
 		Uri noteUri =
 				ContentUris.withAppendedId(getIntent().getData(), info.id);
+		AvroListPrefetcher.opened(noteUri);
 		Intent i = new Intent(Intent.ACTION_EDIT, noteUri);
 		i.setClassName(this, AvroBaseEditor.class.getName());
 		startActivity(i);
@@ -405,6 +508,7 @@ public class AvroBaseList extends ListActivity {
 			LOG.debug("Launching edit for: {}",
 					getContentResolver().getType(uri));
 			// TODO: We should try to find a custom one here as well.
+			AvroListPrefetcher.opened(uri);
 			Intent editIntent = new Intent(Intent.ACTION_EDIT, uri);
 			editIntent.setClassName(this, AvroBaseEditor.class.getName());
 			startActivity(editIntent);
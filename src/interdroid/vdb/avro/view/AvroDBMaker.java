@@ -4,6 +4,9 @@ import interdroid.util.ToastOnUI;
 import interdroid.util.view.AsyncTaskWithProgressDialog;
 import interdroid.vdb.Authority;
 import interdroid.vdb.avro.AvroSchema;
+import interdroid.vdb.avro.AvroSchemaCache;
+import interdroid.vdb.avro.AvroSchemaIndexes;
+import interdroid.vdb.avro.AvroSchemaProperties;
 import interdroid.vdb.avro.R;
 import interdroid.vdb.avro.model.NotBoundException;
 import interdroid.vdb.avro.model.UriRecord;
@@ -13,7 +16,9 @@ import interdroid.vdb.content.avro.AvroSchemaRegistrationHandler;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.avro.Schema;
 import org.apache.avro.Schema.Field;
@@ -66,6 +71,8 @@ public class AvroDBMaker extends Activity {
 		public String label;
 		/** Should this be shown in the list view. */
 		public boolean inList;
+		/** Should this be indexed. */
+		public boolean indexed;
 		// CHECKSTYLE:ON
 	}
 
@@ -91,6 +98,12 @@ public class AvroDBMaker extends Activity {
 
 		@Override
 		protected Uri doInBackground(final Void... params) {
+			try {
+				AvroSchemaIndexes.upgradeSchemaRepository(AvroDBMaker.this);
+			} catch (IOException e) {
+				LOG.error("Error upgrading schema repository.", e);
+				return null;
+			}
 			Schema schema = getSchema();
 			// Now we need to create the database
 			Uri uri = null;
@@ -183,7 +196,7 @@ public class AvroDBMaker extends Activity {
 				return null;
 			} else {
 				try {
-					schema = Schema.parse(schemaJson);
+					schema = AvroSchemaCache.parse(schemaJson);
 				} catch (Exception e) {
 					ToastOnUI.show(AvroDBMaker.this,
 							R.string.error_parsing_schema, Toast.LENGTH_LONG);
@@ -250,9 +263,18 @@ public class AvroDBMaker extends Activity {
 		List<UriRecord> fields = (List<UriRecord>) record.get("fields");
 		List<Schema.Field> schemaFields = new ArrayList<Schema.Field>();
 		if (fields != null) {
+			List<Schema.Field> converted = new ArrayList<Schema.Field>();
+			Set<String> names = new HashSet<String>();
 			for (UriRecord field : fields) {
 				Schema.Field f = convertToSchemaField(field);
+				converted.add(f);
+				names.add(f.name());
+			}
+			for (Schema.Field f : converted) {
 				schemaFields.add(f);
+				if (isPhoto(f.schema())) {
+					schemaFields.add(buildThumbnailField(f, names));
+				}
 			}
 			schema.setFields(schemaFields);
 		} else {
@@ -260,6 +282,7 @@ public class AvroDBMaker extends Activity {
 					+ " " + typeInfo.name, Toast.LENGTH_LONG);
 			throw new InvalidSchemaException();
 		}
+		addIndexes(record, schema);
 
 		// Now we need to make sure that what we built is really valid.
 		// I.E. No Namespace problems...
@@ -269,6 +292,64 @@ public class AvroDBMaker extends Activity {
 		return schema;
 	}
 
+	/**
+	 * @param schema the schema to check
+	 * @return true if the schema holds a photo
+	 */
+	private boolean isPhoto(final Schema schema) {
+		return schema.getType() == Type.BYTES
+				&& "photo".equals(schema.getProp("ui.widget"));
+	}
+
+	/**
+	 * Builds the hidden field which holds a thumbnail of a photo field
+	 * so that lists never need to load the full photo. The field is named
+	 * after the photo and numbered if that name is already taken.
+	 * @param photo the photo field
+	 * @param names the names taken in the record, which the name of the
+	 * thumbnail field is added to
+	 * @return the thumbnail field
+	 */
+	private Schema.Field buildThumbnailField(final Schema.Field photo,
+			final Set<String> names) {
+		String name = photo.name() + "_thumbnail";
+		for (int i = 2; names.contains(name); i++) {
+			name = photo.name() + "_thumbnail" + i;
+		}
+		names.add(name);
+		photo.addProp(AvroSchemaProperties.UI_THUMBNAIL, name);
+		Schema schema = Schema.create(Type.BYTES);
+		schema.addProp(AvroSchemaProperties.UI_VISIBLE, "false");
+		Schema.Field f = new Schema.Field(name, schema, null, null);
+		f.addProp(AvroSchemaProperties.UI_VISIBLE, "false");
+		return f;
+	}
+
+	/**
+	 * Adds the combined indexes of a record to the schema.
+	 * @param record the record to get the indexes from
+	 * @param schema the schema to add them to
+	 */
+	@SuppressWarnings("unchecked")
+	private void addIndexes(final UriRecord record, final Schema schema) {
+		List<String> indexes = (List<String>) record.get("indexes");
+		if (indexes != null && indexes.size() > 0) {
+			StringBuilder value = new StringBuilder();
+			for (String index : indexes) {
+				if (!TextUtils.isEmpty(index)) {
+					if (value.length() > 0) {
+						value.append(';');
+					}
+					value.append(index.replace(" ", ""));
+				}
+			}
+			if (value.length() > 0) {
+				schema.addProp(AvroSchemaProperties.UI_INDEX,
+						value.toString());
+			}
+		}
+	}
+
 	/**
 	 * @param record the record to getinfo on
 	 * @return a NamedType with data on the record
@@ -278,6 +359,7 @@ public class AvroDBMaker extends Activity {
 			throws InvalidSchemaException {
 		NamedType typeInfo = getNamedTypeInfo(record, false);
 		typeInfo.inList = (Boolean) record.get("list");
+		typeInfo.indexed = Boolean.TRUE.equals(record.get("index"));
 		return typeInfo;
 	}
 
@@ -408,6 +490,9 @@ public class AvroDBMaker extends Activity {
 		if (typeInfo.inList) {
 			f.addProp("ui.list", "true");
 		}
+		if (typeInfo.indexed) {
+			f.addProp(AvroSchemaProperties.UI_INDEX, "true");
+		}
 		return f;
 	}
 
@@ -675,6 +760,8 @@ public class AvroDBMaker extends Activity {
 			// Register the schema with the provider registry.
 			LOG.debug("Initializing database: {}", schema);
 			AvroSchemaRegistrationHandler.registerSchema(this, schema);
+			AvroSchemaCache.invalidate(schema.getNamespace());
+			AvroSchemaIndexes.createIndexes(this, schema);
 
 			// Give back a URI for this database
 			Uri uri = EntityUriBuilder.branchUri(Authority.VDB,
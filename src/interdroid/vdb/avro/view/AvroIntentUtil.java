@@ -1,7 +1,13 @@
 package interdroid.vdb.avro.view;
 
+import interdroid.vdb.avro.AvroSchemaCache;
+
+import org.apache.avro.Schema;
+
 import android.app.Activity;
+import android.content.Context;
 import android.content.Intent;
+import android.net.Uri;
 
 /**
  * Some utilities for dealing with intents with the avro components.
@@ -41,4 +47,45 @@ public final class AvroIntentUtil {
 			activity.startActivity(editIntent);
 	}
 
+	/**
+	 * Stashes the fingerprint of the given schema in the intent.
+	 * The schema itself is kept in the {@link AvroSchemaCache}.
+	 * @param intent the intent to put the schema in
+	 * @param schema the schema for the intent
+	 */
+	public static void putSchema(final Intent intent, final Schema schema) {
+		intent.putExtra(AvroBaseEditor.SCHEMA_FINGERPRINT,
+				AvroSchemaCache.fingerprint(schema));
+	}
+
+	/**
+	 * Returns the schema for the given intent. The schema is looked
+	 * up by the fingerprint in the intent, then by the schema json in
+	 * the intent and finally from the registry for the intent data.
+	 * @param context the context to look up the schema in
+	 * @param intent the intent to get the schema for
+	 * @return the schema or null if it could not be found
+	 */
+	public static Schema getSchema(final Context context,
+			final Intent intent) {
+		Schema schema = null;
+		if (intent.hasExtra(AvroBaseEditor.SCHEMA_FINGERPRINT)) {
+			schema = AvroSchemaCache.get(intent.getLongExtra(
+					AvroBaseEditor.SCHEMA_FINGERPRINT, 0));
+		}
+		if (schema == null) {
+			String schemaJson = intent.getStringExtra(AvroBaseEditor.SCHEMA);
+			if (schemaJson != null) {
+				schema = AvroSchemaCache.parse(schemaJson);
+			}
+		}
+		if (schema == null) {
+			Uri uri = intent.getData();
+			if (uri != null) {
+				schema = AvroSchemaCache.getSchema(context, uri);
+			}
+		}
+		return schema;
+	}
+
 }
@@ -1,5 +1,7 @@
 package interdroid.vdb.avro.view;
 
+import interdroid.vdb.avro.AvroSchemaCache;
+import interdroid.vdb.avro.AvroSchemaProperties;
 import interdroid.vdb.avro.R;
 import interdroid.vdb.avro.view.factory.AvroViewFactory;
 
@@ -15,10 +17,11 @@ import org.slf4j.LoggerFactory;
 
 import android.content.Context;
 import android.database.Cursor;
-import android.net.Uri;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.CursorAdapter;
+import android.widget.Filter;
+import android.widget.FilterQueryProvider;
 import android.widget.LinearLayout;
 import android.widget.TableLayout;
 
@@ -44,6 +47,11 @@ public class AvroListAdapter extends CursorAdapter {
 	 */
 	private Field[] mTitleFields;
 
+	/**
+	 * The fields shown in the list.
+	 */
+	private Field[] mListFields;
+
 	/**
 	 * The string to use to mean "This".
 	 */
@@ -55,20 +63,86 @@ public class AvroListAdapter extends CursorAdapter {
 	private static final Field sIdField =
 			new Field("_id", Schema.create(Type.INT), null, null);
 
+	/** The name of the memoized projection. */
+	private static final String PROJECTION_ARTIFACT = "list.projection";
+	/** The name of the memoized sort order. */
+	private static final String SORT_ORDER_ARTIFACT = "list.sort_order";
+	/** The name of the memoized title fields. */
+	private static final String TITLE_FIELDS_ARTIFACT = "list.title_fields";
+	/** The name of the memoized list fields. */
+	private static final String LIST_FIELDS_ARTIFACT = "list.fields";
+	/** The name of the memoized search columns. */
+	private static final String SEARCH_COLUMNS_ARTIFACT = "list.search";
 
 	/**
 	 * Build a list adapter to work for the given AvroBaseList.
+	 * The adapter starts without a cursor. Cursors are loaded in the
+	 * background and handed over with changeCursor.
 	 *
 	 * @param context the base list this will work for
 	 * @param schema the schema for the data being listed
-	 * @param uri the uri for the data to show
 	 */
-	public AvroListAdapter(final AvroBaseList context, final Schema schema,
-			final Uri uri) {
-		super(context, getCursor(context, schema, uri));
+	public AvroListAdapter(final AvroBaseList context, final Schema schema) {
+		super(context, null, false);
 		mThis = context.getString(R.string.title_this) + " " + schema.getName();
 		mSchema = schema;
 		mTitleFields = getTitleFields(schema);
+		mListFields = getListFields(schema);
+	}
+
+	/**
+	 * Returns the fields shown in the list for a given schema.
+	 * @param schema the schema to get the list fields from
+	 * @return the list fields or the _id field if there are none
+	 */
+	private static Field[] getListFields(final Schema schema) {
+		Field[] fields =
+				AvroSchemaCache.getArtifact(schema, LIST_FIELDS_ARTIFACT);
+		if (fields != null) {
+			return fields;
+		}
+
+		ArrayList<Field> list = new ArrayList<Field>();
+		for (Field field : schema.getFields()) {
+			if (isListField(field)) {
+				list.add(field);
+			}
+		}
+		// There were no list fields so use the _id field
+		if (list.isEmpty()) {
+			list.add(sIdField);
+		}
+
+		return AvroSchemaCache.putArtifact(schema, LIST_FIELDS_ARTIFACT,
+				list.toArray(new Field[list.size()]));
+	}
+
+	/**
+	 * Returns the columns searched when filtering a list of the given
+	 * schema. These are the string fields which are listed, part of the
+	 * title or marked with ui.search.
+	 * @param schema the schema to get the search columns for
+	 * @return the names of the search columns, which may be empty
+	 */
+	static String[] getSearchColumns(final Schema schema) {
+		String[] columns =
+				AvroSchemaCache.getArtifact(schema, SEARCH_COLUMNS_ARTIFACT);
+		if (columns != null) {
+			return columns;
+		}
+
+		ArrayList<String> search = new ArrayList<String>();
+		for (Field field : schema.getFields()) {
+			if (field.schema().getType() == Type.STRING
+					&& (propertyIsSet(field, "ui.list")
+					|| propertyIsSet(field, "ui.title")
+					|| propertyIsSet(field, AvroSchemaProperties.UI_SEARCH))) {
+				search.add(field.name());
+			}
+		}
+
+		return AvroSchemaCache.putArtifact(schema, SEARCH_COLUMNS_ARTIFACT,
+				search.toArray(new String[search.size()]));
 	}
 
 	/**
@@ -76,7 +150,13 @@ public class AvroListAdapter extends CursorAdapter {
 	 * @param schema the schema to get the title fields from
 	 * @return the title field names
 	 */
-	private Field[] getTitleFields(final Schema schema) {
+	private static Field[] getTitleFields(final Schema schema) {
+		Field[] fields =
+				AvroSchemaCache.getArtifact(schema, TITLE_FIELDS_ARTIFACT);
+		if (fields != null) {
+			return fields;
+		}
+
 		ArrayList<Field> title = new ArrayList<Field>();
 
 		boolean foundOne = false;
@@ -91,21 +171,8 @@ public class AvroListAdapter extends CursorAdapter {
 			title.add(sIdField);
 		}
 
-		return title.toArray(new Field[title.size()]);
-	}
-
-	/**
-	 *
-	 * @param context the AvroBaseList this will run in
-	 * @param schema the schema for the data
-	 * @param uri the uri for the data
-	 * @return a cursor for the given uri
-	 */
-	private static Cursor getCursor(final AvroBaseList context,
-			final Schema schema, final Uri uri) {
-		return context.managedQuery(uri,
-				getProjection(schema), null, null,
-				getSortOrder(schema));
+		return AvroSchemaCache.putArtifact(schema, TITLE_FIELDS_ARTIFACT,
+				title.toArray(new Field[title.size()]));
 	}
 
 	/**
@@ -113,9 +180,22 @@ public class AvroListAdapter extends CursorAdapter {
 	 * @param schema the schema for which the sort order is desired
 	 * @return the sort order portion of the query.
 	 */
-	private static String getSortOrder(final Schema schema) {
-		// TODO: This should come from the sort order on the fields
-		return schema.getProp("ui.default_sort");
+	static String getSortOrder(final Schema schema) {
+		String sortOrder =
+				AvroSchemaCache.getArtifact(schema, SORT_ORDER_ARTIFACT);
+		if (sortOrder == null) {
+			// TODO: This should come from the sort order on the fields
+			sortOrder = schema.getProp("ui.default_sort");
+			if (sortOrder == null) {
+				sortOrder = "";
+			}
+			AvroSchemaCache.putArtifact(schema, SORT_ORDER_ARTIFACT,
+					sortOrder);
+		}
+		if (sortOrder.length() == 0) {
+			return null;
+		}
+		return sortOrder;
 	}
 
 	/**
@@ -124,7 +204,13 @@ public class AvroListAdapter extends CursorAdapter {
 	 * @param schema the schema to list data for
 	 * @return an array of field names
 	 */
-	private static String[] getProjection(final Schema schema) {
+	static String[] getProjection(final Schema schema) {
+		String[] projection =
+				AvroSchemaCache.getArtifact(schema, PROJECTION_ARTIFACT);
+		if (projection != null) {
+			return projection;
+		}
+
 		ArrayList<String> listFields = new ArrayList<String>();
 		// Add the _id field be in the PROJECTION.
 		// Since this is synthetic we add it here.
@@ -148,7 +234,8 @@ public class AvroListAdapter extends CursorAdapter {
 			listFields.add("_id");
 		}
 
-		return listFields.toArray(new String[listFields.size()]);
+		return AvroSchemaCache.putArtifact(schema, PROJECTION_ARTIFACT,
+				listFields.toArray(new String[listFields.size()]));
 	}
 
 	/**
@@ -173,8 +260,7 @@ public class AvroListAdapter extends CursorAdapter {
 		}
 		for (Schema branch : schema.getTypes()) {
 			if (!isBasicType(branch)
-					&& !isValidUnionType(branch)
-					&& !isValidRecordType(branch)) {
+					&& !isValidUnionType(branch)) {
 				return false;
 			}
 		}
@@ -187,11 +273,9 @@ public class AvroListAdapter extends CursorAdapter {
 	 * @return true if this record can be in a list
 	 */
 	private static boolean isValidRecordType(final Schema schema) {
-		// TODO: We would like to support location here but does it make sense?
-		// The content provider would need a subquery and that would
-		// totally kill performance. We want to join the image...
-		// So maybe how we store locations needs to change...
-		return false;
+		// Nested records, including locations, are listed from the
+		// summary table so they don't need a subquery per row.
+		return schema.getType() == Type.RECORD;
 	}
 
 	/**
@@ -244,7 +328,7 @@ public class AvroListAdapter extends CursorAdapter {
 	 * @param property the property to check
 	 * @return true if the property in the field is set to true
 	 */
-	private static boolean propertyIsSet(final Field field,
+	static boolean propertyIsSet(final Field field,
 			final String property) {
 		boolean isSet = field.getProp(property) != null
 				&& Boolean.TRUE.equals(
@@ -258,17 +342,8 @@ public class AvroListAdapter extends CursorAdapter {
 		TableLayout layout = new TableLayout(context);
 		layout.setOrientation(LinearLayout.VERTICAL);
 
-		boolean builtOne = false;
-		for (Field field : mSchema.getFields()) {
-			if (isListField(field)) {
-				buildView(context, layout, field);
-				builtOne = true;
-			}
-		}
-
-		// There were no list fields so bind the _id field
-		if (!builtOne) {
-			buildView(context, layout, sIdField);
+		for (Field field : mListFields) {
+			buildView(context, layout, field);
 		}
 
 		// Bind the data in the cursor.
@@ -300,17 +375,8 @@ public class AvroListAdapter extends CursorAdapter {
 			view = newView(context, cursor, null);
 		}
 
-		boolean boundOne = false;
-		for (Field field : mSchema.getFields()) {
-			if (isListField(field)) {
-				bindView(view, cursor, field);
-				boundOne = true;
-			}
-		}
-
-		// We didn't bind one, so bind the _id field
-		if (!boundOne) {
-			bindView(view, cursor, sIdField);
+		for (Field field : mListFields) {
+			bindView(view, cursor, field);
 		}
 	}
 
@@ -325,6 +391,16 @@ public class AvroListAdapter extends CursorAdapter {
 		AvroViewFactory.bindListView(view, cursor, field);
 	}
 
+	@Override
+	public final Filter getFilter() {
+		// The list asks for the filter on every change to the filter text.
+		FilterQueryProvider provider = getFilterQueryProvider();
+		if (provider instanceof AvroListFilter) {
+			((AvroListFilter) provider).onRequest();
+		}
+		return super.getFilter();
+	}
+
 	/**
 	 * Returns a title for the given cursor.
 	 * @param cursor the cursor with the data
@@ -0,0 +1,135 @@
+package interdroid.vdb.avro.view;
+
+import interdroid.util.DbUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.widget.FilterQueryProvider;
+
+/**
+ * Narrows a list to the records whose searchable columns contain every
+ * word typed so far. The filter query runs on the adapter's filter
+ * thread and becomes the selection the list loader requeries with, so
+ * the list stays filtered when the data changes.
+ * <p>
+ * Matching is a LIKE scan of the live columns rather than a full text
+ * index. An index kept up to date on save, like the list summaries, would
+ * miss rows written by a sync, a merge or another application, and the
+ * filter would silently hide them. The scan is debounced instead: a query
+ * only runs once typing has paused, and a query overtaken by more typing
+ * is dropped, so there is one scan per pause rather than one per key.
+ *
+ * @author nick &lt;palmer@cs.vu.nl&gt;
+ *
+ */
+final class AvroListFilter implements FilterQueryProvider {
+	/** Access to logger. */
+	private static final Logger LOG =
+			LoggerFactory.getLogger(AvroListFilter.class);
+
+	/** The escape character for like patterns. */
+	private static final char ESCAPE = '\\';
+
+	/** How long typing must pause before the list is filtered. */
+	private static final long DEBOUNCE_MS = 300;
+
+	/** The loader for the list. */
+	private final AvroListLoader mLoader;
+	/** The quoted columns we search. */
+	private final String[] mColumns;
+	/** The uptime of the latest filter request. */
+	private volatile long mLastRequest;
+
+	/**
+	 * Construct a filter.
+	 * @param loader the loader for the list
+	 * @param columns the names of the columns to search
+	 */
+	AvroListFilter(final AvroListLoader loader, final String[] columns) {
+		mLoader = loader;
+		mColumns = DbUtil.quoteColumnNames(columns);
+	}
+
+	/**
+	 * Notes that the filter was asked for, which the list does on every
+	 * change to the filter text.
+	 */
+	void onRequest() {
+		mLastRequest = SystemClock.uptimeMillis();
+	}
+
+	@Override
+	public Cursor runQuery(final CharSequence constraint) {
+		long request = mLastRequest;
+		long wait = request + DEBOUNCE_MS - SystemClock.uptimeMillis();
+		while (wait > 0) {
+			SystemClock.sleep(wait);
+			wait = mLastRequest + DEBOUNCE_MS - SystemClock.uptimeMillis();
+		}
+		if (mLastRequest != request) {
+			// A newer filter request is queued behind this one.
+			LOG.debug("Dropping overtaken filter: {}", constraint);
+			return null;
+		}
+
+		String[] terms = new String[0];
+		if (constraint != null && constraint.toString().trim().length() > 0) {
+			terms = constraint.toString().trim().split("\\s+");
+		}
+
+		if (terms.length == 0) {
+			mLoader.setSelection(null, null);
+		} else {
+			StringBuilder selection = new StringBuilder("(");
+			List<String> args = new ArrayList<String>(
+					terms.length * mColumns.length);
+			for (int i = 0; i < terms.length; i++) {
+				if (i > 0) {
+					selection.append(" AND ");
+				}
+				selection.append('(');
+				String pattern = "%" + escape(terms[i]) + "%";
+				for (int j = 0; j < mColumns.length; j++) {
+					if (j > 0) {
+						selection.append(" OR ");
+					}
+					selection.append(mColumns[j]);
+					selection.append(" LIKE ? ESCAPE '");
+					selection.append(ESCAPE);
+					selection.append('\'');
+					args.add(pattern);
+				}
+				selection.append(')');
+			}
+			selection.append(')');
+			LOG.debug("Filtering with: {}", selection);
+			mLoader.setSelection(selection.toString(),
+					args.toArray(new String[args.size()]));
+		}
+
+		return mLoader.loadInBackground();
+	}
+
+	/**
+	 * Escapes the like wildcards in a search term.
+	 * @param term the term to escape
+	 * @return the escaped term
+	 */
+	private static String escape(final String term) {
+		StringBuilder escaped = new StringBuilder(term.length());
+		for (int i = 0; i < term.length(); i++) {
+			char c = term.charAt(i);
+			if (c == '%' || c == '_' || c == ESCAPE) {
+				escaped.append(ESCAPE);
+			}
+			escaped.append(c);
+		}
+		return escaped.toString();
+	}
+}
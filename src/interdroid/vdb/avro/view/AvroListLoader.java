@@ -0,0 +1,219 @@
+package interdroid.vdb.avro.view;
+
+import org.apache.avro.Schema;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Handler;
+
+/**
+ * Loads the cursor for a list in the background and reloads it when
+ * the data behind the list changes. This does for the list what a
+ * CursorLoader would do on newer platforms: the query and the filling
+ * of the first cursor window happen off the UI thread, and change
+ * notifications trigger an asynchronous requery instead of a
+ * synchronous one on the UI thread.
+ *
+ * @author nick &lt;palmer@cs.vu.nl&gt;
+ *
+ */
+final class AvroListLoader {
+	/** Access to logger. */
+	private static final Logger LOG =
+			LoggerFactory.getLogger(AvroListLoader.class);
+
+	/**
+	 * Receives the cursors this loader loads.
+	 * @author nick &lt;palmer@cs.vu.nl&gt;
+	 *
+	 */
+	interface Callback {
+		/**
+		 * Called on the UI thread when a new cursor has been loaded.
+		 * The callback takes ownership of the cursor.
+		 * @param cursor the loaded cursor, which may be null
+		 */
+		void onLoadFinished(Cursor cursor);
+	}
+
+	/** The resolver to query with. */
+	private final ContentResolver mResolver;
+	/** The uri to query. */
+	private final Uri mUri;
+	/** The projection to query with. */
+	private final String[] mProjection;
+	/** The selection to query with. */
+	private String mSelection;
+	/** The selection arguments to query with. */
+	private String[] mSelectionArgs;
+	/** The sort order to query with. */
+	private final String mSortOrder;
+	/** The callback to deliver cursors to. */
+	private final Callback mCallback;
+	/** The context summaries are kept in or null. */
+	private Context mContext;
+	/** The schema of the listed records or null. */
+	private Schema mSchema;
+
+	/** The load currently running or null. */
+	private LoadTask mTask;
+	/** True if the data changed while a load was running. */
+	private boolean mReloadPending;
+	/** True if we are observing changes. */
+	private boolean mStarted;
+
+	/** Watches for changes to the data behind the list. */
+	private final ContentObserver mObserver =
+			new ContentObserver(new Handler()) {
+		@Override
+		public void onChange(final boolean selfChange) {
+			LOG.debug("Data changed: {}", mUri);
+			forceLoad();
+		}
+	};
+
+	/**
+	 * Construct a loader. Must be called on the UI thread.
+	 * @param resolver the resolver to query with
+	 * @param uri the uri to query
+	 * @param projection the projection to query with
+	 * @param selection the selection to query with
+	 * @param selectionArgs the selection arguments to query with
+	 * @param sortOrder the sort order to query with
+	 * @param callback the callback to deliver cursors to
+	 */
+	AvroListLoader(final ContentResolver resolver, final Uri uri,
+			final String[] projection, final String selection,
+			final String[] selectionArgs, final String sortOrder,
+			final Callback callback) {
+		mResolver = resolver;
+		mUri = uri;
+		mProjection = projection;
+		mSelection = selection;
+		mSelectionArgs = selectionArgs;
+		mSortOrder = sortOrder;
+		mCallback = callback;
+	}
+
+	/**
+	 * Runs the query and fills the first window of the cursor.
+	 * This blocks and must not be called on the UI thread.
+	 * @return the loaded cursor or null
+	 */
+	Cursor loadInBackground() {
+		String selection;
+		String[] selectionArgs;
+		synchronized (this) {
+			selection = mSelection;
+			selectionArgs = mSelectionArgs;
+		}
+		Cursor cursor;
+		if (mSchema != null) {
+			cursor = AvroListSummary.query(mContext, mResolver, mSchema, mUri,
+					mProjection, selection, selectionArgs, mSortOrder);
+		} else {
+			cursor = mResolver.query(mUri, mProjection, selection,
+					selectionArgs, mSortOrder);
+		}
+		if (cursor != null) {
+			// Forces the count and the first window to fill here.
+			LOG.debug("Loaded {} rows for: {}", cursor.getCount(), mUri);
+		}
+		return cursor;
+	}
+
+	/**
+	 * Loads the list summaries of the records with the cursors.
+	 * Must be called before loading starts.
+	 * @param context the context summaries are kept in
+	 * @param schema the schema of the listed records
+	 */
+	void attachSummaries(final Context context, final Schema schema) {
+		mContext = context;
+		mSchema = schema;
+	}
+
+	/**
+	 * Changes the selection used by this and later loads.
+	 * May be called from any thread.
+	 * @param selection the selection to query with
+	 * @param selectionArgs the selection arguments to query with
+	 */
+	synchronized void setSelection(final String selection,
+			final String[] selectionArgs) {
+		mSelection = selection;
+		mSelectionArgs = selectionArgs;
+	}
+
+	/**
+	 * Starts watching for changes to the data.
+	 */
+	void startLoading() {
+		if (!mStarted) {
+			mStarted = true;
+			mResolver.registerContentObserver(mUri, true, mObserver);
+		}
+	}
+
+	/**
+	 * Stops watching for changes and drops any load in progress.
+	 */
+	void stopLoading() {
+		if (mStarted) {
+			mStarted = false;
+			mResolver.unregisterContentObserver(mObserver);
+		}
+		mReloadPending = false;
+		// A running load is left to finish and closes its own cursor.
+		mTask = null;
+	}
+
+	/**
+	 * Reloads the cursor in the background. If a load is already
+	 * running another one is run once it finishes.
+	 */
+	void forceLoad() {
+		if (mTask != null) {
+			mReloadPending = true;
+		} else {
+			mTask = new LoadTask();
+			mTask.execute();
+		}
+	}
+
+	/**
+	 * Loads a cursor and delivers it on the UI thread.
+	 * @author nick &lt;palmer@cs.vu.nl&gt;
+	 *
+	 */
+	private final class LoadTask extends AsyncTask<Void, Void, Cursor> {
+
+		@Override
+		protected Cursor doInBackground(final Void... params) {
+			return loadInBackground();
+		}
+
+		@Override
+		protected void onPostExecute(final Cursor cursor) {
+			if (mTask != this) {
+				LOG.debug("Dropping stale load.");
+				if (cursor != null) {
+					cursor.close();
+				}
+				return;
+			}
+			mTask = null;
+			mCallback.onLoadFinished(cursor);
+			if (mReloadPending) {
+				mReloadPending = false;
+				forceLoad();
+			}
+		}
+	}
+}
@@ -0,0 +1,194 @@
+package interdroid.vdb.avro.view;
+
+import interdroid.vdb.avro.model.NotBoundException;
+import interdroid.vdb.avro.model.UriRecordCache;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.avro.Schema;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.net.Uri;
+import android.os.Process;
+import android.widget.AbsListView;
+import android.widget.ListAdapter;
+
+/**
+ * Preloads the records around the visible part of a list, and the
+ * records opened last, into the {@link UriRecordCache} while the list
+ * is idle so the editor finds them ready. Prefetching runs at the
+ * lowest priority, stops as soon as the list scrolls or is paused and
+ * never pushes anything out of the cache.
+ *
+ * @author nick &lt;palmer@cs.vu.nl&gt;
+ *
+ */
+final class AvroListPrefetcher implements AbsListView.OnScrollListener {
+	/** Access to logger. */
+	private static final Logger LOG =
+			LoggerFactory.getLogger(AvroListPrefetcher.class);
+
+	/** The number of rows prefetched on each side of the visible rows. */
+	private static final int AHEAD = 5;
+
+	/** The number of recently opened records remembered. */
+	private static final int RECENT = 5;
+
+	/** The records opened last, most recent first. */
+	private static final LinkedList<Uri> sRecent = new LinkedList<Uri>();
+
+	/** The resolver to load with. */
+	private final ContentResolver mResolver;
+	/** The uri of the listed records. */
+	private final Uri mDir;
+	/** The schema of the listed records. */
+	private final Schema mSchema;
+	/** The list we prefetch for. */
+	private final AbsListView mList;
+
+	/** Bumped to cancel the running prefetch. */
+	private volatile int mGeneration;
+	/** True while the list may be prefetched for. */
+	private boolean mStarted;
+
+	/**
+	 * Construct a prefetcher and start listening to the list.
+	 * @param resolver the resolver to load with
+	 * @param dir the uri of the listed records
+	 * @param schema the schema of the listed records
+	 * @param list the list to prefetch for
+	 */
+	AvroListPrefetcher(final ContentResolver resolver, final Uri dir,
+			final Schema schema, final AbsListView list) {
+		mResolver = resolver;
+		mDir = dir;
+		mSchema = schema;
+		mList = list;
+		list.setOnScrollListener(this);
+	}
+
+	/**
+	 * Remembers that a record was opened so it is prefetched again
+	 * should it drop out of the cache.
+	 * @param uri the uri of the record
+	 */
+	static void opened(final Uri uri) {
+		synchronized (sRecent) {
+			sRecent.remove(uri);
+			sRecent.addFirst(uri);
+			if (sRecent.size() > RECENT) {
+				sRecent.removeLast();
+			}
+		}
+	}
+
+	/**
+	 * Allows prefetching and prefetches around the current position.
+	 * Must be called on the UI thread.
+	 */
+	void start() {
+		mStarted = true;
+		prefetch();
+	}
+
+	/**
+	 * Stops any running prefetch and prevents new ones.
+	 * Must be called on the UI thread.
+	 */
+	void stop() {
+		mStarted = false;
+		mGeneration++;
+	}
+
+	@Override
+	public void onScrollStateChanged(final AbsListView view,
+			final int scrollState) {
+		if (scrollState == SCROLL_STATE_IDLE) {
+			prefetch();
+		} else {
+			// Scrolling needs the disk for the rows being shown.
+			mGeneration++;
+		}
+	}
+
+	@Override
+	public void onScroll(final AbsListView view, final int firstVisibleItem,
+			final int visibleItemCount, final int totalItemCount) {
+		// We only care about where the list comes to rest.
+	}
+
+	/**
+	 * Starts prefetching the rows around the visible rows and the
+	 * recently opened records. Cancels any prefetch already running.
+	 */
+	void prefetch() {
+		final int generation = ++mGeneration;
+		ListAdapter adapter = mList.getAdapter();
+		if (!mStarted || adapter == null || adapter.isEmpty()) {
+			return;
+		}
+
+		final List<Uri> uris = new ArrayList<Uri>();
+		synchronized (sRecent) {
+			for (Uri uri : sRecent) {
+				if (uri.toString().startsWith(mDir.toString() + "/")) {
+					uris.add(uri);
+				}
+			}
+		}
+
+		// Visible rows first, then outwards from them.
+		int first = mList.getFirstVisiblePosition();
+		int last = Math.max(first, mList.getLastVisiblePosition());
+		for (int position = first; position <= last; position++) {
+			addRow(uris, adapter, position);
+		}
+		for (int i = 1; i <= AHEAD; i++) {
+			addRow(uris, adapter, last + i);
+			addRow(uris, adapter, first - i);
+		}
+
+		new Thread(new Runnable() {
+			public void run() {
+				Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+				for (Uri uri : uris) {
+					if (generation != mGeneration) {
+						LOG.debug("Prefetch cancelled.");
+						return;
+					}
+					try {
+						if (!UriRecordCache.prefetch(mResolver, uri,
+								mSchema)) {
+							LOG.debug("Cache full. Stopping prefetch.");
+							return;
+						}
+					} catch (NotBoundException e) {
+						LOG.warn("Unable to prefetch: " + uri, e);
+					}
+				}
+			}
+		}, "Prefetch: " + mSchema.getName()).start();
+	}
+
+	/**
+	 * Adds the uri for a row if the row exists.
+	 * @param uris the uris to add to
+	 * @param adapter the adapter with the rows
+	 * @param position the position of the row
+	 */
+	private void addRow(final List<Uri> uris, final ListAdapter adapter,
+			final int position) {
+		if (position >= 0 && position < adapter.getCount()) {
+			Uri uri = ContentUris.withAppendedId(mDir,
+					adapter.getItemId(position));
+			if (!uris.contains(uri)) {
+				uris.add(uri);
+			}
+		}
+	}
+}
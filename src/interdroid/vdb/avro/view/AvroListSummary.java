@@ -0,0 +1,790 @@
+package interdroid.vdb.avro.view;
+
+import interdroid.util.DbUtil;
+import interdroid.vdb.avro.AvroSchemaCache;
+import interdroid.vdb.avro.AvroSchemaProperties;
+import interdroid.vdb.avro.model.FieldMask;
+import interdroid.vdb.avro.model.NotBoundException;
+import interdroid.vdb.avro.model.UriDataManager;
+import interdroid.vdb.avro.model.UriRecord;
+import interdroid.vdb.avro.view.factory.AvroViewFactory;
+import interdroid.vdb.content.EntityUriMatcher;
+import interdroid.vdb.content.EntityUriMatcher.UriMatch;
+import interdroid.vdb.content.GenericContentProvider;
+import interdroid.vdb.content.avro.AvroMetadata;
+import interdroid.vdb.content.metadata.EntityInfo;
+import interdroid.vdb.persistence.api.VdbCheckout;
+import interdroid.vdb.persistence.api.VdbRepositoryRegistry;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Field;
+import org.apache.avro.Schema.Type;
+import org.apache.avro.generic.GenericData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.DataSetObservable;
+import android.database.DataSetObserver;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.provider.BaseColumns;
+
+/**
+ * Keeps a denormalized summary of the records shown in lists. The nested
+ * records a record lists are rendered once, when the record is saved,
+ * into a local summary table. The summary database is attached to the
+ * database of the list, so the one query which loads the list also
+ * selects the summaries of its rows instead of loading nested records.
+ *
+ * <p>Summaries which are missing, for instance for records which were
+ * pulled from a remote, are built in the background from the summarized
+ * fields of the record when the row is first shown, and only those of
+ * recently shown rows are kept in memory until the list is loaded
+ * again. Summaries are keyed by the fingerprint of the schema so they
+ * are rebuilt when the schema changes. The uris of the nested records
+ * shown in a summary are kept with it, so saving a nested record in its
+ * own editor or picker forgets the summaries showing it. Titles are not
+ * summarized since the list renders them from its own columns.</p>
+ *
+ * @author nick &lt;palmer@cs.vu.nl&gt;
+ *
+ */
+public final class AvroListSummary {
+	/** Access to logger. */
+	private static final Logger LOG =
+			LoggerFactory.getLogger(AvroListSummary.class);
+
+	/**
+	 * Prevent construction.
+	 */
+	private AvroListSummary() {
+		// No construction
+	}
+
+	/** The name of the summary database. */
+	private static final String DATABASE_NAME = "list_summary.db";
+	/** The version of the summary database. */
+	private static final int DATABASE_VERSION = 3;
+	/** The name the summary database is attached under. */
+	private static final String ALIAS = "list_summary";
+	/** The name of the summary table. */
+	private static final String TABLE = "summary";
+	/** The name of the table linking summaries to nested records. */
+	private static final String LINKS = "link";
+	/** The uri of the summarized record. */
+	private static final String RECORD = "record";
+	/** The uri of the list the record is in. */
+	private static final String DIR = "dir";
+	/** The id of the record in the list. */
+	private static final String ROW_ID = "row_id";
+	/** The fingerprint of the schema of the record. */
+	private static final String SCHEMA = "schema";
+	/** The name of the summarized field. */
+	private static final String FIELD = "field";
+	/** The rendered text for the field. */
+	private static final String TEXT = "text";
+	/** The thumbnail for the field. */
+	private static final String THUMBNAIL = "thumbnail";
+	/** The uri of a nested record shown in a summary. */
+	private static final String CHILD = "child";
+	/** The field of the row marking a record as summarized. */
+	private static final String MARKER = "";
+
+	/** The prefix of the list columns with the text of a field. */
+	private static final String TEXT_COLUMN = "_summary_text_";
+	/** The prefix of the list columns with the thumbnail of a field. */
+	private static final String THUMBNAIL_COLUMN = "_summary_thumbnail_";
+	/** The list column telling if a row was summarized. */
+	private static final String SUMMARIZED_COLUMN = "_summarized";
+
+	/** The name of the memoized summary fields. */
+	private static final String SUMMARY_FIELDS_ARTIFACT = "list.summary";
+
+	/** The number of rows whose summaries are kept by a list. */
+	private static final int CACHED_ROWS = 64;
+
+	/** The database helper. */
+	private static SummaryDbHelper sHelper;
+
+	/** The thread reading and building summaries or null before use. */
+	private static ExecutorService sExecutor;
+
+	/**
+	 * The summary of one field of a record.
+	 * @author nick &lt;palmer@cs.vu.nl&gt;
+	 *
+	 */
+	public static final class Summary {
+		/** The rendered text. */
+		private final String mText;
+		/** The thumbnail or null. */
+		private final byte[] mThumbnail;
+
+		/**
+		 * Construct a summary.
+		 * @param text the rendered text
+		 * @param thumbnail the thumbnail or null
+		 */
+		private Summary(final String text, final byte[] thumbnail) {
+			mText = text;
+			mThumbnail = thumbnail;
+		}
+
+		/**
+		 * @return the rendered text
+		 */
+		public String getText() {
+			return mText;
+		}
+
+		/**
+		 * @return the jpeg thumbnail or null if there is none
+		 */
+		public byte[] getThumbnail() {
+			return mThumbnail;
+		}
+	}
+
+	/**
+	 * A list cursor which carries the summaries for its rows. Summaries
+	 * are read from the columns of the list when it was loaded with them.
+	 * Otherwise they are read or built in the background the first time
+	 * a row asks for them and the observers of the cursor are told when
+	 * they arrive, so the list binds the row again.
+	 * @author nick &lt;palmer@cs.vu.nl&gt;
+	 *
+	 */
+	public static final class SummaryCursor extends CursorWrapper {
+		/** The context summaries are kept in. */
+		private final Context mContext;
+		/** The resolver to load records with. */
+		private final ContentResolver mResolver;
+		/** The schema of the records in the list. */
+		private final Schema mSchema;
+		/** The uri of the list. */
+		private final Uri mDir;
+		/** The index of the id column. */
+		private final int mIdColumn;
+		/** The index of the summarized column or -1 if there is none. */
+		private final int mSummarizedColumn;
+		/** Delivers summaries on the UI thread. */
+		private final Handler mHandler =
+				new Handler(Looper.getMainLooper());
+		/** The observers of this cursor. */
+		private final DataSetObservable mObservers = new DataSetObservable();
+		/** The ids of the rows being read. Used on the UI thread. */
+		private final Set<Long> mPending = new HashSet<Long>();
+		/** The summaries of recently shown rows. Used on the UI thread. */
+		private final Map<Long, Map<String, Summary>> mSummaries =
+				new LinkedHashMap<Long, Map<String, Summary>>(
+						CACHED_ROWS, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					final Map.Entry<Long, Map<String, Summary>> eldest) {
+				return size() > CACHED_ROWS;
+			}
+		};
+
+		/**
+		 * Construct a summary cursor.
+		 * @param context the context summaries are kept in
+		 * @param resolver the resolver to load records with
+		 * @param schema the schema of the records in the list
+		 * @param dir the uri of the list
+		 * @param cursor the cursor to wrap
+		 */
+		private SummaryCursor(final Context context,
+				final ContentResolver resolver, final Schema schema,
+				final Uri dir, final Cursor cursor) {
+			super(cursor);
+			mContext = context;
+			mResolver = resolver;
+			mSchema = schema;
+			mDir = dir;
+			mIdColumn = cursor.getColumnIndexOrThrow(BaseColumns._ID);
+			mSummarizedColumn = cursor.getColumnIndex(SUMMARIZED_COLUMN);
+		}
+
+		/**
+		 * Returns the summary of a field of the current row. Must be
+		 * called on the UI thread. If the row was not summarized when the
+		 * list was loaded the summaries are read in the background and
+		 * null is returned until they arrive.
+		 * @param field the name of the field
+		 * @return the summary or null if there is none yet
+		 */
+		public Summary getSummary(final String field) {
+			if (mSummarizedColumn >= 0 && getInt(mSummarizedColumn) != 0) {
+				int text = getColumnIndex(TEXT_COLUMN + field);
+				if (text < 0 || isNull(text)) {
+					return null;
+				}
+				return new Summary(getString(text),
+						getBlob(getColumnIndex(THUMBNAIL_COLUMN + field)));
+			}
+			final Long id = getLong(mIdColumn);
+			Map<String, Summary> row = mSummaries.get(id);
+			if (row == null) {
+				if (mPending.add(id)) {
+					getExecutor().execute(new Runnable() {
+						public void run() {
+							read(id);
+						}
+					});
+				}
+				return null;
+			}
+			return row.get(field);
+		}
+
+		/**
+		 * Reads the summaries of a row and delivers them on the UI thread.
+		 * @param id the id of the row
+		 */
+		private void read(final Long id) {
+			if (isClosed()) {
+				return;
+			}
+			final Map<String, Summary> row =
+					getSummaries(mContext, mResolver, mSchema, mDir, id);
+			mHandler.post(new Runnable() {
+				public void run() {
+					mPending.remove(id);
+					if (!isClosed()) {
+						mSummaries.put(id, row);
+						mObservers.notifyChanged();
+					}
+				}
+			});
+		}
+
+		@Override
+		public void registerDataSetObserver(final DataSetObserver observer) {
+			super.registerDataSetObserver(observer);
+			mObservers.registerObserver(observer);
+		}
+
+		@Override
+		public void unregisterDataSetObserver(
+				final DataSetObserver observer) {
+			super.unregisterDataSetObserver(observer);
+			mObservers.unregisterObserver(observer);
+		}
+	}
+
+	/**
+	 * Creates the summary database.
+	 * @author nick &lt;palmer@cs.vu.nl&gt;
+	 *
+	 */
+	private static final class SummaryDbHelper extends SQLiteOpenHelper {
+		/**
+		 * Construct a helper.
+		 * @param context the context to open the database in
+		 */
+		SummaryDbHelper(final Context context) {
+			super(context, DATABASE_NAME, null, DATABASE_VERSION);
+		}
+
+		@Override
+		public void onCreate(final SQLiteDatabase db) {
+			db.execSQL("CREATE TABLE " + TABLE + " ("
+					+ RECORD + " TEXT NOT NULL, "
+					+ DIR + " TEXT NOT NULL, "
+					+ ROW_ID + " INTEGER NOT NULL, "
+					+ SCHEMA + " INTEGER NOT NULL, "
+					+ FIELD + " TEXT NOT NULL, "
+					+ TEXT + " TEXT, "
+					+ THUMBNAIL + " BLOB, "
+					+ "PRIMARY KEY (" + RECORD + ", " + FIELD + "))");
+			db.execSQL("CREATE INDEX " + TABLE + "_" + DIR + "_idx ON "
+					+ TABLE + " (" + DIR + ", " + ROW_ID + ", " + SCHEMA + ")");
+			db.execSQL("CREATE TABLE " + LINKS + " ("
+					+ RECORD + " TEXT NOT NULL, "
+					+ CHILD + " TEXT NOT NULL)");
+			db.execSQL("CREATE INDEX " + LINKS + "_" + RECORD + "_idx ON "
+					+ LINKS + " (" + RECORD + ")");
+			db.execSQL("CREATE INDEX " + LINKS + "_" + CHILD + "_idx ON "
+					+ LINKS + " (" + CHILD + ")");
+		}
+
+		@Override
+		public void onUpgrade(final SQLiteDatabase db, final int oldVersion,
+				final int newVersion) {
+			// Summaries can always be rebuilt.
+			db.execSQL("DROP TABLE IF EXISTS " + TABLE);
+			db.execSQL("DROP TABLE IF EXISTS " + LINKS);
+			onCreate(db);
+		}
+	}
+
+	/**
+	 * @param context the context to open the database in
+	 * @return the database helper
+	 */
+	private static synchronized SummaryDbHelper getHelper(
+			final Context context) {
+		if (sHelper == null) {
+			sHelper = new SummaryDbHelper(context.getApplicationContext());
+		}
+		return sHelper;
+	}
+
+	/**
+	 * @return the thread reading and building summaries
+	 */
+	private static synchronized ExecutorService getExecutor() {
+		if (sExecutor == null) {
+			sExecutor = Executors.newSingleThreadExecutor(
+					new ThreadFactory() {
+				public Thread newThread(final Runnable task) {
+					Thread thread = new Thread(new Runnable() {
+						public void run() {
+							Process.setThreadPriority(
+									Process.THREAD_PRIORITY_BACKGROUND);
+							task.run();
+						}
+					}, "List summaries");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return sExecutor;
+	}
+
+	/**
+	 * Returns the fields of a schema which are summarized. These are the
+	 * listed fields which are records.
+	 * @param schema the schema to check
+	 * @return the summarized fields
+	 */
+	private static Field[] getSummaryFields(final Schema schema) {
+		Field[] fields =
+				AvroSchemaCache.getArtifact(schema, SUMMARY_FIELDS_ARTIFACT);
+		if (fields != null) {
+			return fields;
+		}
+
+		List<Field> summary = new ArrayList<Field>();
+		for (Field field : schema.getFields()) {
+			if (field.schema().getType() == Type.RECORD
+					&& AvroListAdapter.propertyIsSet(field, "ui.list")) {
+				summary.add(field);
+			}
+		}
+		return AvroSchemaCache.putArtifact(schema, SUMMARY_FIELDS_ARTIFACT,
+				summary.toArray(new Field[summary.size()]));
+	}
+
+	/**
+	 * @param schema the schema to check
+	 * @return true if lists of this schema use summaries
+	 */
+	public static boolean isSummarized(final Schema schema) {
+		return getSummaryFields(schema).length > 0;
+	}
+
+	/**
+	 * Renders the summaries for a record.
+	 * @param record the record to summarize
+	 * @param children receives the uris of the nested records shown
+	 * @return the summaries by field name
+	 */
+	private static Map<String, Summary> summarize(final UriRecord record,
+			final Set<String> children) {
+		Schema schema = record.getSchema();
+		Map<String, Summary> summaries = new HashMap<String, Summary>();
+		for (Field field : getSummaryFields(schema)) {
+			Object value = record.get(field.name());
+			if (value instanceof GenericData.Record) {
+				GenericData.Record nested = (GenericData.Record) value;
+				StringBuilder text = new StringBuilder();
+				appendText(text, nested, children);
+				summaries.put(field.name(), new Summary(text.toString(),
+						findThumbnail(nested)));
+			}
+		}
+		return summaries;
+	}
+
+	/**
+	 * Appends the scalar fields of a record to the text.
+	 * @param text the text to append to
+	 * @param record the record to render
+	 * @param children receives the uris of the nested records shown
+	 */
+	private static void appendText(final StringBuilder text,
+			final GenericData.Record record, final Set<String> children) {
+		if (record instanceof UriRecord) {
+			try {
+				children.add(((UriRecord) record).getInstanceUri().toString());
+			} catch (NotBoundException e) {
+				LOG.debug("Not linking unbound record.");
+			}
+		}
+		for (Field field : record.getSchema().getFields()) {
+			Object value = record.get(field.name());
+			if (value instanceof GenericData.Record) {
+				appendText(text, (GenericData.Record) value, children);
+			} else if (value != null && !(value instanceof byte[])
+					&& !(value instanceof List)
+					&& !(value instanceof Map)) {
+				if (text.length() > 0) {
+					text.append(", ");
+				}
+				text.append(AvroViewFactory.toTitle(field));
+				text.append(' ');
+				text.append(value);
+			}
+		}
+	}
+
+	/**
+	 * Finds the first image in a record and scales it to a thumbnail.
+	 * @param record the record to search
+	 * @return the jpeg thumbnail or null if the record has no image
+	 */
+	private static byte[] findThumbnail(final GenericData.Record record) {
+		for (Field field : record.getSchema().getFields()) {
+			Object value = record.get(field.name());
+			byte[] thumbnail = null;
+			String companion =
+					field.getProp(AvroSchemaProperties.UI_THUMBNAIL);
+			if (companion != null
+					&& record.get(companion) instanceof byte[]) {
+				// Reuse the thumbnail stored with the photo.
+				thumbnail = (byte[]) record.get(companion);
+			} else if (value instanceof GenericData.Record) {
+				thumbnail = findThumbnail((GenericData.Record) value);
+			} else if (value instanceof byte[]) {
+				thumbnail = UriDataManager.getThumbnail((byte[]) value);
+			}
+			if (thumbnail != null) {
+				return thumbnail;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the uri of the list containing the given record.
+	 * @param uri the uri of the record
+	 * @return the uri of the list
+	 */
+	private static String getDir(final Uri uri) {
+		String record = uri.toString();
+		return record.substring(0, record.lastIndexOf('/'));
+	}
+
+	/**
+	 * Stores the summaries for a record. A marker row is stored with
+	 * them so a record without summaries is not summarized again.
+	 * @param db the database to store to
+	 * @param uri the uri of the record
+	 * @param schema the schema of the record
+	 * @param summaries the summaries to store
+	 * @param children the uris of the nested records shown
+	 */
+	private static void store(final SQLiteDatabase db, final Uri uri,
+			final Schema schema, final Map<String, Summary> summaries,
+			final Set<String> children) {
+		String record = uri.toString();
+		db.beginTransaction();
+		try {
+			forget(db, record);
+			ContentValues values = new ContentValues();
+			values.put(RECORD, record);
+			values.put(DIR, getDir(uri));
+			values.put(ROW_ID, ContentUris.parseId(uri));
+			values.put(SCHEMA, AvroSchemaCache.fingerprint(schema));
+			values.put(FIELD, MARKER);
+			db.insert(TABLE, null, values);
+			for (Map.Entry<String, Summary> entry : summaries.entrySet()) {
+				values.put(FIELD, entry.getKey());
+				values.put(TEXT, entry.getValue().getText());
+				values.put(THUMBNAIL, entry.getValue().getThumbnail());
+				db.insert(TABLE, null, values);
+			}
+			values.clear();
+			values.put(RECORD, record);
+			for (String child : children) {
+				values.put(CHILD, child);
+				db.insert(LINKS, null, values);
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+	}
+
+	/**
+	 * Forgets the summaries of a record and of the records which may show
+	 * it in their summaries. These are the records linked to it and the
+	 * records whose uri followed by a '/' is a prefix of its uri.
+	 * @param db the database to forget in
+	 * @param record the uri of the record
+	 */
+	private static void forget(final SQLiteDatabase db, final String record) {
+		db.delete(TABLE, RECORD + " = ? OR substr(?, 1, length(" + RECORD
+				+ ") + 1) = " + RECORD + " || '/' OR " + RECORD + " IN ("
+				+ "SELECT " + RECORD + " FROM " + LINKS + " WHERE " + CHILD
+				+ " = ?)", new String[] {record, record, record});
+		db.delete(LINKS, RECORD + " = ?", new String[] {record});
+	}
+
+	/**
+	 * Updates the summaries for a record which was just saved.
+	 * @param context the context to work in
+	 * @param record the record which was saved
+	 * @throws NotBoundException if the record is not bound
+	 */
+	public static void update(final Context context, final UriRecord record)
+			throws NotBoundException {
+		Uri uri = record.getInstanceUri();
+		SQLiteDatabase db = getHelper(context).getWritableDatabase();
+		if (isSummarized(record.getSchema())) {
+			LOG.debug("Updating summary for: {}", uri);
+			Set<String> children = new HashSet<String>();
+			store(db, uri, record.getSchema(), summarize(record, children),
+					children);
+		} else {
+			forget(db, uri.toString());
+		}
+	}
+
+	/**
+	 * Forgets the summaries for a record which was deleted or reverted.
+	 * Summaries which are needed again are rebuilt by the list.
+	 * @param context the context to work in
+	 * @param uri the uri of the record
+	 */
+	public static void delete(final Context context, final Uri uri) {
+		forget(getHelper(context).getWritableDatabase(), uri.toString());
+	}
+
+	/**
+	 * Returns the summaries of a row, building and storing them if they
+	 * are missing. Only the summarized fields of the record are loaded.
+	 * This blocks and must not be called on the UI thread.
+	 * @param context the context to work in
+	 * @param resolver the resolver to load missing records with
+	 * @param schema the schema of the records in the list
+	 * @param dir the uri of the list
+	 * @param id the id of the row
+	 * @return the summaries by field name
+	 */
+	private static Map<String, Summary> getSummaries(final Context context,
+			final ContentResolver resolver, final Schema schema,
+			final Uri dir, final long id) {
+		Uri uri = ContentUris.withAppendedId(dir, id);
+		Map<String, Summary> row = new HashMap<String, Summary>();
+		SQLiteDatabase db = getHelper(context).getWritableDatabase();
+		Cursor rows = db.query(TABLE,
+				new String[] {FIELD, TEXT, THUMBNAIL},
+				RECORD + " = ? AND " + SCHEMA + " = ?",
+				new String[] {uri.toString(),
+				String.valueOf(AvroSchemaCache.fingerprint(schema))},
+				null, null, null);
+		boolean summarized = false;
+		try {
+			while (rows.moveToNext()) {
+				summarized = true;
+				if (!MARKER.equals(rows.getString(0))) {
+					row.put(rows.getString(0),
+							new Summary(rows.getString(1), rows.getBlob(2)));
+				}
+			}
+		} finally {
+			rows.close();
+		}
+		if (summarized) {
+			return row;
+		}
+
+		StringBuilder mask = new StringBuilder();
+		for (Field field : getSummaryFields(schema)) {
+			if (mask.length() > 0) {
+				mask.append(',');
+			}
+			mask.append(field.name());
+		}
+		try {
+			UriRecord record = new UriRecord(uri, schema).load(resolver,
+					FieldMask.parse(mask.toString()));
+			Set<String> children = new HashSet<String>();
+			row = summarize(record, children);
+			store(db, uri, schema, row, children);
+		} catch (NotBoundException e) {
+			LOG.warn("Unable to summarize: " + uri, e);
+		}
+		return row;
+	}
+
+	/**
+	 * Queries a list together with the summaries of its rows. Lists of
+	 * top level records are queried on the database of the checkout with
+	 * the summary database attached, the way the content provider would
+	 * query them, selecting the summaries of each row in the same query.
+	 * Other lists are queried through the resolver and their summaries
+	 * are read as the rows are shown.
+	 * This blocks and must not be called on the UI thread.
+	 * @param context the context to work in
+	 * @param resolver the resolver to query with
+	 * @param schema the schema of the records in the list
+	 * @param dir the uri of the list
+	 * @param projection the projection to query with
+	 * @param selection the selection to query with
+	 * @param selectionArgs the selection arguments to query with
+	 * @param sortOrder the sort order to query with
+	 * @return the cursor for the list or null
+	 */
+	static Cursor query(final Context context,
+			final ContentResolver resolver, final Schema schema,
+			final Uri dir, final String[] projection, final String selection,
+			final String[] selectionArgs, final String sortOrder) {
+		if (!isSummarized(schema)) {
+			return resolver.query(dir, projection, selection, selectionArgs,
+					sortOrder);
+		}
+		Cursor cursor = null;
+		UriMatch match = EntityUriMatcher.getMatch(dir);
+		if (match.entityIdentifier == null
+				&& (match.parentEntityIdentifiers == null
+				|| match.parentEntityIdentifiers.isEmpty())) {
+			try {
+				cursor = queryWithSummaries(context, resolver, schema, match,
+						dir, projection, selection, selectionArgs, sortOrder);
+			} catch (IOException e) {
+				LOG.warn("Unable to query summaries for: " + dir, e);
+			}
+		}
+		if (cursor == null) {
+			cursor = resolver.query(dir, projection, selection,
+					selectionArgs, sortOrder);
+		}
+		if (cursor == null) {
+			return null;
+		}
+		return new SummaryCursor(context.getApplicationContext(), resolver,
+				schema, dir, cursor);
+	}
+
+	/**
+	 * Queries a list of top level records with the summaries of its rows.
+	 * @param context the context to work in
+	 * @param resolver the resolver to notify the cursor with
+	 * @param schema the schema of the records in the list
+	 * @param match the match for the uri of the list
+	 * @param dir the uri of the list
+	 * @param projection the projection to query with
+	 * @param selection the selection to query with
+	 * @param selectionArgs the selection arguments to query with
+	 * @param sortOrder the sort order to query with
+	 * @return the cursor or null if the list is not of top level records
+	 * @throws IOException if the database can not be opened
+	 */
+	private static Cursor queryWithSummaries(final Context context,
+			final ContentResolver resolver, final Schema schema,
+			final UriMatch match, final Uri dir, final String[] projection,
+			final String selection, final String[] selectionArgs,
+			final String sortOrder) throws IOException {
+		EntityInfo entity = new AvroMetadata(schema).getEntity(match);
+		if (entity == null || entity.parentEntity != null) {
+			return null;
+		}
+		String key = "list." + DbUtil.quoteColumnName(
+				entity.key.get(0).fieldName);
+		String row = DIR + " = " + DatabaseUtils.sqlEscapeString(
+				dir.toString()) + " AND " + ROW_ID + " = " + key + " AND "
+				+ SCHEMA + " = " + AvroSchemaCache.fingerprint(schema);
+		StringBuilder sql = new StringBuilder("SELECT ");
+		for (String column : DbUtil.quoteColumnNames(projection)) {
+			sql.append(column).append(", ");
+		}
+		for (Field field : getSummaryFields(schema)) {
+			String summary = " FROM " + ALIAS + "." + TABLE + " WHERE " + row
+					+ " AND " + FIELD + " = "
+					+ DatabaseUtils.sqlEscapeString(field.name()) + ")";
+			sql.append("(SELECT ").append(TEXT).append(summary)
+					.append(" AS ").append(TEXT_COLUMN).append(field.name())
+					.append(", (SELECT ").append(THUMBNAIL).append(summary)
+					.append(" AS ").append(THUMBNAIL_COLUMN)
+					.append(field.name()).append(", ");
+		}
+		sql.append("EXISTS (SELECT 1 FROM ").append(ALIAS).append('.')
+				.append(TABLE).append(" WHERE ").append(row).append(") AS ")
+				.append(SUMMARIZED_COLUMN).append(" FROM ")
+				.append(GenericContentProvider.escapeName(
+						match.repositoryName, entity.namespace(),
+						entity.name()))
+				.append(" AS list");
+		if (selection != null) {
+			sql.append(" WHERE ").append(selection);
+		}
+		if (sortOrder != null) {
+			sql.append(" ORDER BY ").append(sortOrder);
+		}
+
+		String path = getHelper(context).getWritableDatabase().getPath();
+		VdbCheckout checkout = VdbRepositoryRegistry.getInstance()
+				.getRepository(context, match.repositoryName)
+				.getBranch(match.reference);
+		SQLiteDatabase db = checkout.getReadOnlyDatabase();
+		try {
+			attach(db, path);
+			Cursor cursor = db.rawQuery(sql.toString(), selectionArgs);
+			cursor.setNotificationUri(resolver, dir);
+			return cursor;
+		} finally {
+			checkout.releaseDatabase();
+		}
+	}
+
+	/**
+	 * Attaches the summary database to a database of a checkout unless it
+	 * already is. Attachments last as long as the connection.
+	 * @param db the database to attach to
+	 * @param path the path of the summary database
+	 */
+	private static synchronized void attach(final SQLiteDatabase db,
+			final String path) {
+		Cursor databases = db.rawQuery("PRAGMA database_list", null);
+		try {
+			while (databases.moveToNext()) {
+				if (ALIAS.equals(databases.getString(1))) {
+					return;
+				}
+			}
+		} finally {
+			databases.close();
+		}
+		LOG.debug("Attaching summaries to: {}", db.getPath());
+		db.execSQL("ATTACH DATABASE ? AS " + ALIAS, new Object[] {path});
+	}
+}
@@ -200,6 +200,8 @@ public class LocationPicker extends MapActivity {
 					bos = null;
 					getContentResolver().update(
 							getIntent().getData(), values, null, null);
+					AvroListSummary.delete(LocationPicker.this,
+							getIntent().getData());
 					setResult(RESULT_OK);
 					finish();
 				}
@@ -3,6 +3,7 @@ package interdroid.vdb.avro.view;
 import interdroid.util.ToastOnUI;
 import interdroid.util.view.LayoutUtil.LayoutParameters;
 import interdroid.vdb.avro.R;
+import interdroid.vdb.avro.model.UriDataManager;
 import interdroid.vdb.avro.view.CameraSurface.PictureTakenCallback;
 
 import org.slf4j.Logger;
@@ -34,6 +35,8 @@ public class UseCamera extends Activity {
 	private Uri mUri;
 	/** The field to store to in the content provider. */
 	private String mField;
+	/** The field to store the thumbnail to or null. */
+	private String mThumbnailField;
 
 	@Override
 	protected final void onStart() {
@@ -50,6 +53,7 @@ public class UseCamera extends Activity {
 		});
 		mUri = getIntent().getData();
 		mField = getIntent().getStringExtra("field");
+		mThumbnailField = getIntent().getStringExtra("thumbnail");
 
 		if (mUri == null || mField == null) {
 			ToastOnUI.show(this,
@@ -95,7 +99,11 @@ public class UseCamera extends Activity {
 		public void onPictureTaken(final byte[] data) {
 			final ContentValues values = new ContentValues();
 			values.put(mField, data);
+			if (mThumbnailField != null) {
+				values.put(mThumbnailField, UriDataManager.getThumbnail(data));
+			}
 			getContentResolver().update(mUri, values, null, null);
+			AvroListSummary.delete(UseCamera.this, mUri);
 			finish();
 		}
 
@@ -8,6 +8,7 @@ import interdroid.vdb.avro.control.handler.value.ValueHandler;
 import interdroid.vdb.avro.model.AvroRecordModel;
 import interdroid.vdb.avro.model.NotBoundException;
 import interdroid.vdb.avro.model.UriArray;
+import interdroid.vdb.avro.model.UriPagedArray;
 
 import java.util.List;
 
@@ -21,6 +22,8 @@ import android.database.Cursor;
 import android.net.Uri;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
 
 /**
  * A builder which knows how to build array views.
@@ -53,16 +56,48 @@ class AvroArrayBuilder extends AvroTypedViewBuilder {
 				LayoutParameters.W_FILL_H_WRAP, layout);
 		layout.setPadding(LEFT_INDENT, 0, 0, 0);
 
+		UriArray<Object> array = getArray(uri, valueHandler, schema);
 		ArrayHandler adapter = new ArrayHandler(activity, dataModel, layout,
-				getArray(uri, valueHandler, schema), field);
+				array, field);
 		layout.setAdapter(adapter);
 		layout.setAddListener(adapter);
+		if (array instanceof UriPagedArray) {
+			setupPaging(layout, (UriPagedArray<Object>) array);
+		}
 
 		ViewUtil.addView(activity, viewGroup, layout);
 
 		return layout;
 	}
 
+	/**
+	 * Shows a page of a paged array at a time and reads the page ahead
+	 * as the list scrolls.
+	 * @param layout the list showing the array
+	 * @param array the array
+	 */
+	private void setupPaging(final DraggableListView layout,
+			final UriPagedArray<Object> array) {
+		layout.setMaxVisibleItems(array.getPageSize());
+		layout.setOnScrollListener(new OnScrollListener() {
+
+			@Override
+			public void onScrollStateChanged(final AbsListView view,
+					final int scrollState) {
+				// We prefetch as the list moves.
+			}
+
+			@Override
+			public void onScroll(final AbsListView view,
+					final int firstVisibleItem, final int visibleItemCount,
+					final int totalItemCount) {
+				array.prefetch(Math.max(0,
+						firstVisibleItem - layout.getHeaderViewsCount()),
+						visibleItemCount);
+			}
+		});
+	}
+
 	/**
 	 * Returns or constructs a UriArray setting in the value handler.
 	 * @param uri the uri for the array
@@ -78,7 +113,7 @@ class AvroArrayBuilder extends AvroTypedViewBuilder {
 		@SuppressWarnings("unchecked")
 		UriArray<Object> array = (UriArray<Object>) valueHandler.getValue();
 		if (array == null) {
-			array = new UriArray<Object>(
+			array = UriArray.newArray(
 					Uri.withAppendedPath(valueHandler.getValueUri(),
 							valueHandler.getFieldName()), schema);
 			valueHandler.setValue(array);
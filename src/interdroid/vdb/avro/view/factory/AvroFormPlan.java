@@ -0,0 +1,189 @@
+package interdroid.vdb.avro.view.factory;
+
+import interdroid.vdb.avro.AvroSchemaCache;
+import interdroid.vdb.avro.AvroSchemaProperties;
+import interdroid.vdb.avro.AvroTimeSeries;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Field;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A compiled plan for building the edit form of a record schema.
+ * The builder, label, resource and ui state of each field are resolved
+ * once per schema and cached in the {@link AvroSchemaCache} so that
+ * later forms for the same schema only need to bind data.
+ *
+ * @author nick &lt;palmer@cs.vu.nl&gt;
+ *
+ */
+final class AvroFormPlan {
+	/**
+	 * Access to logger.
+	 */
+	private static final Logger LOG =
+			LoggerFactory.getLogger(AvroFormPlan.class);
+
+	/**
+	 * The name of the plan artifact in the schema cache.
+	 */
+	private static final String PLAN_ARTIFACT = "form.plan";
+
+	/**
+	 * The plan for a single field of the record.
+	 * @author nick &lt;palmer@cs.vu.nl&gt;
+	 *
+	 */
+	static final class FieldPlan {
+		/** The field this plan is for. */
+		private final Field mField;
+		/** The label for the field or null if it is hidden. */
+		private final String mLabel;
+		/** True if the view for the field is visible. */
+		private final boolean mVisible;
+		/** True if the view for the field is enabled. */
+		private final boolean mEnabled;
+		/** The custom resource for the field or null. */
+		private final Integer mResource;
+		/** The builder for the field or null if a resource is used. */
+		private final AvroTypedViewBuilder mBuilder;
+
+		/**
+		 * Compiles the plan for the given field.
+		 * @param field the field to compile
+		 */
+		private FieldPlan(final Field field) {
+			mField = field;
+			if (field.getProp(AvroSchemaProperties.UI_VISIBLE) == null) {
+				mLabel = AvroViewFactory.toTitle(field);
+			} else {
+				mLabel = null;
+			}
+			mVisible = field.schema().getProp(
+					AvroSchemaProperties.UI_VISIBLE) == null;
+			mEnabled = field.schema().getProp(
+					AvroSchemaProperties.UI_ENABLED) == null;
+
+			String resource = field.getProp(AvroSchemaProperties.UI_RESOURCE);
+			if (resource != null) {
+				try {
+					mResource = Integer.valueOf(resource);
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException(
+							"Unable to inflate UI resource: " + resource, e);
+				}
+				mBuilder = null;
+			} else {
+				mResource = null;
+				mBuilder = AvroViewBuilder.getBuilder(field.schema());
+				if (mBuilder == null) {
+					throw new IllegalArgumentException(
+							"Don't know how to build a view for: "
+									+ field.schema());
+				}
+			}
+		}
+
+		/**
+		 * @return the field this plan is for
+		 */
+		Field getField() {
+			return mField;
+		}
+
+		/**
+		 * @return the label for the field or null if none is shown
+		 */
+		String getLabel() {
+			return mLabel;
+		}
+
+		/**
+		 * @return true if the view for the field is visible
+		 */
+		boolean isVisible() {
+			return mVisible;
+		}
+
+		/**
+		 * @return true if the view for the field is enabled
+		 */
+		boolean isEnabled() {
+			return mEnabled;
+		}
+
+		/**
+		 * @return the custom resource for the field or null
+		 */
+		Integer getResource() {
+			return mResource;
+		}
+
+		/**
+		 * @return the builder for the field or null if a resource is used
+		 */
+		AvroTypedViewBuilder getBuilder() {
+			return mBuilder;
+		}
+	}
+
+	/**
+	 * The plans for the fields in schema order.
+	 */
+	private final List<FieldPlan> mFields;
+
+	/**
+	 * Compiles a plan for the given record schema.
+	 * @param schema the schema to compile
+	 */
+	private AvroFormPlan(final Schema schema) {
+		// Thumbnails are kept up to date by the model and never edited.
+		Set<String> thumbnails = new HashSet<String>();
+		for (Field field : schema.getFields()) {
+			String thumbnail = field.getProp(AvroSchemaProperties.UI_THUMBNAIL);
+			if (thumbnail != null) {
+				thumbnails.add(thumbnail);
+			}
+		}
+
+		// Time series are appended to in code and not held by the model.
+		List<FieldPlan> fields = new ArrayList<FieldPlan>();
+		for (Field field : schema.getFields()) {
+			if (!thumbnails.contains(field.name())
+					&& !AvroTimeSeries.isTimeSeries(field.schema())) {
+				fields.add(new FieldPlan(field));
+			}
+		}
+		mFields = Collections.unmodifiableList(fields);
+	}
+
+	/**
+	 * @return the plans for the fields in schema order
+	 */
+	List<FieldPlan> getFields() {
+		return mFields;
+	}
+
+	/**
+	 * Returns the plan for the given record schema, compiling it
+	 * the first time the schema is seen.
+	 * @param schema the record schema
+	 * @return the plan for the schema
+	 */
+	static AvroFormPlan getPlan(final Schema schema) {
+		AvroFormPlan plan = AvroSchemaCache.getArtifact(schema, PLAN_ARTIFACT);
+		if (plan == null) {
+			LOG.debug("Compiling form plan for: {}", schema.getFullName());
+			plan = AvroSchemaCache.putArtifact(schema, PLAN_ARTIFACT,
+					new AvroFormPlan(schema));
+		}
+		return plan;
+	}
+}
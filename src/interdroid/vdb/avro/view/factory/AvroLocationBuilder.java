@@ -72,15 +72,13 @@ class AvroLocationBuilder extends AvroTypedViewBuilder {
 
 	@Override
 	final View buildListView(final Context context, final Field field) {
-		// TODO Auto-generated method stub
-		return null;
+		return AvroRecordBuilder.buildSummaryListView(context, field);
 	}
 
 	@Override
 	final void bindListView(final View view, final Cursor cursor,
 			final Field field) {
-		// TODO Auto-generated method stub
-
+		AvroRecordBuilder.bindSummaryListView(view, cursor, field);
 	}
 
 	@Override
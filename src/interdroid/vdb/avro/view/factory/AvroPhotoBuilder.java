@@ -2,6 +2,7 @@ package interdroid.vdb.avro.view.factory;
 
 import interdroid.util.view.LayoutUtil.LayoutParameters;
 import interdroid.util.view.ViewUtil;
+import interdroid.vdb.avro.AvroSchemaProperties;
 import interdroid.vdb.avro.R;
 import interdroid.vdb.avro.control.handler.CameraHandler;
 import interdroid.vdb.avro.control.handler.value.ValueHandler;
@@ -9,6 +10,7 @@ import interdroid.vdb.avro.model.AvroRecordModel;
 import interdroid.vdb.avro.model.NotBoundException;
 import interdroid.vdb.avro.view.DataFormatUtil;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.avro.Schema;
@@ -19,6 +21,7 @@ import android.app.Activity;
 import android.content.Context;
 import android.database.Cursor;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.view.View;
 import android.view.ViewGroup;
@@ -64,8 +67,12 @@ class AvroPhotoBuilder extends AvroTypedViewBuilder {
 		ViewUtil.addView(activity, viewGroup, layout);
 
 		// Build the handler
+		String thumbnail = null;
+		if (field != null) {
+			thumbnail = field.getProp(AvroSchemaProperties.UI_THUMBNAIL);
+		}
 		new CameraHandler(dataModel, activity, valueHandler, cameraButton,
-						image);
+						image, thumbnail);
 
 		return layout;
 	}
@@ -81,14 +88,33 @@ class AvroPhotoBuilder extends AvroTypedViewBuilder {
 	final void bindListView(final View view, final Cursor cursor,
 			final Field field) {
 		ImageView image = (ImageView) view.findViewWithTag(field.name());
-		int index = cursor.getColumnIndex(field.name());
-		Bitmap bitmap = DataFormatUtil.getBitmap(cursor.getBlob(index),
-				AvroViewFactory.MAX_LIST_IMAGE_SIZE);
+		String thumbnail = field.getProp(AvroSchemaProperties.UI_THUMBNAIL);
+		Bitmap bitmap = null;
+		if (thumbnail != null) {
+			// The thumbnail is already small enough to show as is.
+			byte[] data = cursor.getBlob(cursor.getColumnIndex(thumbnail));
+			if (data != null) {
+				bitmap = BitmapFactory.decodeByteArray(data, 0, data.length);
+			}
+		} else {
+			byte[] data = cursor.getBlob(cursor.getColumnIndex(field.name()));
+			if (data != null && data.length > 0) {
+				bitmap = DataFormatUtil.getBitmap(data,
+						AvroViewFactory.MAX_LIST_IMAGE_SIZE);
+			}
+		}
 		image.setImageBitmap(bitmap);
 	}
 
 	@Override
 	final List<String> getProjectionFields(final Field field) {
+		String thumbnail = field.getProp(AvroSchemaProperties.UI_THUMBNAIL);
+		if (thumbnail != null) {
+			// Never pull the full photo into the list cursor.
+			List<String> ret = new ArrayList<String>(1);
+			ret.add(thumbnail);
+			return ret;
+		}
 		return getFieldNameProjection(field);
 	}
 
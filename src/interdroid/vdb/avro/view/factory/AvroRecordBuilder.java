@@ -9,6 +9,8 @@ import interdroid.vdb.avro.control.handler.value.ValueHandler;
 import interdroid.vdb.avro.model.AvroRecordModel;
 import interdroid.vdb.avro.model.NotBoundException;
 import interdroid.vdb.avro.model.UriRecord;
+import interdroid.vdb.avro.view.AvroListSummary.Summary;
+import interdroid.vdb.avro.view.AvroListSummary.SummaryCursor;
 
 import org.apache.avro.Schema;
 import org.apache.avro.Schema.Field;
@@ -17,11 +19,15 @@ import org.apache.avro.Schema.Type;
 import android.app.Activity;
 import android.content.Context;
 import android.database.Cursor;
+import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.View.OnClickListener;
 import android.widget.Button;
+import android.widget.ImageView;
+import android.widget.LinearLayout;
+import android.widget.TextView;
 
 /**
  * A builder which knows how to build Type.RECORD fields.
@@ -75,15 +81,62 @@ class AvroRecordBuilder extends AvroTypedViewBuilder {
 
 	@Override
 	final View buildListView(final Context context, final Field field) {
-		// TODO Auto-generated method stub
-		return null;
+		return buildSummaryListView(context, field);
 	}
 
 	@Override
 	final void bindListView(final View view, final Cursor cursor,
 			final Field field) {
-		// TODO Auto-generated method stub
+		bindSummaryListView(view, cursor, field);
+	}
+
+	/**
+	 * Builds a list view showing the summary of a nested record.
+	 * @param context the context to build in
+	 * @param field the field to build for
+	 * @return the list view
+	 */
+	static View buildSummaryListView(final Context context,
+			final Field field) {
+		LinearLayout layout = new LinearLayout(context);
+		layout.setOrientation(LinearLayout.HORIZONTAL);
+		layout.setTag(field.name());
+		layout.addView(new ImageView(context));
+		layout.addView(new TextView(context));
+		return layout;
+	}
 
+	/**
+	 * Binds a list view to the summary of a nested record.
+	 * @param view the view to bind
+	 * @param cursor the cursor for the list
+	 * @param field the field to bind
+	 */
+	static void bindSummaryListView(final View view, final Cursor cursor,
+			final Field field) {
+		ViewGroup layout = (ViewGroup) view.findViewWithTag(field.name());
+		ImageView image = (ImageView) layout.getChildAt(0);
+		TextView text = (TextView) layout.getChildAt(1);
+
+		Summary summary = null;
+		if (cursor instanceof SummaryCursor) {
+			summary = ((SummaryCursor) cursor).getSummary(field.name());
+		}
+		byte[] thumbnail = null;
+		if (summary != null) {
+			text.setText(summary.getText());
+			thumbnail = summary.getThumbnail();
+		} else {
+			text.setText(null);
+		}
+		if (thumbnail != null) {
+			image.setImageBitmap(BitmapFactory.decodeByteArray(thumbnail, 0,
+					thumbnail.length));
+			image.setVisibility(View.VISIBLE);
+		} else {
+			image.setImageBitmap(null);
+			image.setVisibility(View.GONE);
+		}
 	}
 
 	@Override
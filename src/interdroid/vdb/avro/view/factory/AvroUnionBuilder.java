@@ -47,11 +47,29 @@ class AvroUnionBuilder extends AvroTypedViewBuilder {
 			final ValueHandler valueHandler) throws NotBoundException {
 		return buildUnion(activity, dataModel, viewGroup, schema, field, uri,
 				new UnionHandler(dataModel, valueHandler,
-						getUnion(uri, valueHandler, schema)));
+						getUnion(uri, valueHandler, schema),
+						new UnionHandler.BranchBuilder() {
+
+					@Override
+					public View buildBranch(final Schema innerType,
+							final ValueHandler handler)
+									throws NotBoundException {
+						View view = AvroViewBuilder.getEditView(activity,
+								dataModel, null, innerType, null, uri,
+								handler);
+						LayoutParameters.setLinearLayoutParams(
+								LayoutParameters.W_WRAP_H_WRAP,
+								LayoutWeight.Zero, view);
+						return view;
+					}
+
+				}));
 	}
 
 	/**
-	 * Builds a view for a union.
+	 * Builds a view for a union. Each branch gets a radio button and an
+	 * empty placeholder, the editor for a branch is only built once the
+	 * branch is selected.
 	 * @param activity the activity for the view
 	 * @param dataModel the model to get data from
 	 * @param viewGroup the view group to add to
@@ -84,14 +102,13 @@ class AvroUnionBuilder extends AvroTypedViewBuilder {
 					radioButton);
 			row.addView(radioButton);
 
-			View view = AvroViewBuilder.getEditView(activity, dataModel, null,
-					innerType, null, uri,
-					handler.getHandler(radioButton, innerType));
+			LinearLayout placeholder = new LinearLayout(activity);
 			LayoutParameters.setLinearLayoutParams(
 					LayoutParameters.W_WRAP_H_WRAP, LayoutWeight.Zero,
-					view);
-			row.addView(view);
-			handler.addType(radioButton, innerType, view);
+					placeholder);
+			row.addView(placeholder);
+			handler.getHandler(radioButton, innerType);
+			handler.addType(radioButton, innerType, placeholder);
 
 			layout.addView(row);
 		}
@@ -1,6 +1,7 @@
 package interdroid.vdb.avro.view.factory;
 
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -71,6 +72,12 @@ public final class AvroViewBuilder {
 		new AvroUnionBuilder(),
 	};
 
+	/**
+	 * The list builder for each field we have listed.
+	 */
+	private static final Map<Field, AvroTypedViewBuilder> sListBuilders =
+			new IdentityHashMap<Field, AvroTypedViewBuilder>();
+
 	static {
 		// Initialize the hash for quick access to builders
 		for (AvroTypedViewBuilder builder : sBuilderInstances) {
@@ -80,6 +87,36 @@ public final class AvroViewBuilder {
 		}
 	}
 
+	/**
+	 * Returns the builder which builds edit views for the given schema.
+	 * @param schema the schema to build for
+	 * @return the builder or null if there is none
+	 */
+	static AvroTypedViewBuilder getBuilder(final Schema schema) {
+		return sBuilders.get(new AvroViewType(schema));
+	}
+
+	/**
+	 * Returns the builder which builds list views for the given field.
+	 * The builder is remembered for the field so that binding rows
+	 * does not resolve it again.
+	 * @param field the field to build for
+	 * @return the builder or null if there is none
+	 */
+	private static AvroTypedViewBuilder getListBuilder(final Field field) {
+		synchronized (sListBuilders) {
+			AvroTypedViewBuilder builder = sListBuilders.get(field);
+			if (builder == null) {
+				LOG.debug("Getting builder for: {}", field);
+				builder = sBuilders.get(new AvroViewType(field));
+				if (builder != null) {
+					sListBuilders.put(field, builder);
+				}
+			}
+			return builder;
+		}
+	}
+
 	/**
 	 * Binds data for a given field to a view.
 	 * @param view the view to bind with
@@ -89,12 +126,9 @@ public final class AvroViewBuilder {
 	public static void bindListView(final View view, final Cursor cursor,
 			final Field field) {
 		// Find the builder for this type
-		LOG.debug("Getting builder for: {}", field);
-		AvroTypedViewBuilder builder = sBuilders.get(new AvroViewType(field));
-
+		AvroTypedViewBuilder builder = getListBuilder(field);
 
 		if (builder != null) {
-			LOG.debug("Binding with: {} {}", builder, field.name());
 			builder.bindListView(view, cursor, field);
 		} else {
 			LOG.error("No builder for field: {}", field);
@@ -112,32 +146,13 @@ public final class AvroViewBuilder {
 			final Field field) {
 		if (field.getProp(AvroSchemaProperties.UI_RESOURCE) != null) {
 
-			LOG.debug("Inflating custom resource: {}",
+			return inflateResource(context,
 					field.getProp(AvroSchemaProperties.UI_LIST_RESOURCE));
-			try {
-
-				View view = ViewUtil.getLayoutInflater(context).inflate(
-						Integer.valueOf(
-								field.getProp(
-										AvroSchemaProperties.UI_LIST_RESOURCE)),
-										null);
-				return view;
-
-			} catch (Exception e) {
-				LOG.error("Unable to inflate resource: {}",
-						field.getProp(AvroSchemaProperties.UI_LIST_RESOURCE));
-				throw new IllegalArgumentException(
-						"Unable to inflate UI resource: "
-						+ field.getProp(
-								AvroSchemaProperties.UI_LIST_RESOURCE), e);
-			}
 
 		} else {
 
 			// Find the builder for this type
-			LOG.debug("Getting builder for: {}", field);
-			AvroTypedViewBuilder builder =
-					sBuilders.get(new AvroViewType(field));
+			AvroTypedViewBuilder builder = getListBuilder(field);
 
 			LOG.debug("Building with: {} {}", builder, field.name());
 
@@ -171,33 +186,13 @@ public final class AvroViewBuilder {
 		if (field != null
 				&& field.getProp(AvroSchemaProperties.UI_RESOURCE) != null) {
 
-			LOG.debug("Inflating custom resource: {}",
+			return inflateResource(activity,
 					field.getProp(AvroSchemaProperties.UI_RESOURCE));
-			try {
-
-				View view = ViewUtil.getLayoutInflater(activity).inflate(
-						Integer.valueOf(
-								field.getProp(
-										AvroSchemaProperties.UI_RESOURCE)),
-										null);
-				return view;
-
-			} catch (Exception e) {
-				LOG.error("Unable to inflate resource: {}",
-						field.getProp(AvroSchemaProperties.UI_RESOURCE));
-				throw new IllegalArgumentException(
-						"Unable to inflate UI resource: "
-						+ field.getProp(AvroSchemaProperties.UI_RESOURCE), e);
-			}
 
 		} else {
 
 			// Find the builder for this type
-			AvroTypedViewBuilder builder = null;
-
-			AvroViewType type = new AvroViewType(schema);
-			LOG.debug("Getting builder for: {}", type);
-			builder = sBuilders.get(type);
+			AvroTypedViewBuilder builder = getBuilder(schema);
 
 			if (builder == null) {
 				LOG.error("No builder for schema: {}", schema);
@@ -213,6 +208,49 @@ public final class AvroViewBuilder {
 		}
 	}
 
+	/**
+	 * Builds an edit view for a field using a compiled plan.
+	 * @param activity the activity the view goes in
+	 * @param dataModel the data model to get data from
+	 * @param viewGroup the view group to add the view to
+	 * @param plan the compiled plan for the field
+	 * @param uri the uri for the field
+	 * @param valueHandler the value handler to set data with
+	 * @return The view.
+	 * @throws NotBoundException if the model is not bound
+	 */
+	static View getEditView(final Activity activity,
+			final AvroRecordModel dataModel, final ViewGroup viewGroup,
+			final AvroFormPlan.FieldPlan plan, final Uri uri,
+			final ValueHandler valueHandler)
+					throws NotBoundException {
+		Field field = plan.getField();
+		if (plan.getResource() != null) {
+			return inflateResource(activity, plan.getResource());
+		}
+		return plan.getBuilder().buildEditView(activity, dataModel,
+				viewGroup, field.schema(), field, uri, valueHandler);
+	}
+
+	/**
+	 * Inflates a custom ui resource.
+	 * @param context the context to inflate in
+	 * @param resource the resource id
+	 * @return the inflated view
+	 */
+	private static View inflateResource(final Context context,
+			final Object resource) {
+		LOG.debug("Inflating custom resource: {}", resource);
+		try {
+			return ViewUtil.getLayoutInflater(context).inflate(
+					Integer.valueOf(resource.toString()), null);
+		} catch (Exception e) {
+			LOG.error("Unable to inflate resource: {}", resource);
+			throw new IllegalArgumentException(
+					"Unable to inflate UI resource: " + resource, e);
+		}
+	}
+
 	/**
 	 * @param field the field to get the projection for
 	 * @return the column names required to project this field
@@ -220,7 +258,7 @@ public final class AvroViewBuilder {
 	public static List<String> getProjectionFields(final Field field) {
 		// Find the builder for this type
 		LOG.debug("Getting builder for projection: {}", field);
-		AvroTypedViewBuilder builder = sBuilders.get(new AvroViewType(field));
+		AvroTypedViewBuilder builder = getListBuilder(field);
 		if (builder != null) {
 			return builder.getProjectionFields(field);
 		} else {
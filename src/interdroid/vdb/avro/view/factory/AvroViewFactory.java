@@ -1,7 +1,10 @@
 package interdroid.vdb.avro.view.factory;
 
 import java.text.BreakIterator;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import interdroid.util.view.LayoutUtil.LayoutParameters;
 import interdroid.util.view.LayoutUtil.LayoutWeight;
@@ -27,10 +30,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import android.app.Activity;
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Handler;
 import android.util.TypedValue;
 import android.view.Gravity;
 import android.view.LayoutInflater;
@@ -66,6 +69,17 @@ public final class AvroViewFactory {
 	 */
 	private static final float	DEFAULT_LABEL_FONT_SIZE		= 9;
 
+	/**
+	 * The number of fields built before the form is first shown.
+	 * This is roughly what fits in the first screen of the form.
+	 */
+	private static final int	FIRST_CHUNK_FIELDS			= 12;
+
+	/**
+	 * The number of fields built per batch once the form is showing.
+	 */
+	private static final int	CHUNK_FIELDS				= 8;
+
 	/**
 	 * Static factory. No construction.
 	 */
@@ -74,12 +88,42 @@ public final class AvroViewFactory {
 	}
 
 	/**
-	 * Constructs the root record scroll view and all sub-views.
+	 * The views of a form built for a root record.
+	 *
+	 * @author nick &lt;palmer@cs.vu.nl&gt;
+	 *
+	 */
+	public static final class FormViews {
+		/** The root of the form. */
+		private final View mRoot;
+		/** The containers of the fields built so far by field name. */
+		private final Map<String, ViewGroup> mContainers =
+				new HashMap<String, ViewGroup>();
+
+		/**
+		 * Construct the views of a form.
+		 * @param root the root of the form
+		 */
+		private FormViews(final View root) {
+			mRoot = root;
+		}
+	}
+
+	/**
+	 * Constructs the root record scroll view and all sub-views. Must be
+	 * called on the UI thread. The first screen of fields is built
+	 * detached and then attached to the activity in a single step. The
+	 * rest of the fields are built in later UI thread messages a batch
+	 * at a time, so the form shows and scrolls while it is built. The
+	 * form is not built on a background thread, since widgets such as the
+	 * date and time pickers keep Handlers for the thread building them
+	 * and the builders read the model the user is editing.
 	 * @param activity The activity the view will be placed in
 	 * @param dataModel The data to be viewed
+	 * @return the views of the form
 	 * @throws NotBoundException If the data model is not bound
 	 */
-	public static void buildRootView(final Activity activity,
+	public static FormViews buildRootView(final Activity activity,
 			final AvroRecordModel dataModel) throws NotBoundException {
 
 		LOG.debug("Constructing root view: " + dataModel.schema());
@@ -87,19 +131,110 @@ public final class AvroViewFactory {
 				ViewUtil.getLayoutInflater(activity).inflate(
 						R.layout.avro_base_editor, null);
 		final ScrollView scroll = new ScrollView(activity);
-		scroll.setId(Integer.MAX_VALUE);
 		LayoutParameters.setViewGroupLayoutParams(
 				LayoutParameters.W_FILL_H_FILL, scroll);
 		scroll.addView(viewGroup);
-		activity.runOnUiThread(new Runnable() {
 
-			public void run() {
-				activity.setContentView(scroll);
+		FormViews form = new FormViews(scroll);
+		ProgressiveRecordBuilder builder = new ProgressiveRecordBuilder(
+				activity, dataModel, dataModel.getCurrentModel(),
+				viewGroup, form);
+		builder.buildChunk(viewGroup, FIRST_CHUNK_FIELDS);
+		activity.setContentView(scroll);
+		builder.start();
+		return form;
+	}
+
+	/**
+	 * Builds the field views of a record a batch at a time on the UI
+	 * thread, one message per batch. Each batch is built into a detached
+	 * layout which is then attached to the form in a single step.
+	 *
+	 * @author nick &lt;palmer@cs.vu.nl&gt;
+	 *
+	 */
+	private static final class ProgressiveRecordBuilder implements Runnable {
+		/** The activity the views go in. */
+		private final Activity mActivity;
+		/** The model of the data. */
+		private final AvroRecordModel mDataModel;
+		/** The record we are building for. */
+		private final UriRecord mRecord;
+		/** The view group the batches are attached to. */
+		private final ViewGroup mViewGroup;
+		/** The views of the form. Once detached we stop building. */
+		private final FormViews mForm;
+		/** The fields which still need to be built. */
+		private final Iterator<AvroFormPlan.FieldPlan> mFields;
+		/** The handler for the UI thread the batches are built on. */
+		private final Handler mHandler = new Handler();
+
+		/**
+		 * Construct a progressive builder.
+		 * @param activity the activity the views go in
+		 * @param dataModel the model of the data
+		 * @param record the record we are building for
+		 * @param viewGroup the view group to put views into
+		 * @param form the views of the form
+		 */
+		private ProgressiveRecordBuilder(final Activity activity,
+				final AvroRecordModel dataModel, final UriRecord record,
+				final ViewGroup viewGroup, final FormViews form) {
+			mActivity = activity;
+			mDataModel = dataModel;
+			mRecord = record;
+			mViewGroup = viewGroup;
+			mForm = form;
+			mFields = AvroFormPlan.getPlan(record.getSchema())
+					.getFields().iterator();
+		}
+
+		/**
+		 * Starts building the remaining fields if there are any.
+		 */
+		public void start() {
+			if (mFields.hasNext()) {
+				mHandler.post(this);
+			}
+		}
+
+		@Override
+		public void run() {
+			// The form was replaced so stop building.
+			if (mForm.mRoot.getParent() == null || mActivity.isFinishing()) {
+				LOG.debug("Form no longer showing. Stopping build.");
+				return;
+			}
+			try {
+				LinearLayout chunk = new LinearLayout(mActivity);
+				chunk.setOrientation(LinearLayout.VERTICAL);
+				LayoutParameters.setViewGroupLayoutParams(
+						LayoutParameters.W_FILL_H_WRAP, chunk);
+				buildChunk(chunk, CHUNK_FIELDS);
+				mViewGroup.addView(chunk);
+			} catch (NotBoundException e) {
+				LOG.error("Unable to build field view.", e);
+				return;
 			}
-		});
+			// Let input and drawing in before the next batch.
+			start();
+		}
 
-		buildRecordView(activity, dataModel, dataModel.getCurrentModel(),
-				viewGroup);
+		/**
+		 * Builds views for up to count fields.
+		 * @param viewGroup the detached view group to build into
+		 * @param count the maximum number of fields to build
+		 * @throws NotBoundException if the model is not bound
+		 */
+		private void buildChunk(final ViewGroup viewGroup, final int count)
+				throws NotBoundException {
+			for (int i = 0; i < count && mFields.hasNext(); i++) {
+				AvroFormPlan.FieldPlan plan = mFields.next();
+				mForm.mContainers.put(plan.getField().name(),
+						buildFieldView(mActivity, mDataModel, mRecord,
+								viewGroup, plan));
+			}
+		}
 	}
 
 	/**
@@ -118,10 +253,9 @@ public final class AvroViewFactory {
 		LOG.debug("Building record view. {}", record.getSchema().getName());
 
 		// Construct a view for each field
-		for (Field field : record.getSchema().getFields()) {
-			LOG.debug("Building view for: " + field.name() + " in: "
-					+ record.getSchema() + " schema:" + field.schema());
-			buildFieldView(activity, dataModel, record, viewGroup, field);
+		for (AvroFormPlan.FieldPlan plan
+				: AvroFormPlan.getPlan(record.getSchema()).getFields()) {
+			buildFieldView(activity, dataModel, record, viewGroup, plan);
 		}
 
 		return viewGroup;
@@ -170,30 +304,96 @@ public final class AvroViewFactory {
 	 * @param dataModel the model for the record
 	 * @param record the record instance
 	 * @param viewGroup the view group to add to
-	 * @param field the field we are processing
-	 * @return the constructed view
+	 * @param plan the compiled plan for the field we are processing
+	 * @return the container holding the views of the field
+	 * @throws NotBoundException if the model isn't bound.
+	 */
+	private static ViewGroup buildFieldView(final Activity activity,
+			final AvroRecordModel dataModel, final UriRecord record,
+			final ViewGroup viewGroup, final AvroFormPlan.FieldPlan plan)
+					throws NotBoundException {
+		// The field lives in its own container so it can be rebuilt
+		// when the field changes behind our back.
+		LinearLayout container = new LinearLayout(activity);
+		container.setOrientation(LinearLayout.VERTICAL);
+		LayoutParameters.setViewGroupLayoutParams(
+				LayoutParameters.W_FILL_H_WRAP, container);
+		fillFieldView(activity, dataModel, record, container, plan);
+		ViewUtil.addView(activity, viewGroup, container);
+
+		return container;
+	}
+
+	/**
+	 * Builds the label and edit view for a field into its container.
+	 * @param activity the activity with the views
+	 * @param dataModel the model for the record
+	 * @param record the record instance
+	 * @param container the container for the field
+	 * @param plan the compiled plan for the field we are processing
 	 * @throws NotBoundException if the model isn't bound.
 	 */
-	private static View buildFieldView(final Activity activity,
+	private static void fillFieldView(final Activity activity,
 			final AvroRecordModel dataModel, final UriRecord record,
-			final ViewGroup viewGroup, final Field field)
+			final ViewGroup container, final AvroFormPlan.FieldPlan plan)
 					throws NotBoundException {
+		Field field = plan.getField();
 
 		// TODO: Add field comment as tiny text under the view?
-		if (field.getProp(AvroSchemaProperties.UI_VISIBLE) == null) {
+		if (plan.getLabel() != null) {
 			TextView label = new TextView(activity);
-			label.setText(toTitle(field));
+			label.setText(plan.getLabel());
 			LayoutParameters.setViewGroupLayoutParams(
 					LayoutParameters.W_WRAP_H_WRAP, label);
 			label.setGravity(Gravity.LEFT);
-			ViewUtil.addView(activity, viewGroup, label);
+			ViewUtil.addView(activity, container, label);
 		}
 
-		buildView(activity, dataModel, viewGroup, field.schema(), field,
-				record.getInstanceUri(),
+		View view = AvroViewBuilder.getEditView(activity, dataModel,
+				container, plan, record.getInstanceUri(),
 				new RecordValueHandler(dataModel, record, field.name()));
+		if (!plan.isVisible()) {
+			view.setVisibility(View.GONE);
+		}
+		if (!plan.isEnabled()) {
+			view.setEnabled(false);
+		}
+	}
 
-		return viewGroup;
+	/**
+	 * Rebuilds the views of the given fields of the root record from the
+	 * current values in the model. Fields which are not built yet are
+	 * skipped since they will be built from the current values anyway.
+	 * Must be called on the UI thread.
+	 * @param activity the activity showing the form
+	 * @param dataModel the model for the record
+	 * @param form the views of the form showing the record
+	 * @param fields the names of the fields to rebuild
+	 */
+	public static void refreshFieldViews(final Activity activity,
+			final AvroRecordModel dataModel, final FormViews form,
+			final List<String> fields) {
+		UriRecord record = dataModel.getCurrentModel();
+		if (form.mRoot.getParent() == null || record == null) {
+			return;
+		}
+		for (AvroFormPlan.FieldPlan plan
+				: AvroFormPlan.getPlan(record.getSchema()).getFields()) {
+			if (!fields.contains(plan.getField().name())) {
+				continue;
+			}
+			ViewGroup container = form.mContainers.get(plan.getField().name());
+			if (container != null) {
+				LOG.debug("Refreshing field: {}", plan.getField().name());
+				container.removeAllViews();
+				try {
+					fillFieldView(activity, dataModel, record, container,
+							plan);
+				} catch (NotBoundException e) {
+					LOG.error("Unable to refresh field view.", e);
+				}
+			}
+		}
 	}
 
 	/**
@@ -217,10 +417,9 @@ public final class AvroViewFactory {
 					EntityUriBuilder.branchUri(match.authority,
 							match.repositoryName, match.reference),
 							schema.getName());
-			LOG.debug("Storing to path: {}", pathUri);
-			pathUri = activity.getContentResolver().insert(pathUri,
-					new ContentValues());
-			subRecord = new UriRecord(pathUri, schema);
+			// The row is inserted when the array is stored.
+			LOG.debug("New record will go in: {}", pathUri);
+			subRecord = UriRecord.newRecord(pathUri, schema);
 			arrayHandler.setItem(offset, subRecord);
 		}
 		return subRecord;
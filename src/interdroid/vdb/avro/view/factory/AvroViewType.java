@@ -87,19 +87,14 @@ class AvroViewType {
 	 */
 	@Override
 	public final boolean equals(final Object o) {
-		try {
-			AvroViewType other = (AvroViewType) o;
-
-			if (mType.equals(other.mType)
-				&& ((mWidget == null && other.mWidget == null)
-					|| (mWidget != null
-						&& mWidget.equals(other.mWidget)))) {
-					return true;
-				}
-		} catch (Exception e) {
+		if (!(o instanceof AvroViewType)) {
 			return false;
 		}
-		return false;
+		AvroViewType other = (AvroViewType) o;
+		return mType.equals(other.mType)
+				&& ((mWidget == null && other.mWidget == null)
+					|| (mWidget != null
+						&& mWidget.equals(other.mWidget)));
 	}
 
 	/**